@@ -4,8 +4,32 @@
 
 package org.fernandes.properties.factory;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import org.fernandes.properties.model.DefaultHierarchicalProperties;
 import org.fernandes.properties.model.HierarchicalProperties;
+import org.fernandes.properties.model.IncludeType;
+import org.fernandes.properties.model.PreProcessorContainer;
+import org.fernandes.properties.model.PreProcessorTemplate;
+import org.fernandes.properties.model.node.RenderContext;
+import org.fernandes.properties.parser.ParseOptions;
+import org.fernandes.properties.util.CharPipe;
 import org.fernandes.properties.util.Reloader;
 
 /**
@@ -36,11 +60,34 @@ public class HierarchicalPreprocessorFactory {
      * @return an instance of hierarchical properties.
      */
     public static HierarchicalProperties createInstanceCp(String cp) {
+        return createInstanceCp(cp, new ParseOptions());
+    }
+    
+    /**
+     * Creates an instance of hierarchical properties after preprocessing 
+     * the files.
+     * @param cp The classpath from which to include.
+     * @param options The options used to parse the file and the preprocessed text.
+     * @return an instance of hierarchical properties.
+     * @throws org.fernandes.properties.parser.ParseException if the file or the 
+     * preprocessed text cannot be parsed in fail fast mode.
+     * @throws IllegalArgumentException if the pipelined parse is combined with 
+     * the virtual sections.
+     */
+    public static HierarchicalProperties createInstanceCp(String cp, ParseOptions options) {
         if(cp == null) {
             return null;
         }
-        String preprocessed = PreProcessorFactory.createInstanceFromCp(cp);
-        HierarchicalProperties props = HierarchicalPropertiesFactory.createInstance(preprocessed, true);
+        if(options.isPipelined()) {
+            checkPipelined(options);
+            if(cp.trim().isEmpty()) {
+                throw new IllegalArgumentException("The classpath is empty.");
+            }
+            return createPipelined(new StringReader(IncludeType.CLASSPATH.process(cp).toString()), cp, options,
+                    new LinkedHashSet<>());
+        }
+        String preprocessed = PreProcessorFactory.createInstanceFromCp(cp, options);
+        HierarchicalProperties props = HierarchicalPropertiesFactory.createInstance(preprocessed, true, options);
         return props;
     }
     
@@ -54,14 +101,211 @@ public class HierarchicalPreprocessorFactory {
      * @return an instance of hierarchical properties.
      */
     public static HierarchicalProperties createInstance(Path path, boolean autoReload) {
+        return createInstance(path, autoReload, new ParseOptions());
+    }
+    
+    /**
+     * Creates an instance of hierarchical properties after preprocessing 
+     * the files.
+     * @param path The path to be preprocessed and then to be converted 
+     * to hierarchical properties.
+     * @param autoReload If {@code true} the hierarchical properties are reloaded
+     * when the file is changed.
+     * @param options The options used to parse the file and the preprocessed text.
+     * @return an instance of hierarchical properties.
+     * @throws org.fernandes.properties.parser.ParseException if the file or the 
+     * preprocessed text cannot be parsed in fail fast mode.
+     */
+    public static HierarchicalProperties createInstance(Path path, boolean autoReload, ParseOptions options) {
         if(path == null) {
             return null;
         }
-        String included = PreProcessorFactory.createInstance(path);
-        HierarchicalProperties props = HierarchicalPropertiesFactory.createInstance(included, true);
+        Set<Path> dependencies = new LinkedHashSet<>();
+        HierarchicalProperties props = createInstance(path, options, dependencies);
         if(autoReload) {
-            Reloader.INSTANCE.startReloadThread(path, props);
+            Reloader.INSTANCE.watch(path, dependencies, props, options);
         }
         return props;
     }
+    
+    /**
+     * Creates an instance of hierarchical properties after preprocessing 
+     * the files and collects the files the properties were read from.
+     * @param path The path to be preprocessed and then to be converted 
+     * to hierarchical properties.
+     * @param options The options used to parse the file and the preprocessed text.
+     * @param dependencies Receives the path and the files included by it.
+     * @return an instance of hierarchical properties.
+     * @throws org.fernandes.properties.parser.ParseException if the file or the 
+     * preprocessed text cannot be parsed in fail fast mode.
+     * @throws IllegalArgumentException if the pipelined parse is combined with 
+     * the virtual sections.
+     */
+    public static HierarchicalProperties createInstance(Path path, ParseOptions options, 
+            Collection<Path> dependencies) {
+        if(path == null) {
+            return null;
+        }
+        dependencies.add(path);
+        if(options.isPipelined()) {
+            checkPipelined(options);
+            return createPipelined(path, options, dependencies);
+        }
+        PreProcessorContainer container = PreProcessorFactory.preprocess(path, new PreProcessorContainer()
+                .setPrefetchExecutor(options.getPrefetchExecutor()).setVirtualSections(options.isVirtualSections()), 
+                options);
+        CharSequence included = "";
+        if(container != null) {
+            included = container.getPreprocessed();
+            dependencies.addAll(container.getIncludedFiles());
+        }
+        DefaultHierarchicalProperties props = options.getEngine().parse(included, options);
+        if(props != null && container != null && !container.getVirtualSections().isEmpty()) {
+            // before the references are resolved, since they may point into the sections
+            props.addVirtualSections(container.getVirtualSections(), 
+                    text -> options.getEngine().parse(text, options), options.isLazyReferences());
+        }
+        return HierarchicalPropertiesFactory.dereference(props, true, options);
+    }
+    
+    /**
+     * Creates one instance of hierarchical properties for each set of defines
+     * from a single compilation of a file. The includes are fetched once for 
+     * all instances and the preprocessed texts share the text of the file 
+     * instead of copying it. The instances are rendered and parsed in parallel 
+     * on the common fork join pool.
+     * @param path The path to be preprocessed and then to be converted 
+     * to hierarchical properties.
+     * @param defineSets The sets of defines by name, like e.g. "prod" or "staging". 
+     * The defines override the definitions in the file with the same name.
+     * @param options The options used to parse the file and the preprocessed texts.
+     * @return the instances of hierarchical properties by the name of their 
+     * defines, in the order of the sets of defines.
+     * @throws org.fernandes.properties.parser.ParseException if the file or a 
+     * preprocessed text cannot be parsed in fail fast mode.
+     */
+    public static Map<String, HierarchicalProperties> createInstances(Path path, 
+            Map<String, Map<String, String>> defineSets, ParseOptions options) {
+        return createInstances(path, defineSets, options, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates one instance of hierarchical properties for each set of defines
+     * from a single compilation of a file. The includes are fetched once for 
+     * all instances and the preprocessed texts share the text of the file 
+     * instead of copying it.
+     * @param path The path to be preprocessed and then to be converted 
+     * to hierarchical properties.
+     * @param defineSets The sets of defines by name, like e.g. "prod" or "staging". 
+     * The defines override the definitions in the file with the same name.
+     * @param options The options used to parse the file and the preprocessed texts.
+     * @param executor The executor which renders and parses the instances.
+     * @return the instances of hierarchical properties by the name of their 
+     * defines, in the order of the sets of defines.
+     * @throws org.fernandes.properties.parser.ParseException if the file or a 
+     * preprocessed text cannot be parsed in fail fast mode.
+     */
+    public static Map<String, HierarchicalProperties> createInstances(Path path, 
+            Map<String, Map<String, String>> defineSets, ParseOptions options, Executor executor) {
+        PreProcessorTemplate template = PreProcessorFactory.compile(path, options);
+        Map<String, CompletableFuture<CharSequence>> includes = new ConcurrentHashMap<>();
+        Map<String, String> environment = System.getenv();
+        Properties system = System.getProperties();
+        Map<String, CompletableFuture<HierarchicalProperties>> futures = new LinkedHashMap<>();
+        defineSets.forEach((name, defines) -> futures.put(name, CompletableFuture.supplyAsync(() -> {
+            CharSequence preprocessed = template.render(new RenderContext(defines, environment, system, includes));
+            return HierarchicalPropertiesFactory.createInstance(preprocessed, true, options);
+        }, executor)));
+        Map<String, HierarchicalProperties> instances = new LinkedHashMap<>();
+        futures.forEach((name, future) -> instances.put(name, join(future)));
+        return instances;
+    }
+
+    /**
+     * Waits for an instance created in another thread.
+     * @param future The instance in the future.
+     * @return the instance.
+     * @throws RuntimeException the failure of the creation.
+     */
+    private static HierarchicalProperties join(CompletableFuture<HierarchicalProperties> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Checks the options of the pipelined parse. The pipelined parse expands
+     * all loops, since it parses the text while it is produced.
+     * @param options The options used to parse the file and the preprocessed text.
+     * @throws IllegalArgumentException if the virtual sections are enabled.
+     */
+    private static void checkPipelined(ParseOptions options) {
+        if(options.isVirtualSections()) {
+            throw new IllegalArgumentException("The virtual sections cannot be used with the pipelined parse.");
+        }
+    }
+    
+    /**
+     * Preprocesses a file in its own thread, while the preprocessed text is 
+     * parsed in the calling thread as soon as it is produced.
+     * @param path The path to be preprocessed and then to be converted 
+     * to hierarchical properties.
+     * @param options The options used to parse the file and the preprocessed text.
+     * @param dependencies Receives the files included by the path.
+     * @return an instance of hierarchical properties.
+     */
+    private static HierarchicalProperties createPipelined(Path path, ParseOptions options, 
+            Collection<Path> dependencies) {
+        if (!Files.exists(path)) {
+            throw new IllegalArgumentException(String.format("%s does not exist.", path));
+        }
+        try {
+            return createPipelined(new InputStreamReader(Files.newInputStream(path), StandardCharsets.UTF_8), 
+                    path.toString(), options, dependencies);
+        } catch (IOException ex) {
+            throw new RuntimeException(String.format("Could not read and process %s.", path), ex);
+        }
+    }
+    
+    /**
+     * Preprocesses the input in its own thread, while the preprocessed text is 
+     * parsed in the calling thread as soon as it is produced. A failure of the 
+     * preprocessor is rethrown in the calling thread and a failure of the parser
+     * stops the preprocessor.
+     * @param input The input to be preprocessed, which is closed by the preprocessor.
+     * @param name The name of the input used in error messages.
+     * @param options The options used to parse the input and the preprocessed text.
+     * @param dependencies Receives the files included by the input.
+     * @return an instance of hierarchical properties.
+     */
+    private static HierarchicalProperties createPipelined(Reader input, String name, ParseOptions options, 
+            Collection<Path> dependencies) {
+        CharPipe pipe = new CharPipe();
+        PreProcessorContainer container = new PreProcessorContainer(pipe.sink())
+                .setPrefetchExecutor(options.getPrefetchExecutor());
+        Thread preprocessor = new Thread(() -> {
+            try (Reader reader = input) {
+                options.getEngine().preprocess(reader, container, options);
+                container.finish();
+                pipe.sink().close();
+            } catch (Throwable e) {
+                pipe.fail(e);
+            }
+        }, String.format("preprocessor %s", name));
+        preprocessor.setDaemon(true);
+        preprocessor.start();
+        try (Reader preprocessed = pipe.source()) {
+            HierarchicalProperties props = HierarchicalPropertiesFactory.createInstance(preprocessed, true, options);
+            // the preprocessor has finished, since the parser read the end of the pipe
+            dependencies.addAll(container.getIncludedFiles());
+            return props;
+        } catch (IOException ex) {
+            throw new RuntimeException(String.format("Could not read and process %s.", name), ex);
+        }
+    }
 }
@@ -3,18 +3,22 @@
  */
 package org.fernandes.properties.factory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import org.fernandes.properties.model.HierarchicalProperties;
 import org.fernandes.properties.util.Reloader;
 import org.fernandes.properties.model.DefaultHierarchicalProperties;
 import org.fernandes.properties.model.IncludeType;
-import org.fernandes.properties.parser.HierarchicalPropertiesParser;
-import org.parboiled.Parboiled;
-import org.parboiled.parserunners.RecoveringParseRunner;
-import org.parboiled.support.ParsingResult;
+import org.fernandes.properties.parser.ParseOptions;
+import org.fernandes.properties.parser.ParserEngine;
 
 /**
  * Factory used to build hierarchical properties.
@@ -56,32 +60,153 @@ public class HierarchicalPropertiesFactory {
      * @throws IOException In case the hierarchical properties are found or not.
      */
     public static final HierarchicalProperties createInstance(Path inputPath, boolean dereference, boolean addReloader) throws IOException {
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        Files.copy(inputPath, bout);
-        final String input = bout.toString("UTF-8");
-        HierarchicalProperties props = createInstance(input, dereference);
+        return createInstance(inputPath, dereference, addReloader, new ParseOptions());
+    }
+
+    /**
+     * Creates an instance of the hierarchical properties allowing the 
+     * user to dereference or not.
+     * @param inputPath The input path.
+     * @param dereference If {@code true} the hierarchical properties references are dereferenced,
+     * else not.
+     * @param addReloader If {@code true} the hierarchical properties are reloaded
+     * when the file is changed.
+     * @param options The options used to parse the input.
+     * @return an instance of the hierarchical properties
+     * @throws IOException In case the hierarchical properties are found or not.
+     * @throws org.fernandes.properties.parser.ParseException if the input cannot 
+     * be parsed in fail fast mode.
+     */
+    public static final HierarchicalProperties createInstance(Path inputPath, boolean dereference, boolean addReloader, 
+            ParseOptions options) throws IOException {
+        HierarchicalProperties props;
+        try (InputStream in = Files.newInputStream(inputPath)) {
+            props = createInstance(in, dereference, options);
+        }
         if(addReloader) {
-            Reloader.INSTANCE.startReloadThread(inputPath, props);
+            Reloader.INSTANCE.startReloadThread(inputPath, props, options);
         }
         return props;
     }
 
     /**
-     * Creates the instance from a string.
+     * Creates the instance from a reader, which is read incrementally with a 
+     * bounded buffer by the scanner. The reader is not closed.
+     * @param reader The reader with the parser input.
+     * @param dereference If {@code true} the hierarchical properties references are dereferenced,
+     * else not.
+     * @param options The options used to parse the input.
+     * @return  an instance of the hierarchical properties
+     * @throws IOException In case the reader cannot be read.
+     * @throws org.fernandes.properties.parser.ParseException if the input cannot 
+     * be parsed in fail fast mode.
+     */
+    public static HierarchicalProperties createInstance(Reader reader, boolean dereference, ParseOptions options) throws IOException {
+        return dereference(options.getEngine().parse(reader, options), dereference, options);
+    }
+
+    /**
+     * Creates the instance from an UTF-8 encoded input stream, which is read 
+     * incrementally with a bounded buffer by the scanner. The stream is not closed.
+     * @param in The stream with the parser input.
+     * @param dereference If {@code true} the hierarchical properties references are dereferenced,
+     * else not.
+     * @param options The options used to parse the input.
+     * @return  an instance of the hierarchical properties
+     * @throws IOException In case the stream cannot be read.
+     * @throws org.fernandes.properties.parser.ParseException if the input cannot 
+     * be parsed in fail fast mode.
+     */
+    public static HierarchicalProperties createInstance(InputStream in, boolean dereference, ParseOptions options) throws IOException {
+        return createInstance(new InputStreamReader(in, StandardCharsets.UTF_8), dereference, options);
+    }
+
+    /**
+     * Creates the instance from an UTF-8 encoded channel, which is read 
+     * incrementally with a bounded buffer by the scanner. The channel is not closed.
+     * @param channel The channel with the parser input.
+     * @param dereference If {@code true} the hierarchical properties references are dereferenced,
+     * else not.
+     * @param options The options used to parse the input.
+     * @return  an instance of the hierarchical properties
+     * @throws IOException In case the channel cannot be read.
+     * @throws org.fernandes.properties.parser.ParseException if the input cannot 
+     * be parsed in fail fast mode.
+     */
+    public static HierarchicalProperties createInstance(ReadableByteChannel channel, boolean dereference, ParseOptions options) throws IOException {
+        return createInstance(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE), -1), dereference, options);
+    }
+
+    /**
+     * Creates the instance from a string using the default parser engine.
      * @param input The parser input.
      * @param dereference If {@code true} the hierarchical properties references are dereferenced,
      * else not.
      * @return  an instance of the hierarchical properties
      */
     public static HierarchicalProperties createInstance(final String input, boolean dereference) {
-        HierarchicalPropertiesParser parser = Parboiled.createParser(HierarchicalPropertiesParser.class);
-        ParsingResult<?> result = new RecoveringParseRunner<DefaultHierarchicalProperties>(
-                parser.main()).run(input);
-        final DefaultHierarchicalProperties resultValue = (DefaultHierarchicalProperties) result.resultValue;
+        return createInstance(input, dereference, new ParseOptions());
+    }
+
+    /**
+     * Creates the instance from a string.
+     * @param input The parser input.
+     * @param dereference If {@code true} the hierarchical properties references are dereferenced,
+     * else not.
+     * @param engine The engine used to parse the input.
+     * @return  an instance of the hierarchical properties
+     */
+    public static HierarchicalProperties createInstance(final String input, boolean dereference, ParserEngine engine) {
+        return createInstance(input, dereference, new ParseOptions().setEngine(engine));
+    }
+
+    /**
+     * Creates the instance from a string.
+     * @param input The parser input.
+     * @param dereference If {@code true} the hierarchical properties references are dereferenced,
+     * else not.
+     * @param options The options used to parse the input.
+     * @return  an instance of the hierarchical properties
+     * @throws org.fernandes.properties.parser.ParseException if the input cannot 
+     * be parsed in fail fast mode.
+     */
+    public static HierarchicalProperties createInstance(final String input, boolean dereference, ParseOptions options) {
+        return dereference(options.getEngine().parse(input, options), dereference, options);
+    }
+
+    /**
+     * Creates the instance from a character sequence, like the preprocessed text, 
+     * which the scanner reads without copying it.
+     * @param input The parser input.
+     * @param dereference If {@code true} the hierarchical properties references are dereferenced,
+     * else not.
+     * @param options The options used to parse the input.
+     * @return  an instance of the hierarchical properties
+     * @throws org.fernandes.properties.parser.ParseException if the input cannot 
+     * be parsed in fail fast mode.
+     */
+    public static HierarchicalProperties createInstance(final CharSequence input, boolean dereference, ParseOptions options) {
+        return dereference(options.getEngine().parse(input, options), dereference, options);
+    }
+
+    /**
+     * Dereferences the parsed hierarchical properties, if requested.
+     * @param resultValue The parsed hierarchical properties or {@code null}.
+     * @param dereference If {@code true} the hierarchical properties references are dereferenced,
+     * else not.
+     * @param options The options which define, if the references are dereferenced lazily.
+     * @return  the parsed hierarchical properties or {@code null}.
+     */
+    static HierarchicalProperties dereference(DefaultHierarchicalProperties resultValue, boolean dereference, 
+            ParseOptions options) {
         if(resultValue == null) {
             return null;
         }
-        if(dereference) {
+        if(dereference && options.isLazyReferences()) {
+            resultValue.bindRefs();
+        } else if(dereference) {
             resultValue.dereferenceRefs();
         }
         return resultValue;
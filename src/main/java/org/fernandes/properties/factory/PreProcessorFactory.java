@@ -5,13 +5,19 @@ package org.fernandes.properties.factory;
 
 import org.fernandes.properties.model.PreProcessorContainer;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import org.fernandes.properties.model.IncludeType;
-import org.fernandes.properties.parser.PreProcessorParser;
-import org.parboiled.Parboiled;
-import org.parboiled.parserunners.RecoveringParseRunner;
-import org.parboiled.support.ParsingResult;
+import org.fernandes.properties.model.PreProcessorTemplate;
+import org.fernandes.properties.model.TemplateCompiler;
+import org.fernandes.properties.parser.ParseOptions;
 
 /**
  * Factory for the preprocessor parser/
@@ -26,11 +32,23 @@ public class PreProcessorFactory {
      * @return a string with the preprocessed properties.
      */
     public static String createInstanceFromCp(String cp) {
+        return createInstanceFromCp(cp, new ParseOptions());
+    }
+
+    /**
+     * Creates an instance of the properties from the classpath.
+     * @param cp The classpath to read from.
+     * @param options The options used to parse the file.
+     * @return a string with the preprocessed properties.
+     * @throws org.fernandes.properties.parser.ParseException if the file cannot
+     * be parsed in fail fast mode.
+     */
+    public static String createInstanceFromCp(String cp, ParseOptions options) {
         if(cp == null || cp.trim().isEmpty()) {
             throw new IllegalArgumentException("The classpath is empty.");
         }
         CharSequence content = IncludeType.CLASSPATH.process(cp);
-        return createInstance(content.toString());
+        return createInstance(content.toString(), options);
     }
 
     /**
@@ -41,13 +59,53 @@ public class PreProcessorFactory {
      * {@code urlContent}.
      */
     public static String createInstance(Path path) {
+        return createInstance(path, new ParseOptions());
+    }
+
+    /**
+     * Parses a file for processing the includes.
+     *
+     * @param path The urlContent to the file to be processed.
+     * @param options The options used to parse the file.
+     * @return the result of the inclusions based on the directives in
+     * {@code urlContent}.
+     * @throws org.fernandes.properties.parser.ParseException if the file cannot
+     * be parsed in fail fast mode.
+     */
+    public static String createInstance(Path path, ParseOptions options) {
+        return getPreprocessedText(preprocess(path, options));
+    }
+
+    /**
+     * Parses a file for processing the includes and returns the container
+     * with the pre-processed text and the files it includes.
+     *
+     * @param path The file to be processed.
+     * @param options The options used to parse the file.
+     * @return the container with the result of the inclusions or {@code null}.
+     * @throws org.fernandes.properties.parser.ParseException if the file cannot
+     * be parsed in fail fast mode.
+     */
+    public static PreProcessorContainer preprocess(Path path, ParseOptions options) {
+        return preprocess(path, new PreProcessorContainer().setPrefetchExecutor(options.getPrefetchExecutor()), options);
+    }
+
+    /**
+     * Parses a file for processing the includes into a container.
+     *
+     * @param path The file to be processed.
+     * @param container The container which receives the pre-processed text.
+     * @param options The options used to parse the file.
+     * @return the container with the result of the inclusions or {@code null}.
+     * @throws org.fernandes.properties.parser.ParseException if the file cannot
+     * be parsed in fail fast mode.
+     */
+    public static PreProcessorContainer preprocess(Path path, PreProcessorContainer container, ParseOptions options) {
         if (!Files.exists(path)) {
             throw new IllegalArgumentException(String.format("%s does not exist.", path));
         }
-        String content;
-        try {
-            content = new String(Files.readAllBytes(path), "UTF-8");
-            return createInstance(content);
+        try (InputStream in = Files.newInputStream(path)) {
+            return options.getEngine().preprocess(new InputStreamReader(in, StandardCharsets.UTF_8), container, options);
         } catch (IOException ex) {
             throw new RuntimeException(String.format("Could not read and process %s.", path), ex);
         }
@@ -60,10 +118,142 @@ public class PreProcessorFactory {
      * @return the string with all the inclusions made.
      */
     public static String createInstance(final String input) {
-        PreProcessorParser parser = Parboiled.createParser(PreProcessorParser.class);
-        ParsingResult<PreProcessorContainer> result = new RecoveringParseRunner<PreProcessorContainer>(
-                parser.main()).run(input);
-        final PreProcessorContainer resultValue = result.resultValue;
+        return createInstance(input, new ParseOptions());
+    }
+
+    /**
+     * Creates the instance from a string.
+     *
+     * @param input The parser input.
+     * @param options The options used to parse the input.
+     * @return the string with all the inclusions made.
+     * @throws org.fernandes.properties.parser.ParseException if the input
+     * cannot be parsed in fail fast mode.
+     */
+    public static String createInstance(final String input, ParseOptions options) {
+        return getPreprocessedText(options.getEngine().preprocess(input, options));
+    }
+
+    /**
+     * Creates the instance from a reader, which is read incrementally with a
+     * bounded buffer by the scanner. The reader is not closed.
+     *
+     * @param reader The reader with the parser input.
+     * @param options The options used to parse the input.
+     * @return the string with all the inclusions made.
+     * @throws IOException if the reader cannot be read.
+     * @throws org.fernandes.properties.parser.ParseException if the input
+     * cannot be parsed in fail fast mode.
+     */
+    public static String createInstance(Reader reader, ParseOptions options) throws IOException {
+        return getPreprocessedText(options.getEngine().preprocess(reader, options));
+    }
+
+    /**
+     * Creates the instance from an UTF-8 encoded input stream, which is read
+     * incrementally with a bounded buffer by the scanner. The stream is not
+     * closed.
+     *
+     * @param in The stream with the parser input.
+     * @param options The options used to parse the input.
+     * @return the string with all the inclusions made.
+     * @throws IOException if the stream cannot be read.
+     * @throws org.fernandes.properties.parser.ParseException if the input
+     * cannot be parsed in fail fast mode.
+     */
+    public static String createInstance(InputStream in, ParseOptions options) throws IOException {
+        return createInstance(new InputStreamReader(in, StandardCharsets.UTF_8), options);
+    }
+
+    /**
+     * Creates the instance from an UTF-8 encoded channel, which is read
+     * incrementally with a bounded buffer by the scanner. The channel is not
+     * closed.
+     *
+     * @param channel The channel with the parser input.
+     * @param options The options used to parse the input.
+     * @return the string with all the inclusions made.
+     * @throws IOException if the channel cannot be read.
+     * @throws org.fernandes.properties.parser.ParseException if the input
+     * cannot be parsed in fail fast mode.
+     */
+    public static String createInstance(ReadableByteChannel channel, ParseOptions options) throws IOException {
+        return createInstance(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE), -1), options);
+    }
+
+    /**
+     * Compiles a file into a template, which can be rendered many times with
+     * different defines without parsing the file again.
+     *
+     * @param path The file to be compiled.
+     * @param options The options used to parse the file.
+     * @return the compiled template.
+     * @throws org.fernandes.properties.parser.ParseException if the file cannot
+     * be parsed in fail fast mode.
+     */
+    public static PreProcessorTemplate compile(Path path, ParseOptions options) {
+        if (!Files.exists(path)) {
+            throw new IllegalArgumentException(String.format("%s does not exist.", path));
+        }
+        try (InputStream in = Files.newInputStream(path)) {
+            return compile(new InputStreamReader(in, StandardCharsets.UTF_8), options);
+        } catch (IOException ex) {
+            throw new RuntimeException(String.format("Could not read and compile %s.", path), ex);
+        }
+    }
+
+    /**
+     * Compiles a string into a template, which can be rendered many times with
+     * different defines without parsing the string again.
+     *
+     * @param input The parser input.
+     * @param options The options used to parse the input.
+     * @return the compiled template.
+     * @throws org.fernandes.properties.parser.ParseException if the input
+     * cannot be parsed in fail fast mode.
+     */
+    public static PreProcessorTemplate compile(String input, ParseOptions options) {
+        TemplateCompiler compiler = new TemplateCompiler();
+        return getTemplate(options.getEngine().preprocess(input, compiler, options), compiler);
+    }
+
+    /**
+     * Compiles the input read from a reader into a template. The reader is not
+     * closed.
+     *
+     * @param reader The reader with the parser input.
+     * @param options The options used to parse the input.
+     * @return the compiled template.
+     * @throws IOException if the reader cannot be read.
+     * @throws org.fernandes.properties.parser.ParseException if the input
+     * cannot be parsed in fail fast mode.
+     */
+    public static PreProcessorTemplate compile(Reader reader, ParseOptions options) throws IOException {
+        TemplateCompiler compiler = new TemplateCompiler();
+        return getTemplate(options.getEngine().preprocess(reader, compiler, options), compiler);
+    }
+
+    /**
+     * Returns the template of a compiler, if the parser succeeded.
+     *
+     * @param resultValue The result of the parser or {@code null}.
+     * @param compiler The compiler filled by the parser.
+     * @return the compiled template or an empty template.
+     */
+    private static PreProcessorTemplate getTemplate(PreProcessorContainer resultValue, TemplateCompiler compiler) {
+        return resultValue == null ? new TemplateCompiler().getTemplate() : compiler.getTemplate();
+    }
+
+    /**
+     * Returns the pre-processed text of the container.
+     *
+     * @param resultValue The container with the pre-processed text or
+     * {@code null}.
+     * @return the pre-processed text or an empty string.
+     */
+    private static String getPreprocessedText(PreProcessorContainer resultValue) {
         return resultValue == null ? "" : resultValue.getPreprocessedText();
     }
 }
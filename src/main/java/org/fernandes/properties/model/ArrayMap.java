@@ -0,0 +1,118 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * A read-only map view over a key table and an array of values, which keeps
+ * the order of the keys.
+ *
+ * @author onepoint
+ * @param <V> The type of the values.
+ */
+final class ArrayMap<V> extends AbstractMap<String, V> {
+
+    /**
+     * The keys.
+     */
+    private final KeyTable keys;
+
+    /**
+     * The values in the order of the keys.
+     */
+    private final V[] values;
+
+    /**
+     * Associates this view to the keys and values.
+     *
+     * @param keys The keys.
+     * @param values The values in the order of the keys.
+     */
+    ArrayMap(KeyTable keys, V[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get(Object key) {
+        int index = keys.indexOf(key);
+        return index < 0 ? null : values[index];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return keys.indexOf(key) >= 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void forEach(BiConsumer<? super String, ? super V> action) {
+        for (int i = 0; i < values.length; i++) {
+            action.accept(keys.key(i), values[i]);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        return new AbstractSet<Entry<String, V>>() {
+
+            @Override
+            public Iterator<Entry<String, V>> iterator() {
+                return new Iterator<Entry<String, V>>() {
+
+                    /**
+                     * The index of the next entry.
+                     */
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < values.length;
+                    }
+
+                    @Override
+                    public Entry<String, V> next() {
+                        if (next == values.length) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, V> entry = new SimpleImmutableEntry<>(keys.key(next), values[next]);
+                        next++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+}
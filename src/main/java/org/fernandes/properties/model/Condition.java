@@ -0,0 +1,68 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.model;
+
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A compiled condition of an if statement, like e.g.
+ * {@code env == prod && port >= 8000}. The declared values are compiled once,
+ * so that testing the condition only looks up the variables.
+ * @author onepoint
+ */
+@FunctionalInterface
+public interface Condition {
+
+    /**
+     * Tests the condition.
+     * @param variables Returns the value of a variable or {@code null}, if it
+     * is not defined.
+     * @return {@code true} if the condition is met, else {@code false}.
+     * @throws IllegalArgumentException if a tested variable is not defined.
+     */
+    boolean test(Function<String, String> variables);
+
+    /**
+     * Returns the condition, which is met if this and another condition are
+     * met. The other condition is only tested, if this one is met.
+     * @param other The other condition.
+     * @return the condition, which is met if both conditions are met.
+     */
+    default Condition and(Condition other) {
+        return variables -> test(variables) && other.test(variables);
+    }
+
+    /**
+     * Returns the condition, which is met if this or another condition is
+     * met. The other condition is only tested, if this one is not met.
+     * @param other The other condition.
+     * @return the condition, which is met if one of the conditions is met.
+     */
+    default Condition or(Condition other) {
+        return variables -> test(variables) || other.test(variables);
+    }
+
+    /**
+     * Compiles the comparison of a variable with a declared value.
+     * @param variable The name of the variable.
+     * @param operator The operator of the comparison.
+     * @param value The declared value.
+     * @return the compiled comparison.
+     */
+    static Condition compare(String variable, IfOperator operator, String value) {
+        if (operator == null) {
+            throw new IllegalArgumentException(String.format("The comparison of %s has no operator.", variable));
+        }
+        Predicate<String> predicate = operator.compile(value);
+        return variables -> {
+            String variableValue = variables.apply(variable);
+            if (variableValue == null) {
+                throw new IllegalArgumentException(String.format("%s was not defined.", variable));
+            }
+            return predicate.test(variableValue);
+        };
+    }
+}
@@ -4,15 +4,20 @@
 package org.fernandes.properties.model;
 
 import java.beans.PropertyChangeListener;
-import java.beans.PropertyChangeSupport;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.fernandes.properties.function.NodeProcessFunction;
@@ -32,14 +37,23 @@ public class DefaultHierarchicalProperties implements HierarchicalProperties {
     private static final Logger LOG = Logger.getLogger(DefaultHierarchicalProperties.class.getName());
 
     /**
-     * The root node.
+     * The number of changes of the property maps of the nodes, which is
+     * compared by the values rendered from references.
      */
-    private DefaultNode root = new DefaultNode(DefaultNode.ROOT_NODE_NAME, this);
+    private final AtomicLong modifications = new AtomicLong();
+
+    /**
+     * The current version of the tree with the root node and the index of the
+     * nodes. A new version is built completely before it is published, so
+     * that readers never see a partially built tree or index.
+     */
+    private final AtomicReference<HierarchicalPropertiesSnapshot> current = new AtomicReference<>(
+            new HierarchicalPropertiesSnapshot(new DefaultNode(DefaultNode.ROOT_NODE_NAME, this)));
 
     /**
      * The current pointer to
      */
-    private DefaultNode curNode = root;
+    private DefaultNode curNode = current.get().getRoot();
 
     /**
      * The current key.
@@ -68,9 +82,10 @@ public class DefaultHierarchicalProperties implements HierarchicalProperties {
     private final Map<String, Map<String, String>> elVarMap = new HashMap<>();
 
     /**
-     * Used to fire property change events to listeners.
+     * Used to deliver property change events to the global listeners and to
+     * the listeners of paths.
      */
-    private final PropertyChangeSupport pcs = new PropertyChangeSupport(this);
+    private final ListenerRegistry listeners = new ListenerRegistry();
 
     /**
      * Gets the value for a key from the current node.
@@ -112,18 +127,53 @@ public class DefaultHierarchicalProperties implements HierarchicalProperties {
      * @return this object
      */
     public DefaultHierarchicalProperties putValue(String value) {
-        System.out.println("+++ " + value);
-        for (Map.Entry<String, Map<String, String>> entry : elVarMap.entrySet()) {
-            for (Map.Entry<String, String> subEntry : entry.getValue().entrySet()) {
-                String toReplace = String.format("\\$\\{%s\\.%s\\}", entry.getKey(), subEntry.getKey());
-                value = value.replaceAll(toReplace, subEntry.getValue().replace("\\", "\\\\"));
-            }
+        if (!elVarMap.isEmpty() && value.contains("${")) {
+            value = substituteElVars(value);
+        }
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "Key: {0} :: Value: {1}", new String[]{curKey, value});
         }
-        LOG.log(Level.INFO, "Key: {0} :: Value: {1}", new String[]{curKey, value});
         this.put(curKey, value.trim());
         return this;
     }
 
+    /**
+     * Replaces the expression language variables, like e.g. "${SYS.os.name}",
+     * in a single pass over the value. Variables without a value are kept.
+     *
+     * @param value The value with the variables.
+     * @return the value with the variables replaced.
+     */
+    private String substituteElVars(String value) {
+        StringBuilder builder = null;
+        int copied = 0;
+        int start = value.indexOf("${");
+        while (start >= 0) {
+            int next = start + 2;
+            for (ExternalEnvironment environment : ExternalEnvironment.values()) {
+                String category = environment.toString();
+                int nameStart = start + 2 + category.length() + 1;
+                if (!value.startsWith(category, start + 2) || nameStart > value.length()
+                        || value.charAt(nameStart - 1) != '.') {
+                    continue;
+                }
+                int end = value.indexOf('}', nameStart);
+                Map<String, String> varMap = elVarMap.get(category);
+                String replacement = end < 0 || varMap == null ? null : varMap.get(value.substring(nameStart, end));
+                if (replacement != null) {
+                    if (builder == null) {
+                        builder = new StringBuilder(value.length() + replacement.length());
+                    }
+                    builder.append(value, copied, start).append(replacement);
+                    copied = next = end + 1;
+                }
+                break;
+            }
+            start = value.indexOf("${", next);
+        }
+        return builder == null ? value : builder.append(value, copied, value.length()).toString();
+    }
+
     /**
      * Puts a current environment value.
      *
@@ -158,7 +208,7 @@ public class DefaultHierarchicalProperties implements HierarchicalProperties {
      */
     public DefaultHierarchicalProperties putReferenceNode(String hierarchyNode) {
         curRefKey = new Reference();
-        curRefKey.setLocation(new DefaultNode(curNode));
+        curRefKey.setLocation(curNode);
         curRefKey.setSourceProperty(curKey);
         curRefKey.setTargetHierarchy(hierarchyNode);
         this.refList.add(curRefKey);
@@ -203,14 +253,16 @@ public class DefaultHierarchicalProperties implements HierarchicalProperties {
     /**
      * Creates a hierarchy with an expression like "/opt/test" where "/" is the
      * root node, "opt" the first child and "test" the grandchild of root. The
-     * last found node is the node that will be set as the current node.
+     * last found node is the node that will be set as the current node. The
+     * new nodes are found with {@link #getNode(String)} after
+     * {@link #reindex()}, so that a published index never changes.
      *
      * @param nodeExpr The node expression.
      * @return a reference to this object.
      */
     public DefaultHierarchicalProperties createNodes(String nodeExpr) {
         String[] splits = nodeExpr.split("\\/");
-        DefaultNode node = root;
+        DefaultNode node = current.get().getRoot();
         for (int i = 0, length = splits.length; i < length; i++) {
             String nodeName = splits[i].trim();
             if (node.getChildren().containsKey(nodeName)) {
@@ -233,6 +285,16 @@ public class DefaultHierarchicalProperties implements HierarchicalProperties {
      */
     @Override
     public String toString() {
+        return describe(current.get().getRoot());
+    }
+
+    /**
+     * Returns the string representation of a tree.
+     *
+     * @param root The root of the tree.
+     * @return the string representation of the tree.
+     */
+    static String describe(DefaultNode root) {
         Stack<DefaultNode> stack = new Stack<>();
         stack.push(root);
         final String indent = "    ";
@@ -256,12 +318,13 @@ public class DefaultHierarchicalProperties implements HierarchicalProperties {
     }
 
     /**
-     * Returns the iterator over all nodes.
+     * Returns the iterator over all nodes of the current version of the tree.
      *
      * @return the iterator over all nodes.
      */
     @Override
     public Iterator<DefaultNode> iterator() {
+        HierarchicalPropertiesSnapshot snapshot = current.get();
         return new Iterator<DefaultNode>() {
 
             /**
@@ -284,8 +347,18 @@ public class DefaultHierarchicalProperties implements HierarchicalProperties {
              */
             private final Iterator<DefaultNode> allNodesIter;
 
+            /**
+             * The nodes of the sections generated by for loops.
+             */
+            private final Iterator<DefaultNode> virtualNodesIter = snapshot.virtualNodes();
+
+            /**
+             * {@code true} if the current node was generated by a for loop.
+             */
+            private boolean virtual;
+
             {
-                stack.push(root);
+                stack.push(snapshot.getRoot());
                 while (!stack.isEmpty()) {
                     final DefaultNode node = stack.pop();
                     allNodes.add(node);
@@ -298,16 +371,20 @@ public class DefaultHierarchicalProperties implements HierarchicalProperties {
 
             @Override
             public boolean hasNext() {
-                return allNodesIter.hasNext();
+                return allNodesIter.hasNext() || virtualNodesIter.hasNext();
             }
 
             @Override
             public DefaultNode next() {
-                return curNode = allNodesIter.next();
+                virtual = !allNodesIter.hasNext();
+                return curNode = virtual ? virtualNodesIter.next() : allNodesIter.next();
             }
 
             @Override
             public void remove() {
+                if (virtual) {
+                    throw new UnsupportedOperationException("A node generated by a for loop cannot be removed.");
+                }
                 allNodesIter.remove();
                 DefaultNode parent = curNode.getParent();
                 Map<String, DefaultNode> childrenMap = parent.getChildren();
@@ -350,23 +427,46 @@ public class DefaultHierarchicalProperties implements HierarchicalProperties {
      */
     @Override
     public DefaultNode getNode(String hierarchicalName) {
-        if (root.getHierarchicalName().equals(hierarchicalName)) {
-            return root;
-        }
-        Stack<DefaultNode> nodeStack = new Stack<>();
-        nodeStack.push(root);
-        while (!nodeStack.isEmpty()) {
-            DefaultNode presentNode = nodeStack.pop();
-            Map<String, DefaultNode> map = presentNode.getChildren();
-            for (Map.Entry<String, DefaultNode> entry : map.entrySet()) {
-                DefaultNode child = entry.getValue();
-                if (child.getHierarchicalName().equals(hierarchicalName)) {
-                    return child;
-                }
-                nodeStack.push(child);
+        return current.get().getNode(hierarchicalName);
+    }
+
+    /**
+     * Adds the sections generated by for loops, which were not expanded by
+     * the pre-processor. Their nodes are found with {@link #getNode(String)}
+     * and by the iteration and have their parents in this tree, but they are
+     * not children of the nodes of the tree. The references in them are
+     * resolved in this tree.
+     *
+     * @param sections The sections generated by for loops.
+     * @param parser Parses the text of an iteration of a loop without
+     * resolving its references.
+     * @param lazyReferences If {@code true} the references of the iterations
+     * are resolved when they are read, else when the iterations are parsed.
+     * @return a reference to this object.
+     */
+    public DefaultHierarchicalProperties addVirtualSections(Collection<VirtualSections> sections,
+            Function<CharSequence, DefaultHierarchicalProperties> parser, boolean lazyReferences) {
+        for (VirtualSections section : sections) {
+            section.attach(this, parser, lazyReferences);
+            if (section.getParentPath() != null) {
+                createNodes(section.getParentPath());
             }
         }
-        return null;
+        current.updateAndGet(snapshot -> snapshot.withVirtualSections(sections));
+        return this;
+    }
+
+    /**
+     * Rebuilds the index used by {@link #getNode(String)} and publishes it
+     * with a new version of the tree. Needs to be called after nodes were
+     * added with {@link #createNodes(String)} or added to or removed from the
+     * children of a node directly. The parsers call it once at the end.
+     *
+     * @return a reference to this object.
+     */
+    public DefaultHierarchicalProperties reindex() {
+        current.updateAndGet(HierarchicalPropertiesSnapshot::reindex);
+        return this;
     }
 
     /**
@@ -376,42 +476,132 @@ public class DefaultHierarchicalProperties implements HierarchicalProperties {
      */
     @Override
     public DefaultNode getRoot() {
-        return this.getNode("/");
+        return current.get().getRoot();
+    }
+
+    /**
+     * Returns the number of changes of the property maps of the nodes.
+     *
+     * @return the number of changes of the property maps of the nodes.
+     */
+    AtomicLong getModifications() {
+        return modifications;
     }
 
     /**
-     * Sets a new root.
+     * Returns the current version of the tree. All nodes read from the
+     * returned version belong to the same tree, even if the properties are
+     * reloaded in the meantime.
+     *
+     * @return the current version of the tree.
+     */
+    @Override
+    public HierarchicalPropertiesSnapshot snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Sets a new root. The index of the new tree is built before the tree is
+     * published atomically, so that readers are never blocked. If there are
+     * listeners, the old and the new tree are compared once and the changes
+     * are delivered to the listeners of the changed nodes and properties,
+     * while a {@link RootChangeEvent} with all changes is delivered to the
+     * global listeners. The listeners are called by the listener executor, so
+     * that this method does not wait for them. The sections generated by for
+     * loops of the properties, which the root belongs to, are taken over.
      *
      * @param root The root to set.
      */
     @Override
     public void setRoot(PropertyNode root) {
         if (root instanceof DefaultNode) {
-            DefaultNode oldValue = this.root;
-            this.root = (DefaultNode) root;
-            this.pcs.firePropertyChange("root", oldValue, root);
+            DefaultHierarchicalProperties owner = ((DefaultNode) root).getOuter();
+            HierarchicalPropertiesSnapshot next = new HierarchicalPropertiesSnapshot((DefaultNode) root,
+                    owner != null ? owner.snapshot().getVirtualSections() : Collections.emptyList());
+            HierarchicalPropertiesSnapshot previous = current.getAndSet(next);
+            if (listeners.isEmpty()) {
+                return;
+            }
+            List<HierarchicalPropertyChangeEvent> changes = TreeDiff.diff(this, previous.getRoot(), next.getRoot());
+            listeners.fire(new RootChangeEvent(this, previous.getRoot(), root, changes));
         }
     }
 
     /**
-     * Looks up the references.
+     * Sets the executor, which calls the listeners. Each listener is called
+     * by one task at a time, so that it receives the events in order. The
+     * default executor uses daemon threads; {@code Runnable::run} calls the
+     * listeners in the thread replacing the root.
+     *
+     * @param executor The executor, which calls the listeners.
+     * @return a reference to this object.
+     */
+    public DefaultHierarchicalProperties setListenerExecutor(Executor executor) {
+        listeners.setExecutor(executor);
+        return this;
+    }
+
+    /**
+     * Creates an immutable copy of these properties, which stores the nodes in
+     * flat arrays. The references are resolved in the copy.
+     *
+     * @return an immutable copy of these properties.
+     */
+    @Override
+    public FrozenHierarchicalProperties freeze() {
+        return current.get().freeze();
+    }
+
+    /**
+     * Looks up the references. Chained references are resolved completely,
+     * independently of their order in the input.
+     *
+     * @throws IllegalStateException if the references are cyclic.
+     * @throws RuntimeException if a referenced node or property cannot be
+     * found.
      */
     public void dereferenceRefs() {
-        for (Reference ref : this.refList) {
-            DefaultNode whereTochange = ref.getLocation();
-            // the previous node needs to be reloaded.
-            whereTochange = getNode(whereTochange.getHierarchicalName());
-            String hierarchicalName = ref.getTargetHierarchy();
-            DefaultNode targetNode = getNode(hierarchicalName);
-            String targetProperty = ref.getTargetProperty();
-            final String sourceProperty = ref.getSourceProperty();
-            String targetVal = targetNode.getPropertyMap().get(targetProperty);
-            String toChange = whereTochange.getPropertyMap().get(sourceProperty);
-            if (toChange == null) {
-                throw new RuntimeException("The property to change cannot be null.");
-            }
-            String changed = toChange.replaceAll("\\$\\s*\\{" + hierarchicalName + "\\s*\\:\\s*" + targetProperty + "}", targetVal);
-            whereTochange.getPropertyMap().put(sourceProperty, changed);
+        HierarchicalPropertiesSnapshot tree = snapshot();
+        new ReferenceResolver(tree, tree::getNode, refList).resolve();
+    }
+
+    /**
+     * Prepares the references to be resolved when the properties containing
+     * them are read with {@link PropertyNode#getProperty(String)}. The values
+     * in the property maps keep their references.
+     *
+     * @throws IllegalStateException if the references are cyclic.
+     * @throws RuntimeException if a referenced node cannot be found.
+     */
+    public void bindRefs() {
+        HierarchicalPropertiesSnapshot tree = snapshot();
+        new ReferenceResolver(tree, tree::getNode, refList).bind();
+    }
+
+    /**
+     * Resolves the references of these properties, which are an iteration of
+     * a loop generating virtual sections, in the tree owning the sections.
+     * The nodes are moved to the owning tree before.
+     *
+     * @param owner The properties owning the virtual sections.
+     * @param lookup Looks up the target nodes in the iteration and in the
+     * owning tree.
+     * @param lazyReferences If {@code true} the references are resolved when
+     * they are read.
+     * @throws IllegalStateException if the references are cyclic.
+     * @throws RuntimeException if a referenced node or property cannot be
+     * found.
+     */
+    void dereferenceRefs(DefaultHierarchicalProperties owner, Function<String, DefaultNode> lookup,
+            boolean lazyReferences) {
+        for (DefaultNode node : this) {
+            node.moveTo(owner);
+        }
+        ReferenceResolver resolver = new ReferenceResolver(owner.snapshot(), lookup, refList);
+        if (lazyReferences) {
+            resolver.bind();
+        } else {
+            resolver.resolve();
         }
     }
 
@@ -422,7 +612,7 @@ public class DefaultHierarchicalProperties implements HierarchicalProperties {
      */
     @Override
     public void addPropertyChangeListener(PropertyChangeListener listener) {
-        this.pcs.addPropertyChangeListener(listener);
+        listeners.add(listener);
     }
 
     /**
@@ -432,7 +622,32 @@ public class DefaultHierarchicalProperties implements HierarchicalProperties {
      */
     @Override
     public void removePropertyChangeListener(PropertyChangeListener listener) {
-        this.pcs.removePropertyChangeListener(listener);
+        listeners.remove(listener);
+    }
+
+    /**
+     * Adds a listener for the changes of a node, of a property or of a
+     * subtree.
+     *
+     * @param path The hierarchical name of a node, like {@code /database}, of
+     * a property, like {@code /database:url}, or of a subtree, like
+     * {@code /database/**}.
+     * @param listener The property change listener.
+     */
+    @Override
+    public void addPropertyChangeListener(String path, PropertyChangeListener listener) {
+        listeners.add(path, listener);
+    }
+
+    /**
+     * Removes a listener for the changes of a node or of a property.
+     *
+     * @param path The hierarchical name of a node or of a property.
+     * @param listener The property change listener to remove.
+     */
+    @Override
+    public void removePropertyChangeListener(String path, PropertyChangeListener listener) {
+        listeners.remove(path, listener);
     }
 
 }
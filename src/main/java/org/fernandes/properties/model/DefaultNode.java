@@ -9,6 +9,7 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.regex.Pattern;
 
@@ -50,31 +51,10 @@ public class DefaultNode implements PropertyNode {
     private DefaultNode parent;
 
     /**
-     * The children nodes.
+     * The children, the properties, the comments and the cached names of this
+     * node or {@code null} for a subclass, which stores them in another way.
      */
-    private final Map<String, DefaultNode> children = new LinkedHashMap<>();
-
-    /**
-     * The properties attached to this same node.
-     */
-    private final Map<String, String> propertyMap = new LinkedHashMap<>();
-
-    /**
-     * The parent hierarchical properties.
-     */
-    private final DefaultHierarchicalProperties outer;
-
-    /**
-     * The multi-line comments that have a position allowing the comments to be
-     * associated with single properties.
-     */
-    private final HashMap<Integer, List<String>> multilineComments = new HashMap<>();
-
-    /**
-     * The line comments that have a position allowing the comments to be
-     * associated with single properties. The key is the position.
-     */
-    private final HashMap<Integer, List<String>> lineComments = new HashMap<>();
+    private final State state;
 
     /**
      * Processes nodes in a specific way. Used to implement the strategy
@@ -103,10 +83,19 @@ public class DefaultNode implements PropertyNode {
         if (original.parent != null) {
             this.parent = new DefaultNode(original.parent);
         }
-        this.outer = original.outer;
-        this.children.putAll(original.children);
-        this.propertyMap.putAll(original.propertyMap);
-
+        this.state = new State(original.getOuter());
+        this.state.children.putAll(original.getChildren());
+        this.state.propertyMap.putAll(original.getPropertyMap());
+        if (original.state != null) {
+            this.state.path = original.state.path;
+            this.state.hierarchicalName = original.state.hierarchicalName;
+            this.state.description = original.state.description;
+            this.state.depth = original.state.depth;
+            if (original.state.templates != null) {
+                this.state.templates = new HashMap<>(original.state.templates);
+                this.state.templateTree = original.state.templateTree;
+            }
+        }
     }
 
     /**
@@ -116,8 +105,22 @@ public class DefaultNode implements PropertyNode {
      * @param outer The properties to which the node is associated.
      */
     public DefaultNode(String name, final DefaultHierarchicalProperties outer) {
-        this.outer = outer;
         this.name = name;
+        this.state = new State(outer);
+    }
+
+    /**
+     * Associates this node to a name and a parent without any other storage,
+     * for subclasses which store their data in another way and override all
+     * the methods using it.
+     *
+     * @param parent The parent node or {@code null} for the root.
+     * @param name The name of the node.
+     */
+    DefaultNode(DefaultNode parent, String name) {
+        this.name = name;
+        this.parent = parent;
+        this.state = null;
     }
 
     /**
@@ -126,13 +129,10 @@ public class DefaultNode implements PropertyNode {
      * @return the depth in the tree by navigating upwards.
      */
     public int getDepth() {
-        int level = 0;
-        DefaultNode cur = this;
-        while (cur.parent != null) {
-            level++;
-            cur = cur.parent;
+        if (state.depth < 0) {
+            state.depth = parent == null ? 0 : parent.getDepth() + 1;
         }
-        return level;
+        return state.depth;
     }
 
     /**
@@ -144,13 +144,57 @@ public class DefaultNode implements PropertyNode {
         if (ROOT_NODE_NAME.equals(name)) { // Root node special case.
             return ROOT_NODE_NAME;
         }
-        StringBuilder builder = new StringBuilder();
+        if (state.hierarchicalName == null) {
+            String hierarchical = getPath();
+            if (hierarchical.endsWith("/")) {
+                hierarchical = hierarchical.substring(0, hierarchical.length() - 1);
+            }
+            if (hierarchical.startsWith("//")) {
+                hierarchical = hierarchical.substring(1);
+            }
+            state.hierarchicalName = hierarchical;
+        }
+        return state.hierarchicalName;
+    }
+
+    /**
+     * Returns the names of the ancestors below the top most ancestor and of 
+     * this node, each preceded by a slash.
+     *
+     * @return the names of the ancestors below the top most ancestor and of 
+     * this node, each preceded by a slash.
+     */
+    private String getPath() {
+        if (state.path == null) {
+            state.path = parent == null ? "" : parent.getPath() + '/' + name;
+        }
+        return state.path;
+    }
+
+    /**
+     * Returns the top most ancestor of this node.
+     *
+     * @return the top most ancestor of this node or this node, if it has 
+     * no parent.
+     */
+    private DefaultNode getTop() {
         DefaultNode cur = this;
         while (cur.parent != null) {
-            builder.insert(0, cur.name).insert(0, '/');
             cur = cur.parent;
         }
-        return builder.toString().replaceAll("\\/$", "").replaceAll("^//", "/");
+        return cur;
+    }
+
+    /**
+     * Discards the cached names and depths of this node and all its 
+     * descendants, after the ancestry changed.
+     */
+    private void invalidate() {
+        state.path = null;
+        state.hierarchicalName = null;
+        state.description = null;
+        state.depth = -1;
+        state.children.values().forEach(DefaultNode::invalidate);
     }
 
     /**
@@ -160,14 +204,10 @@ public class DefaultNode implements PropertyNode {
      */
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder();
-        DefaultNode cur = this;
-        builder.insert(0, cur.name + "/");
-        while (cur.parent != null) {
-            cur = cur.parent;
-            builder.insert(0, cur.name + "/");
+        if (state.description == null) {
+            state.description = getTop().name + getPath();
         }
-        return builder.toString().replaceFirst("\\/$", "");
+        return state.description;
     }
 
     /**
@@ -186,7 +226,7 @@ public class DefaultNode implements PropertyNode {
      */
     @Override
     public Map<String, DefaultNode> getChildren() {
-        return children;
+        return state.children;
     }
 
     /**
@@ -195,7 +235,7 @@ public class DefaultNode implements PropertyNode {
      * @return the size of the children associated to this node.
      */
     public int sizeChildren() {
-        return children.size();
+        return state.children.size();
     }
 
     /**
@@ -215,7 +255,7 @@ public class DefaultNode implements PropertyNode {
      */
     @Override
     public Iterator<String> iteratorMultilineComment() {
-        List<String> strList = deflateListOfLists(multilineComments);
+        List<String> strList = deflateListOfLists(state.multilineComments);
         return strList.iterator();
     }
 
@@ -240,7 +280,7 @@ public class DefaultNode implements PropertyNode {
      */
     @Override
     public Iterator<String> iteratorLineComment() {
-        List<String> strList = deflateListOfLists(lineComments);
+        List<String> strList = deflateListOfLists(state.lineComments);
         return strList.iterator();
     }
 
@@ -250,7 +290,7 @@ public class DefaultNode implements PropertyNode {
      * @return the map with the multi-line comments and its positions.
      */
     public HashMap<Integer, List<String>> getMultilineComments() {
-        return multilineComments;
+        return state.multilineComments;
     }
 
     /**
@@ -259,7 +299,7 @@ public class DefaultNode implements PropertyNode {
      * @return the list with the line comments.
      */
     public HashMap<Integer, List<String>> getLineComments() {
-        return lineComments;
+        return state.lineComments;
     }
 
     /**
@@ -268,7 +308,7 @@ public class DefaultNode implements PropertyNode {
      * @param e The line comment to add to this node.
      */
     public void addMultilineComment(String e) {
-        addComment(multilineComments, propertyMap.size(), e);
+        addComment(state.multilineComments, state.propertyMap.size(), e);
     }
 
     /**
@@ -294,7 +334,7 @@ public class DefaultNode implements PropertyNode {
      * @param e The line comment to add to this node.
      */
     public void addLineComment(String e) {
-        addComment(lineComments, propertyMap.size(), e);
+        addComment(state.lineComments, state.propertyMap.size(), e);
     }
 
     /**
@@ -304,7 +344,7 @@ public class DefaultNode implements PropertyNode {
      */
     @Override
     public int sizeMultilineComment() {
-        return multilineComments.size();
+        return state.multilineComments.size();
     }
 
     /**
@@ -313,7 +353,7 @@ public class DefaultNode implements PropertyNode {
      * @return the size of the line comments.
      */
     public int sizeLineComment() {
-        return lineComments.size();
+        return state.lineComments.size();
     }
 
     /**
@@ -323,7 +363,7 @@ public class DefaultNode implements PropertyNode {
      */
     @Override
     public Map<String, String> getPropertyMap() {
-        return propertyMap;
+        return state.propertyMap;
     }
 
     /**
@@ -333,7 +373,7 @@ public class DefaultNode implements PropertyNode {
      */
     @Override
     public void forEachPropertyMap(BiConsumer<? super String, ? super String> action) {
-        propertyMap.forEach(action);
+        state.propertyMap.forEach(action);
     }
 
     /**
@@ -343,14 +383,66 @@ public class DefaultNode implements PropertyNode {
      */
     public void setParent(DefaultNode parent) {
         this.parent = parent;
+        invalidate();
     }
 
     /**
-     * {@inheritDoc}
+     * Returns the properties to which this node is associated.
+     *
+     * @return the properties to which this node is associated or {@code null}.
+     */
+    DefaultHierarchicalProperties getOuter() {
+        return state == null ? null : state.outer;
+    }
+
+    /**
+     * Associates this node to other hierarchical properties, whose changes
+     * count the changes of its properties from now on. Used for the nodes of
+     * an iteration of a loop, before they are published in the tree owning
+     * the loop.
+     *
+     * @param outer The properties to which the node is associated.
+     */
+    void moveTo(DefaultHierarchicalProperties outer) {
+        PropertyMap properties = new PropertyMap(outer.getModifications());
+        properties.putAll(state.propertyMap);
+        state.propertyMap = properties;
+        state.outer = outer;
+    }
+
+    /**
+     * Attaches a compiled value with references to a property, so that the
+     * references are resolved when the property is read.
+     *
+     * @param key The key of the property.
+     * @param template The compiled value of the property.
+     * @param tree The version of the tree in which the references are 
+     * resolved.
+     */
+    void bindTemplate(String key, ValueTemplate template, HierarchicalPropertiesSnapshot tree) {
+        if (state.templates == null) {
+            state.templates = new HashMap<>();
+        }
+        state.templates.put(key, template);
+        state.templateTree = tree;
+    }
+
+    /**
+     * {@inheritDoc} If the references of the value are resolved lazily, they
+     * are resolved on the first read and the result is kept until a value
+     * of the tree changes. The property map always contains the values
+     * as they were read.
      */
     @Override
     public String getProperty(String key) {
-        return this.getPropertyMap().get(key);
+        String value = this.getPropertyMap().get(key);
+        if (state.templates != null && value != null) {
+            ValueTemplate template = state.templates.get(key);
+            if (template != null && template.getSource() == value) {
+                return template.value(state.templateTree, state.propertyMap.getModifications());
+            }
+        }
+        return value;
     }
 
     /**
@@ -488,4 +580,83 @@ public class DefaultNode implements PropertyNode {
         val = val.trim();
         return processFunction.process(val);
     }
+
+    /**
+     * The children, the properties, the comments and the cached names of a
+     * node, which are kept together, so that a subclass storing them in
+     * another way does not carry them.
+     */
+    private static final class State {
+
+        /**
+         * The children nodes.
+         */
+        private final Map<String, DefaultNode> children = new LinkedHashMap<>();
+
+        /**
+         * The properties attached to this same node.
+         */
+        private PropertyMap propertyMap;
+
+        /**
+         * The parent hierarchical properties.
+         */
+        private DefaultHierarchicalProperties outer;
+
+        /**
+         * The multi-line comments that have a position allowing the comments to be
+         * associated with single properties.
+         */
+        private final HashMap<Integer, List<String>> multilineComments = new HashMap<>();
+
+        /**
+         * The line comments that have a position allowing the comments to be
+         * associated with single properties. The key is the position.
+         */
+        private final HashMap<Integer, List<String>> lineComments = new HashMap<>();
+
+        /**
+         * The cached names of the ancestors below the top most ancestor and of 
+         * the node, each preceded by a slash, or {@code null} if not yet computed.
+         */
+        private String path;
+
+        /**
+         * The cached hierarchical name or {@code null} if not yet computed.
+         */
+        private String hierarchicalName;
+
+        /**
+         * The cached string representation or {@code null} if not yet computed.
+         */
+        private String description;
+
+        /**
+         * The cached depth in the tree or -1 if not yet computed.
+         */
+        private int depth = -1;
+
+        /**
+         * The compiled values with references, which are resolved when they are
+         * read, or {@code null} if the references were resolved eagerly.
+         */
+        private Map<String, ValueTemplate> templates;
+
+        /**
+         * The version of the tree in which the references of the templates are
+         * resolved or {@code null}.
+         */
+        private HierarchicalPropertiesSnapshot templateTree;
+
+        /**
+         * Associates the state to the hierarchical properties.
+         *
+         * @param outer The properties to which the node is associated or
+         * {@code null}.
+         */
+        State(DefaultHierarchicalProperties outer) {
+            this.outer = outer;
+            this.propertyMap = new PropertyMap(outer != null ? outer.getModifications() : new AtomicLong());
+        }
+    }
 }
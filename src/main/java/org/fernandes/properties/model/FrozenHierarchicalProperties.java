@@ -0,0 +1,229 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.model;
+
+import java.beans.PropertyChangeListener;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.fernandes.properties.function.NodeProcessFunction;
+
+/**
+ * Immutable hierarchical properties created by
+ * {@link HierarchicalProperties#freeze()}. The nodes store their properties
+ * and children in flat arrays, the nodes with the same property keys share
+ * the table of the keys, and the nodes are found by hierarchical name with a
+ * key table over an array of all nodes.
+ * <p>
+ * Since nothing can change, these properties can be shared across threads
+ * without locks and never fire property change events.
+ *
+ * @author onepoint
+ */
+public final class FrozenHierarchicalProperties implements HierarchicalProperties {
+
+    /**
+     * The root node.
+     */
+    private final FrozenNode root;
+
+    /**
+     * The hierarchical names of the nodes, ordered by depth.
+     */
+    private final KeyTable names;
+
+    /**
+     * The nodes in the order of their hierarchical names.
+     */
+    private final FrozenNode[] nodes;
+
+    /**
+     * Freezes a tree.
+     *
+     * @param root The root of the tree.
+     */
+    FrozenHierarchicalProperties(DefaultNode root) {
+        this.root = new FrozenNode(root, null, new HashMap<>());
+        List<FrozenNode> byDepth = new ArrayList<>();
+        byDepth.add(this.root);
+        for (int i = 0; i < byDepth.size(); i++) {
+            for (FrozenNode child : byDepth.get(i).children()) {
+                byDepth.add(child);
+            }
+        }
+        this.nodes = byDepth.toArray(new FrozenNode[byDepth.size()]);
+        String[] hierarchicalNames = new String[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            hierarchicalNames[i] = nodes[i].getHierarchicalName();
+        }
+        this.names = new KeyTable(hierarchicalNames);
+    }
+
+    /**
+     * Returns a node by hierarchical name. If two nodes have the same
+     * hierarchical name, the node closer to the root is returned.
+     *
+     * @param hierarchicalName The path like name of this node.
+     * @return a node with hierarchicalName or {@code null}.
+     */
+    @Override
+    public FrozenNode getNode(String hierarchicalName) {
+        int index = names.indexOf(hierarchicalName);
+        return index < 0 ? null : nodes[index];
+    }
+
+    /**
+     * Returns the root node, parent of all other nodes.
+     *
+     * @return the root node, parent of all other nodes.
+     */
+    @Override
+    public FrozenNode getRoot() {
+        return root;
+    }
+
+    /**
+     * Allows the implementation of a strategy for processing the nodes.
+     *
+     * @param nodeProcessor The node processor.
+     */
+    @Override
+    public void process(NodeProcessFunction nodeProcessor) {
+        for (DefaultNode node : this) {
+            nodeProcessor.process(node);
+        }
+    }
+
+    /**
+     * Returns the node count.
+     *
+     * @return the node count.
+     */
+    @Override
+    public int nodeCount() {
+        return nodes.length;
+    }
+
+    /**
+     * Not supported, since the properties are immutable.
+     *
+     * @param root The root to set.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void setRoot(PropertyNode root) {
+        throw new UnsupportedOperationException("Frozen hierarchical properties cannot be changed.");
+    }
+
+    /**
+     * Ignores the listener, since the properties never change.
+     *
+     * @param listener The property change listener.
+     */
+    @Override
+    public void addPropertyChangeListener(PropertyChangeListener listener) {
+    }
+
+    /**
+     * Ignores the listener, since the properties never change.
+     *
+     * @param listener The property change listener to remove.
+     */
+    @Override
+    public void removePropertyChangeListener(PropertyChangeListener listener) {
+    }
+
+    /**
+     * Ignores the listener, since the properties never change.
+     *
+     * @param path The hierarchical name of a node or of a property.
+     * @param listener The property change listener.
+     */
+    @Override
+    public void addPropertyChangeListener(String path, PropertyChangeListener listener) {
+    }
+
+    /**
+     * Ignores the listener, since the properties never change.
+     *
+     * @param path The hierarchical name of a node or of a property.
+     * @param listener The property change listener to remove.
+     */
+    @Override
+    public void removePropertyChangeListener(String path, PropertyChangeListener listener) {
+    }
+
+    /**
+     * Returns this object, since it is already frozen.
+     *
+     * @return this object.
+     */
+    @Override
+    public FrozenHierarchicalProperties freeze() {
+        return this;
+    }
+
+    /**
+     * Returns this object, since it never changes.
+     *
+     * @return this object.
+     */
+    @Override
+    public FrozenHierarchicalProperties snapshot() {
+        return this;
+    }
+
+    /**
+     * Returns the iterator over all nodes in the same order as the
+     * {@link DefaultHierarchicalProperties} it was created from.
+     *
+     * @return the iterator over all nodes.
+     */
+    @Override
+    public Iterator<DefaultNode> iterator() {
+        return new Iterator<DefaultNode>() {
+
+            /**
+             * The stack used for recursion.
+             */
+            private final Deque<FrozenNode> stack = new ArrayDeque<>();
+
+            {
+                stack.push(root);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public DefaultNode next() {
+                if (stack.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                FrozenNode node = stack.pop();
+                for (FrozenNode child : node.children()) {
+                    stack.push(child);
+                }
+                return node;
+            }
+        };
+    }
+
+    /**
+     * Returns the string representation of this object.
+     *
+     * @return the string representation of this object.
+     */
+    @Override
+    public String toString() {
+        return DefaultHierarchicalProperties.describe(root);
+    }
+}
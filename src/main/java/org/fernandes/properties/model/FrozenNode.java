@@ -0,0 +1,426 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable node of frozen hierarchical properties. The properties and the
+ * children are stored in flat arrays with a key table instead of maps, the
+ * comments in arrays, and the hierarchical name and the depth are computed
+ * once. The maps returned by this node are read-only views, which are created
+ * once. The node does not carry the storage of a mutable node.
+ * <p>
+ * All fields are final and are set before the node is published, so a frozen
+ * node can be shared across threads without locks.
+ *
+ * @author onepoint
+ */
+public final class FrozenNode extends DefaultNode {
+
+    /**
+     * The children without grandchildren.
+     */
+    private static final FrozenNode[] NO_CHILDREN = new FrozenNode[0];
+
+    /**
+     * The view of the children of a node without children.
+     */
+    private static final ArrayMap<DefaultNode> NO_CHILD_MAP = new ArrayMap<>(KeyTable.EMPTY, NO_CHILDREN);
+
+    /**
+     * The view of the properties of a node without properties.
+     */
+    private static final ArrayMap<String> NO_PROPERTIES = new ArrayMap<>(KeyTable.EMPTY, new String[0]);
+
+    /**
+     * The read-only view of the properties.
+     */
+    private final ArrayMap<String> properties;
+
+    /**
+     * The children in the order of their names.
+     */
+    private final FrozenNode[] children;
+
+    /**
+     * The read-only view of the children by name.
+     */
+    private final ArrayMap<DefaultNode> childMap;
+
+    /**
+     * The multi-line comments.
+     */
+    private final Comments multilineComments;
+
+    /**
+     * The line comments.
+     */
+    private final Comments lineComments;
+
+    /**
+     * The hierarchical name.
+     */
+    private final String hierarchicalName;
+
+    /**
+     * The string representation.
+     */
+    private final String description;
+
+    /**
+     * The depth in the tree.
+     */
+    private final int depth;
+
+    /**
+     * Freezes a node and all its descendants. The properties are frozen with
+     * their resolved values.
+     *
+     * @param source The node to freeze.
+     * @param parent The frozen parent or {@code null} for the root.
+     * @param keyTables The tables of the property keys of the frozen nodes by
+     * their keys, so that the nodes with the same keys share a table.
+     */
+    FrozenNode(DefaultNode source, FrozenNode parent, Map<List<String>, KeyTable> keyTables) {
+        super(parent, source.getName());
+        this.hierarchicalName = source.getHierarchicalName();
+        this.description = source.toString();
+        this.depth = source.getDepth();
+        Map<String, String> propertyMap = source.getPropertyMap();
+        if (propertyMap.isEmpty()) {
+            this.properties = NO_PROPERTIES;
+        } else {
+            String[] keys = new String[propertyMap.size()];
+            String[] values = new String[keys.length];
+            int i = 0;
+            for (String key : propertyMap.keySet()) {
+                keys[i] = key;
+                values[i++] = source.getProperty(key);
+            }
+            this.properties = new ArrayMap<>(keyTables.computeIfAbsent(Arrays.asList(keys), 
+                    k -> new KeyTable(keys)), values);
+        }
+        Map<String, DefaultNode> sourceChildren = source.getChildren();
+        if (sourceChildren.isEmpty()) {
+            this.children = NO_CHILDREN;
+            this.childMap = NO_CHILD_MAP;
+        } else {
+            String[] names = new String[sourceChildren.size()];
+            this.children = new FrozenNode[names.length];
+            int i = 0;
+            for (Map.Entry<String, DefaultNode> child : sourceChildren.entrySet()) {
+                names[i] = child.getKey();
+                children[i++] = new FrozenNode(child.getValue(), this, keyTables);
+            }
+            this.childMap = new ArrayMap<>(new KeyTable(names), children);
+        }
+        this.multilineComments = Comments.of(source.getMultilineComments());
+        this.lineComments = Comments.of(source.getLineComments());
+    }
+
+    /**
+     * Returns the depth in the tree.
+     *
+     * @return the depth in the tree.
+     */
+    @Override
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns a hierarchical representation of the name in Unix style.
+     *
+     * @return a hierarchical representation of the name in Unix style.
+     */
+    @Override
+    public String getHierarchicalName() {
+        return hierarchicalName;
+    }
+
+    /**
+     * Returns the string representation of this node.
+     *
+     * @return the string representation of this node.
+     */
+    @Override
+    public String toString() {
+        return description;
+    }
+
+    /**
+     * Returns a read-only view of the children of the current node.
+     *
+     * @return a read-only view of the children of the current node.
+     */
+    @Override
+    public Map<String, DefaultNode> getChildren() {
+        return childMap;
+    }
+
+    /**
+     * Returns a child by name.
+     *
+     * @param name The name of the child.
+     * @return the child or {@code null}.
+     */
+    public FrozenNode getChild(String name) {
+        return (FrozenNode) childMap.get(name);
+    }
+
+    /**
+     * The size of the children associated to this node.
+     *
+     * @return the size of the children associated to this node.
+     */
+    @Override
+    public int sizeChildren() {
+        return children.length;
+    }
+
+    /**
+     * Returns the children in their original order.
+     *
+     * @return the children in their original order.
+     */
+    FrozenNode[] children() {
+        return children;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getProperty(String key) {
+        return properties.get(key);
+    }
+
+    /**
+     * Returns a read-only view of the property map.
+     *
+     * @return a read-only view of the property map.
+     */
+    @Override
+    public Map<String, String> getPropertyMap() {
+        return properties;
+    }
+
+    /**
+     * Exposes the forEach method for iterating through the properties.
+     *
+     * @param action The action function.
+     */
+    @Override
+    public void forEachPropertyMap(BiConsumer<? super String, ? super String> action) {
+        properties.forEach(action);
+    }
+
+    /**
+     * Returns an iterator for the multi-line comments.
+     *
+     * @return an iterator for the multi-line comments.
+     */
+    @Override
+    public Iterator<String> iteratorMultilineComment() {
+        return multilineComments.iterator();
+    }
+
+    /**
+     * Returns an iterator for the line comments.
+     *
+     * @return an iterator for the line comments.
+     */
+    @Override
+    public Iterator<String> iteratorLineComment() {
+        return lineComments.iterator();
+    }
+
+    /**
+     * Returns a copy of the map with the multi-line comments and its
+     * positions.
+     *
+     * @return a copy of the map with the multi-line comments and its
+     * positions.
+     */
+    @Override
+    public HashMap<Integer, List<String>> getMultilineComments() {
+        return multilineComments.toMap();
+    }
+
+    /**
+     * Returns a copy of the map with the line comments and its positions.
+     *
+     * @return a copy of the map with the line comments and its positions.
+     */
+    @Override
+    public HashMap<Integer, List<String>> getLineComments() {
+        return lineComments.toMap();
+    }
+
+    /**
+     * Returns the size of the multi-line comment.
+     *
+     * @return the size of the multi-line comment.
+     */
+    @Override
+    public int sizeMultilineComment() {
+        return multilineComments.size();
+    }
+
+    /**
+     * Returns the size of the line comments.
+     *
+     * @return the size of the line comments.
+     */
+    @Override
+    public int sizeLineComment() {
+        return lineComments.size();
+    }
+
+    /**
+     * Not supported, since the node is immutable.
+     *
+     * @param e The multi-line comment.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void addMultilineComment(String e) {
+        throw new UnsupportedOperationException("A frozen node cannot be changed.");
+    }
+
+    /**
+     * Not supported, since the node is immutable.
+     *
+     * @param e The line comment.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void addLineComment(String e) {
+        throw new UnsupportedOperationException("A frozen node cannot be changed.");
+    }
+
+    /**
+     * Not supported, since the node is immutable.
+     *
+     * @param parent The parent.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void setParent(DefaultNode parent) {
+        throw new UnsupportedOperationException("A frozen node cannot be changed.");
+    }
+
+    /**
+     * Not supported, since the node is immutable.
+     *
+     * @param key The key of the property.
+     * @param template The compiled value of the property.
+     * @param tree The version of the tree in which the references are
+     * resolved.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    void bindTemplate(String key, ValueTemplate template, HierarchicalPropertiesSnapshot tree) {
+        throw new UnsupportedOperationException("A frozen node cannot be changed.");
+    }
+
+    /**
+     * The comments of a node with their positions.
+     */
+    private static final class Comments {
+
+        /**
+         * The node without comments.
+         */
+        private static final Comments NONE = new Comments(new int[0], new String[0][]);
+
+        /**
+         * The positions in the iteration order of the original map.
+         */
+        private final int[] positions;
+
+        /**
+         * The comments at each position.
+         */
+        private final String[][] texts;
+
+        /**
+         * Associates this object to the comments.
+         *
+         * @param positions The positions.
+         * @param texts The comments at each position.
+         */
+        private Comments(int[] positions, String[][] texts) {
+            this.positions = positions;
+            this.texts = texts;
+        }
+
+        /**
+         * Freezes the comments of a node.
+         *
+         * @param comments The comments by position.
+         * @return the frozen comments.
+         */
+        static Comments of(Map<Integer, List<String>> comments) {
+            if (comments.isEmpty()) {
+                return NONE;
+            }
+            int[] positions = new int[comments.size()];
+            String[][] texts = new String[positions.length][];
+            int i = 0;
+            for (Map.Entry<Integer, List<String>> entry : comments.entrySet()) {
+                positions[i] = entry.getKey();
+                texts[i++] = entry.getValue().toArray(new String[entry.getValue().size()]);
+            }
+            return new Comments(positions, texts);
+        }
+
+        /**
+         * Returns the number of positions with comments.
+         *
+         * @return the number of positions with comments.
+         */
+        int size() {
+            return positions.length;
+        }
+
+        /**
+         * Returns an iterator over all comments.
+         *
+         * @return an iterator over all comments.
+         */
+        Iterator<String> iterator() {
+            if (positions.length == 0) {
+                return Collections.emptyIterator();
+            }
+            List<String> all = new ArrayList<>();
+            for (String[] text : texts) {
+                all.addAll(Arrays.asList(text));
+            }
+            return Collections.unmodifiableList(all).iterator();
+        }
+
+        /**
+         * Returns a copy of the comments by position.
+         *
+         * @return a copy of the comments by position.
+         */
+        HashMap<Integer, List<String>> toMap() {
+            HashMap<Integer, List<String>> map = new HashMap<>();
+            for (int i = 0; i < positions.length; i++) {
+                map.put(positions[i], new ArrayList<>(Arrays.asList(texts[i])));
+            }
+            return map;
+        }
+    }
+}
@@ -57,4 +57,43 @@ public interface HierarchicalProperties extends Iterable<DefaultNode> {
      * @param listener The property change listener to remove.
      */
     void removePropertyChangeListener(PropertyChangeListener listener);
+
+    /**
+     * Adds a listener for the changes of a node, of a property or of a 
+     * subtree, which receives {@link HierarchicalPropertyChangeEvent}s when 
+     * the root is replaced. A listener of a node also receives the changes of
+     * its properties and a listener of a subtree the changes of the node and 
+     * all its descendants.
+     *
+     * @param path The hierarchical name of a node, like {@code /database}, of
+     * a property, like {@code /database:url}, or of a subtree, like 
+     * {@code /database/**}.
+     * @param listener The property change listener.
+     */
+    void addPropertyChangeListener(String path, PropertyChangeListener listener);
+
+    /**
+     * Removes a listener for the changes of a node or of a property.
+     *
+     * @param path The hierarchical name of a node or of a property.
+     * @param listener The property change listener to remove.
+     */
+    void removePropertyChangeListener(String path, PropertyChangeListener listener);
+
+    /**
+     * Creates an immutable, compact copy of these properties, which can be 
+     * shared across threads without locks.
+     *
+     * @return an immutable copy of these properties.
+     */
+    HierarchicalProperties freeze();
+
+    /**
+     * Returns the current version of these properties. Reading several keys 
+     * from the returned version gives consistent values, even if the 
+     * properties are reloaded concurrently.
+     *
+     * @return the current version of these properties.
+     */
+    HierarchicalProperties snapshot();
 }
@@ -0,0 +1,365 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.model;
+
+import java.beans.PropertyChangeListener;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import org.fernandes.properties.function.NodeProcessFunction;
+
+/**
+ * One version of the tree of {@link DefaultHierarchicalProperties}: the root
+ * together with the index of its nodes by hierarchical name. A reload
+ * publishes a new version atomically, so that a reader holding a version
+ * reads all keys from the same tree, while the reload neither blocks nor
+ * changes it.
+ *
+ * @author onepoint
+ */
+public final class HierarchicalPropertiesSnapshot implements HierarchicalProperties {
+
+    /**
+     * The root node.
+     */
+    private final DefaultNode root;
+
+    /**
+     * The nodes by hierarchical name, which are indexed before this version
+     * is published and never changed afterwards.
+     */
+    private final Map<String, DefaultNode> index;
+
+    /**
+     * The sections generated by for loops, which are parsed when they are
+     * read.
+     */
+    private final List<VirtualSections> virtualSections;
+
+    /**
+     * Associates this version to a root and indexes its nodes.
+     *
+     * @param root The root node.
+     */
+    HierarchicalPropertiesSnapshot(DefaultNode root) {
+        this(root, Collections.emptyList());
+    }
+
+    /**
+     * Associates this version to a root and to the sections generated by for
+     * loops and indexes its nodes.
+     *
+     * @param root The root node.
+     * @param virtualSections The sections generated by for loops.
+     */
+    HierarchicalPropertiesSnapshot(DefaultNode root, List<VirtualSections> virtualSections) {
+        this.root = root;
+        this.index = index(root);
+        this.virtualSections = virtualSections;
+    }
+
+    /**
+     * Creates the index of all nodes below a root node by hierarchical name.
+     *
+     * @param root The root node.
+     * @return the index of all nodes below the root node by hierarchical name.
+     */
+    private static Map<String, DefaultNode> index(DefaultNode root) {
+        Map<String, DefaultNode> index = new HashMap<>();
+        index.put(root.getHierarchicalName(), root);
+        Deque<DefaultNode> nodeStack = new ArrayDeque<>();
+        nodeStack.push(root);
+        while (!nodeStack.isEmpty()) {
+            DefaultNode presentNode = nodeStack.pop();
+            for (DefaultNode child : presentNode.getChildren().values()) {
+                register(index, child);
+                nodeStack.push(child);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Registers a node in the index. If two nodes have the same hierarchical
+     * name, the node closer to the root is kept.
+     *
+     * @param index The index of the nodes by hierarchical name.
+     * @param node The node to register.
+     */
+    private static void register(Map<String, DefaultNode> index, DefaultNode node) {
+        index.merge(node.getHierarchicalName(), node,
+                (present, added) -> added.getDepth() < present.getDepth() ? added : present);
+    }
+
+    /**
+     * Returns a version of the same tree with a new index, after nodes were
+     * added to or removed from the children of a node. This version is not
+     * changed, since it may already be read.
+     *
+     * @return a version of the same tree with a new index.
+     */
+    HierarchicalPropertiesSnapshot reindex() {
+        return new HierarchicalPropertiesSnapshot(root, virtualSections);
+    }
+
+    /**
+     * Returns a version of the same tree with additional sections generated
+     * by for loops and a new index. This version is not changed, since it may
+     * already be read.
+     *
+     * @param sections The sections generated by for loops.
+     * @return a version of the same tree with the additional sections.
+     */
+    HierarchicalPropertiesSnapshot withVirtualSections(Collection<VirtualSections> sections) {
+        List<VirtualSections> added = new ArrayList<>(virtualSections);
+        added.addAll(sections);
+        return new HierarchicalPropertiesSnapshot(root, Collections.unmodifiableList(added));
+    }
+
+    /**
+     * Returns the sections generated by for loops, which are parsed when they
+     * are read.
+     *
+     * @return the sections generated by for loops.
+     */
+    List<VirtualSections> getVirtualSections() {
+        return virtualSections;
+    }
+
+    /**
+     * Returns the iterator over the nodes of the sections generated by for
+     * loops, which parses their iterations one after the other.
+     *
+     * @return the iterator over the nodes of the sections generated by for
+     * loops.
+     */
+    Iterator<DefaultNode> virtualNodes() {
+        Iterator<VirtualSections> sections = virtualSections.iterator();
+        return new Iterator<DefaultNode>() {
+
+            /**
+             * The nodes of the current sections.
+             */
+            private Iterator<DefaultNode> nodes = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!nodes.hasNext()) {
+                    if (!sections.hasNext()) {
+                        return false;
+                    }
+                    nodes = sections.next().iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public DefaultNode next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return nodes.next();
+            }
+        };
+    }
+
+    /**
+     * Returns a node by hierarchical name. A node of the sections generated
+     * by a for loop is parsed on the first access.
+     *
+     * @param hierarchicalName The path like name of this node.
+     * @return a node with hierarchicalName or {@code null}.
+     */
+    @Override
+    public DefaultNode getNode(String hierarchicalName) {
+        DefaultNode node = index.get(hierarchicalName);
+        if (node == null) {
+            for (VirtualSections sections : virtualSections) {
+                node = sections.getNode(hierarchicalName);
+                if (node != null) {
+                    break;
+                }
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Returns the root node, parent of all other nodes.
+     *
+     * @return the root node, parent of all other nodes.
+     */
+    @Override
+    public DefaultNode getRoot() {
+        return root;
+    }
+
+    /**
+     * Allows the implementation of a strategy for processing the nodes.
+     *
+     * @param nodeProcessor The node processor.
+     */
+    @Override
+    public void process(NodeProcessFunction nodeProcessor) {
+        for (DefaultNode node : this) {
+            nodeProcessor.process(node);
+        }
+    }
+
+    /**
+     * Returns the node count.
+     *
+     * @return the node count.
+     */
+    @Override
+    public int nodeCount() {
+        int count = 0;
+        for (Iterator<DefaultNode> iterator = iterator(); iterator.hasNext(); iterator.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Not supported, since a version never changes its root.
+     *
+     * @param root The root to set.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void setRoot(PropertyNode root) {
+        throw new UnsupportedOperationException("The root of a snapshot cannot be changed.");
+    }
+
+    /**
+     * Not supported, since a version never changes its root. The listeners
+     * are added to the properties the version was read from.
+     *
+     * @param listener The property change listener.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void addPropertyChangeListener(PropertyChangeListener listener) {
+        throw new UnsupportedOperationException("A snapshot has no listeners.");
+    }
+
+    /**
+     * Not supported, since a version never changes its root.
+     *
+     * @param listener The property change listener to remove.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void removePropertyChangeListener(PropertyChangeListener listener) {
+        throw new UnsupportedOperationException("A snapshot has no listeners.");
+    }
+
+    /**
+     * Not supported, since a version never changes its root. The listeners
+     * are added to the properties the version was read from.
+     *
+     * @param path The hierarchical name of a node or of a property.
+     * @param listener The property change listener.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void addPropertyChangeListener(String path, PropertyChangeListener listener) {
+        throw new UnsupportedOperationException("A snapshot has no listeners.");
+    }
+
+    /**
+     * Not supported, since a version never changes its root.
+     *
+     * @param path The hierarchical name of a node or of a property.
+     * @param listener The property change listener to remove.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void removePropertyChangeListener(String path, PropertyChangeListener listener) {
+        throw new UnsupportedOperationException("A snapshot has no listeners.");
+    }
+
+    /**
+     * Creates an immutable, compact copy of this version. The copy only
+     * contains the nodes of the tree and not the sections generated by for
+     * loops, which are parsed when they are read.
+     *
+     * @return an immutable copy of this version.
+     */
+    @Override
+    public FrozenHierarchicalProperties freeze() {
+        return new FrozenHierarchicalProperties(root);
+    }
+
+    /**
+     * Returns this object, since it is already a single version.
+     *
+     * @return this object.
+     */
+    @Override
+    public HierarchicalPropertiesSnapshot snapshot() {
+        return this;
+    }
+
+    /**
+     * Returns the iterator over all nodes, followed by the nodes of the
+     * sections generated by for loops.
+     *
+     * @return the iterator over all nodes.
+     */
+    @Override
+    public Iterator<DefaultNode> iterator() {
+        return new Iterator<DefaultNode>() {
+
+            /**
+             * The stack used for recursion.
+             */
+            private final Deque<DefaultNode> stack = new ArrayDeque<>();
+
+            /**
+             * The nodes of the sections generated by for loops.
+             */
+            private final Iterator<DefaultNode> virtual = virtualNodes();
+
+            {
+                stack.push(root);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty() || virtual.hasNext();
+            }
+
+            @Override
+            public DefaultNode next() {
+                if (stack.isEmpty()) {
+                    return virtual.next();
+                }
+                DefaultNode node = stack.pop();
+                for (DefaultNode child : node.getChildren().values()) {
+                    stack.push(child);
+                }
+                return node;
+            }
+        };
+    }
+
+    /**
+     * Returns the string representation of this object.
+     *
+     * @return the string representation of this object.
+     */
+    @Override
+    public String toString() {
+        return DefaultHierarchicalProperties.describe(root);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.model;
+
+import java.beans.PropertyChangeEvent;
+
+/**
+ * A change of a single node or property found by comparing the tree before
+ * and after a reload. The property name of the event is the hierarchical name
+ * of the node for node events and the hierarchical name followed by a colon
+ * and the key for property events, like e.g. {@code /database:url}.
+ *
+ * @author onepoint
+ */
+public class HierarchicalPropertyChangeEvent extends PropertyChangeEvent {
+
+    /**
+     * The type of a change.
+     */
+    public enum Type {
+
+        /**
+         * A node was added. The new value is the added node.
+         */
+        NODE_ADDED,
+
+        /**
+         * A node was removed. The old value is the removed node.
+         */
+        NODE_REMOVED,
+
+        /**
+         * A property was added. The new value is the value of the property.
+         */
+        PROPERTY_ADDED,
+
+        /**
+         * A property was removed. The old value is the value of the property.
+         */
+        PROPERTY_REMOVED,
+
+        /**
+         * The value of a property changed.
+         */
+        PROPERTY_CHANGED;
+
+        /**
+         * Returns {@code true} if this type describes a change of a property.
+         *
+         * @return {@code true} if this type describes a change of a property,
+         * else {@code false}.
+         */
+        public boolean isPropertyChange() {
+            return this == PROPERTY_ADDED || this == PROPERTY_REMOVED || this == PROPERTY_CHANGED;
+        }
+    }
+
+    /**
+     * The serial version UID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The type of the change.
+     */
+    private final Type type;
+
+    /**
+     * The hierarchical name of the changed node or of the node of the changed
+     * property.
+     */
+    private final String path;
+
+    /**
+     * The key of the changed property or {@code null} for node events.
+     */
+    private final String key;
+
+    /**
+     * Creates an event.
+     *
+     * @param source The properties, which were reloaded.
+     * @param type The type of the change.
+     * @param path The hierarchical name of the changed node or of the node of
+     * the changed property.
+     * @param key The key of the changed property or {@code null} for node
+     * events.
+     * @param oldValue The removed node, the old value of the property or
+     * {@code null}.
+     * @param newValue The added node, the new value of the property or
+     * {@code null}.
+     */
+    public HierarchicalPropertyChangeEvent(Object source, Type type, String path, String key,
+            Object oldValue, Object newValue) {
+        super(source, key == null ? path : path + ":" + key, oldValue, newValue);
+        this.type = type;
+        this.path = path;
+        this.key = key;
+    }
+
+    /**
+     * Returns the type of the change.
+     *
+     * @return the type of the change.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the hierarchical name of the changed node or of the node of the
+     * changed property.
+     *
+     * @return the hierarchical name of the changed node or of the node of the
+     * changed property.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the key of the changed property.
+     *
+     * @return the key of the changed property or {@code null} for node
+     * events.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the string representation of this object.
+     *
+     * @return the string representation of this object.
+     */
+    @Override
+    public String toString() {
+        return String.format("%s %s: %s -> %s", type, getPropertyName(), getOldValue(), getNewValue());
+    }
+}
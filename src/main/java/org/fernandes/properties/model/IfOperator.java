@@ -4,32 +4,135 @@
 
 package org.fernandes.properties.model;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
 /**
- * Represents the supported if operators.
+ * Represents the supported if operators. Each operator compiles the value
+ * declared in the if statement once into a predicate, which is then tested
+ * against the values of the variable.
  * @author onepoint
  */
 public enum IfOperator {
-    
+
     /**
      * Equality of value.
      */
-    EQUALS("=="), 
-    
+    EQUALS("==") {
+        @Override
+        public Predicate<String> compile(String value) {
+            return value::equals;
+        }
+    },
+
     /**
      * Non equality of value.
      */
-    NOT("!=");
-    
+    NOT("!=") {
+        @Override
+        public Predicate<String> compile(String value) {
+            return variableValue -> !value.equals(variableValue);
+        }
+    },
+
+    /**
+     * The value of the variable matches the declared regular expression.
+     */
+    MATCHES("=~") {
+        @Override
+        public Predicate<String> compile(String value) {
+            Pattern pattern = Pattern.compile(value);
+            return variableValue -> pattern.matcher(variableValue).matches();
+        }
+    },
+
+    /**
+     * The value of the variable does not match the declared regular
+     * expression.
+     */
+    NOT_MATCHES("!~") {
+        @Override
+        public Predicate<String> compile(String value) {
+            return MATCHES.compile(value).negate();
+        }
+    },
+
+    /**
+     * The numeric value of the variable is lower than the declared number.
+     */
+    LESS("<") {
+        @Override
+        public Predicate<String> compile(String value) {
+            long number = toNumber(value);
+            return variableValue -> toNumber(variableValue) < number;
+        }
+    },
+
+    /**
+     * The numeric value of the variable is lower than or equal to the
+     * declared number.
+     */
+    LESS_EQUALS("<=") {
+        @Override
+        public Predicate<String> compile(String value) {
+            long number = toNumber(value);
+            return variableValue -> toNumber(variableValue) <= number;
+        }
+    },
+
+    /**
+     * The numeric value of the variable is greater than the declared number.
+     */
+    GREATER(">") {
+        @Override
+        public Predicate<String> compile(String value) {
+            long number = toNumber(value);
+            return variableValue -> toNumber(variableValue) > number;
+        }
+    },
+
+    /**
+     * The numeric value of the variable is greater than or equal to the
+     * declared number.
+     */
+    GREATER_EQUALS(">=") {
+        @Override
+        public Predicate<String> compile(String value) {
+            long number = toNumber(value);
+            return variableValue -> toNumber(variableValue) >= number;
+        }
+    },
+
+    /**
+     * The value of the variable is one of the declared comma separated values.
+     */
+    IN("in") {
+        @Override
+        public Predicate<String> compile(String value) {
+            Set<String> values = new HashSet<>(Arrays.asList(value.trim().split("\\s*,\\s*")));
+            return values::contains;
+        }
+    };
+
     static {
         EQUALS.setReverse(NOT);
         NOT.setReverse(EQUALS);
+        MATCHES.setReverse(NOT_MATCHES);
+        NOT_MATCHES.setReverse(MATCHES);
+        LESS.setReverse(GREATER_EQUALS);
+        GREATER_EQUALS.setReverse(LESS);
+        GREATER.setReverse(LESS_EQUALS);
+        LESS_EQUALS.setReverse(GREATER);
     }
-    
+
     /**
      * The sign of the operator.
      */
     String sign;
-    
+
     /**
      * The reverse operator.
      */
@@ -42,7 +145,42 @@ public enum IfOperator {
     private IfOperator(String sign) {
         this.sign = sign;
     }
-    
+
+    /**
+     * Compiles the value declared in an if statement into the predicate, which
+     * tests the values of the variable.
+     * @param value The declared value.
+     * @return the predicate, which tests the values of the variable.
+     * @throws IllegalArgumentException if the value is not a number for a
+     * numeric comparison.
+     * @throws java.util.regex.PatternSyntaxException if the value is not a
+     * regular expression for a match.
+     */
+    public abstract Predicate<String> compile(String value);
+
+    /**
+     * Parses an integer number without allocating.
+     * @param value The text of the number with an optional sign.
+     * @return the number.
+     * @throws IllegalArgumentException if the value is not a number.
+     */
+    static long toNumber(String value) {
+        int length = value.length();
+        int start = length > 1 && (value.charAt(0) == '-' || value.charAt(0) == '+') ? 1 : 0;
+        if (length == start || length - start > 18) {
+            throw new IllegalArgumentException(String.format("%s is not a number.", value));
+        }
+        long number = 0;
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException(String.format("%s is not a number.", value));
+            }
+            number = number * 10 + (c - '0');
+        }
+        return value.charAt(0) == '-' ? -number : number;
+    }
+
     /**
      * Returns the operator corresponding to a sign.
      * @param sign The sign to be converted into an if operator.
@@ -57,6 +195,14 @@ public enum IfOperator {
         return null;
     }
 
+    /**
+     * Returns the sign of this operator.
+     * @return the sign of this operator.
+     */
+    public String getSign() {
+        return sign;
+    }
+
     /**
      * Sets the reverse of this operator.
      * @param reverse The reverse of this operator.
@@ -67,11 +213,12 @@ public enum IfOperator {
 
     /**
      * Returns the reverse of this operator.
-     * @return the reverse of this operator. 
+     * @return the reverse of this operator or {@code null} for {@link #IN},
+     * which has no reverse.
      */
     public IfOperator getReverse() {
         return reverse;
     }
 
-    
+
 }
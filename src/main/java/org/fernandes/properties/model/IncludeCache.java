@@ -0,0 +1,41 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.model;
+
+import java.net.URL;
+
+/**
+ * Provides the content of includes, possibly from a cache. The cache used by
+ * all includes is set with {@link IncludeType#setCache(IncludeCache)}.
+ *
+ * @author onepoint
+ */
+@FunctionalInterface
+public interface IncludeCache {
+
+    /**
+     * The cache, which loads the content of every include again.
+     */
+    IncludeCache NONE = IncludeType::load;
+
+    /**
+     * Returns the content of an include.
+     *
+     * @param type The type of the include.
+     * @param url The resolved URL of the include.
+     * @return the content of the include.
+     * @throws RuntimeException if the content cannot be loaded.
+     */
+    CharSequence fetch(IncludeType type, URL url);
+
+    /**
+     * Removes the content of an include from the cache, so that it is loaded
+     * again.
+     *
+     * @param url The resolved URL of the include.
+     */
+    default void invalidate(URL url) {
+    }
+}
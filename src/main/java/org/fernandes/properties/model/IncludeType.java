@@ -15,6 +15,7 @@ import java.nio.file.Paths;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.fernandes.properties.util.CPHandler;
+import org.fernandes.properties.util.DefaultIncludeCache;
 import org.fernandes.properties.util.IOOperations;
 
 /**
@@ -33,10 +34,9 @@ public enum IncludeType implements IncludeProcessor {
                  * @return the characters in the file represented by the URL.
                  */
                 @Override
-                public CharSequence process(URL url) {
+                public CharSequence load(URL url) {
                     try {
-                        Path p = Paths.get(url.toURI());
-                        byte[] bytes = Files.readAllBytes(p);
+                        byte[] bytes = Files.readAllBytes(Paths.get(url.toURI()));
                         return new String(bytes, "UTF-8");
                     } catch (URISyntaxException | IOException ex) {
                         Logger.getLogger(IncludeType.class.getName()).log(Level.SEVERE, null, ex);
@@ -55,7 +55,7 @@ public enum IncludeType implements IncludeProcessor {
                  * @return The characters from a file in the classpath.
                  */
                 @Override
-                public CharSequence process(URL uri) {
+                public CharSequence load(URL uri) {
                     try (BufferedReader reader = new BufferedReader(new InputStreamReader(uri.openStream()))) {
                         return IOOperations.INSTANCE.copy(reader);
                     } catch (IOException ex) {
@@ -70,7 +70,7 @@ public enum IncludeType implements IncludeProcessor {
      */
     HTTP("http") {
                 @Override
-                public CharSequence process(URL uri) {
+                public CharSequence load(URL uri) {
                     try (BufferedReader reader = new BufferedReader(new InputStreamReader(uri.openStream()))) {
                         return IOOperations.INSTANCE.copy(reader);
                     } catch (IOException ex) {
@@ -80,6 +80,11 @@ public enum IncludeType implements IncludeProcessor {
                 }
             };
 
+    /**
+     * The cache providing the content of the includes.
+     */
+    private static volatile IncludeCache cache = new DefaultIncludeCache();
+
     /**
      * The prefix used in the sources.
      */
@@ -118,6 +123,66 @@ public enum IncludeType implements IncludeProcessor {
         throw new IllegalArgumentException(String.format("Could not find prefix type for %s.", includeText));
     }
 
+    /**
+     * Loads the content of a URL without using the cache.
+     *
+     * @param url The URL to be loaded.
+     * @return the content of the URL.
+     */
+    public abstract CharSequence load(URL url);
+
+    /**
+     * Returns the content of a URL from the cache set with
+     * {@link #setCache(IncludeCache)}.
+     *
+     * @param url The URL to be processed.
+     * @return the content of the URL.
+     */
+    @Override
+    public CharSequence process(URL url) {
+        return cache.fetch(this, url);
+    }
+
+    /**
+     * Returns the cache providing the content of the includes.
+     *
+     * @return the cache providing the content of the includes.
+     */
+    public static IncludeCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the cache providing the content of the includes.
+     *
+     * @param cache The cache or {@link IncludeCache#NONE} to load every
+     * include again.
+     */
+    public static void setCache(IncludeCache cache) {
+        if (cache == null) {
+            throw new IllegalArgumentException("The include cache is null.");
+        }
+        IncludeType.cache = cache;
+    }
+
+    /**
+     * Returns the file an include refers to.
+     *
+     * @param urlStr The URI as string without the prefix.
+     * @return the file an include refers to or {@code null}, if this type does
+     * not include files.
+     */
+    public Path toFile(String urlStr) {
+        if (this != FILE) {
+            return null;
+        }
+        try {
+            return Paths.get(new URL(String.format("%s:%s", this.prefix, urlStr)).toURI());
+        } catch (MalformedURLException | URISyntaxException ex) {
+            throw new IllegalArgumentException(String.format("Could not find the file of %s.", urlStr), ex);
+        }
+    }
+
     /**
      * Processes a URI returning its content as a string.
      *
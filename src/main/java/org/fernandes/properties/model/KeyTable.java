@@ -0,0 +1,118 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.model;
+
+/**
+ * An immutable table of string keys, which maps each key to its index. Small
+ * tables are searched linearly, larger tables use open addressing with linear
+ * probing over an array of indexes, so that no entry objects are needed.
+ *
+ * @author onepoint
+ */
+final class KeyTable {
+
+    /**
+     * The table without keys.
+     */
+    static final KeyTable EMPTY = new KeyTable(new String[0]);
+
+    /**
+     * The number of keys up to which the keys are searched linearly.
+     */
+    private static final int LINEAR_LIMIT = 8;
+
+    /**
+     * The keys in their original order.
+     */
+    private final String[] keys;
+
+    /**
+     * The hash slots with the index of a key plus one or 0 for an empty slot,
+     * or {@code null} for small tables.
+     */
+    private final int[] slots;
+
+    /**
+     * Associates this table to the keys. If a key occurs more than once, the
+     * first occurrence is found.
+     *
+     * @param keys The keys in their original order.
+     */
+    KeyTable(String[] keys) {
+        this.keys = keys;
+        if (keys.length <= LINEAR_LIMIT) {
+            this.slots = null;
+        } else {
+            this.slots = new int[Integer.highestOneBit(keys.length) << 2];
+            int mask = slots.length - 1;
+            for (int i = 0; i < keys.length; i++) {
+                int slot = hash(keys[i]) & mask;
+                while (slots[slot] != 0 && !keys[slots[slot] - 1].equals(keys[i])) {
+                    slot = (slot + 1) & mask;
+                }
+                if (slots[slot] == 0) {
+                    slots[slot] = i + 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Spreads the hash code of a key over the lower bits.
+     *
+     * @param key The key.
+     * @return the spread hash code of the key.
+     */
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the index of a key.
+     *
+     * @param key The key.
+     * @return the index of the key or -1, if the key is not in the table.
+     */
+    int indexOf(Object key) {
+        if (key == null) {
+            return -1;
+        }
+        if (slots == null) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int mask = slots.length - 1;
+        for (int slot = hash(key) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slots[slot] - 1].equals(key)) {
+                return slots[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the key at an index.
+     *
+     * @param index The index.
+     * @return the key at the index.
+     */
+    String key(int index) {
+        return keys[index];
+    }
+
+    /**
+     * Returns the number of keys.
+     *
+     * @return the number of keys.
+     */
+    int size() {
+        return keys.length;
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.model;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The listeners of hierarchical properties. The listeners of paths are stored
+ * in a trie of the path segments, so that finding the listeners of a change
+ * depends on the depth of its path and not on the number of listeners.
+ * <p>
+ * The events are delivered with an executor. Each listener receives its
+ * events in order, one batch per replaced root, and never blocks the thread
+ * replacing the root or the other listeners.
+ *
+ * @author onepoint
+ */
+final class ListenerRegistry {
+
+    /**
+     * The logging class.
+     */
+    private static final Logger LOG = Logger.getLogger(ListenerRegistry.class.getName());
+
+    /**
+     * The suffix of a path, which subscribes to a node and all its
+     * descendants.
+     */
+    static final String SUBTREE = "/**";
+
+    /**
+     * The default executor with daemon threads.
+     */
+    static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "property change");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The executor delivering the events.
+     */
+    private volatile Executor executor = DEFAULT_EXECUTOR;
+
+    /**
+     * The listeners of all changes. Guarded by this object.
+     */
+    private final List<Subscriber> globals = new ArrayList<>();
+
+    /**
+     * The root of the trie of the path listeners. Guarded by this object.
+     */
+    private final PathNode root = new PathNode();
+
+    /**
+     * Sets the executor delivering the events.
+     *
+     * @param executor The executor delivering the events.
+     */
+    void setExecutor(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("The executor is null.");
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Returns {@code true} if there are no listeners.
+     *
+     * @return {@code true} if there are no listeners, else {@code false}.
+     */
+    synchronized boolean isEmpty() {
+        return globals.isEmpty() && root.isEmpty();
+    }
+
+    /**
+     * Adds a listener of all changes.
+     *
+     * @param listener The listener.
+     */
+    synchronized void add(PropertyChangeListener listener) {
+        globals.add(new Subscriber(listener));
+    }
+
+    /**
+     * Removes a listener of all changes.
+     *
+     * @param listener The listener.
+     */
+    synchronized void remove(PropertyChangeListener listener) {
+        remove(globals, listener);
+    }
+
+    /**
+     * Adds a listener of a path.
+     *
+     * @param path The hierarchical name of a node, of a property like
+     * {@code /database:url} or of a subtree like {@code /database/**}.
+     * @param listener The listener.
+     */
+    synchronized void add(String path, PropertyChangeListener listener) {
+        Subscription subscription = new Subscription(path);
+        PathNode node = root;
+        for (String segment : subscription.segments) {
+            node = node.children.computeIfAbsent(segment, s -> new PathNode());
+        }
+        node.listeners(subscription).add(new Subscriber(listener));
+    }
+
+    /**
+     * Removes a listener of a path.
+     *
+     * @param path The path the listener was added with.
+     * @param listener The listener.
+     */
+    synchronized void remove(String path, PropertyChangeListener listener) {
+        Subscription subscription = new Subscription(path);
+        List<PathNode> trail = new ArrayList<>();
+        PathNode node = root;
+        for (String segment : subscription.segments) {
+            trail.add(node);
+            node = node.children.get(segment);
+            if (node == null) {
+                return;
+            }
+        }
+        remove(node.listeners(subscription), listener);
+        if (subscription.key != null && node.keys.get(subscription.key).isEmpty()) {
+            node.keys.remove(subscription.key);
+        }
+        for (int i = subscription.segments.length - 1; i >= 0 && node.isEmpty(); i--) {
+            trail.get(i).children.remove(subscription.segments[i]);
+            node = trail.get(i);
+        }
+    }
+
+    /**
+     * Removes a listener from a list of subscribers and stops the delivery of
+     * its pending events.
+     *
+     * @param subscribers The subscribers.
+     * @param listener The listener.
+     */
+    private static void remove(List<Subscriber> subscribers, PropertyChangeListener listener) {
+        for (Iterator<Subscriber> it = subscribers.iterator(); it.hasNext();) {
+            Subscriber subscriber = it.next();
+            if (subscriber.listener.equals(listener)) {
+                subscriber.active = false;
+                it.remove();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Delivers the changes of a new root to the listeners of the changed paths
+     * and the root event to the listeners of all changes.
+     *
+     * @param event The event with the old and the new root and the changes.
+     */
+    void fire(RootChangeEvent event) {
+        Map<Subscriber, List<PropertyChangeEvent>> batches = new LinkedHashMap<>();
+        synchronized (this) {
+            for (HierarchicalPropertyChangeEvent change : event.getChanges()) {
+                collect(change, batches);
+            }
+            for (Subscriber subscriber : globals) {
+                batches.computeIfAbsent(subscriber, s -> new ArrayList<>()).add(event);
+            }
+        }
+        Executor deliveryExecutor = executor;
+        batches.forEach((subscriber, batch) -> subscriber.deliver(batch, deliveryExecutor));
+    }
+
+    /**
+     * Adds a change to the batches of the listeners of its path.
+     *
+     * @param change The change.
+     * @param batches The batches by subscriber.
+     */
+    private void collect(HierarchicalPropertyChangeEvent change, Map<Subscriber, List<PropertyChangeEvent>> batches) {
+        PathNode node = root;
+        String path = change.getPath();
+        int start = 1;
+        while (node != null) {
+            append(node.subtree, change, batches);
+            if (start >= path.length()) {
+                append(node.node, change, batches);
+                if (change.getKey() != null) {
+                    append(node.keys.get(change.getKey()), change, batches);
+                }
+                return;
+            }
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            node = node.children.get(path.substring(start, end));
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Adds a change to the batches of subscribers.
+     *
+     * @param subscribers The subscribers or {@code null}.
+     * @param change The change.
+     * @param batches The batches by subscriber.
+     */
+    private static void append(List<Subscriber> subscribers, PropertyChangeEvent change,
+            Map<Subscriber, List<PropertyChangeEvent>> batches) {
+        if (subscribers != null) {
+            for (Subscriber subscriber : subscribers) {
+                batches.computeIfAbsent(subscriber, s -> new ArrayList<>()).add(change);
+            }
+        }
+    }
+
+    /**
+     * A path a listener subscribes to, split into the segments of the node,
+     * the key and whether the whole subtree is subscribed.
+     */
+    private static final class Subscription {
+
+        /**
+         * The segments of the hierarchical name of the node.
+         */
+        private final String[] segments;
+
+        /**
+         * The key or {@code null}.
+         */
+        private final String key;
+
+        /**
+         * {@code true} if the node and all its descendants are subscribed.
+         */
+        private final boolean subtree;
+
+        /**
+         * Splits a path.
+         *
+         * @param path The path.
+         */
+        Subscription(String path) {
+            if (path == null || !path.startsWith("/")) {
+                throw new IllegalArgumentException(String.format("%s is not a hierarchical name.", path));
+            }
+            String nodePath = path;
+            this.subtree = path.endsWith(SUBTREE);
+            if (subtree) {
+                nodePath = path.substring(0, path.length() - SUBTREE.length());
+                this.key = null;
+            } else {
+                int colon = path.indexOf(':', path.lastIndexOf('/'));
+                this.key = colon < 0 ? null : path.substring(colon + 1);
+                nodePath = colon < 0 ? path : path.substring(0, colon);
+            }
+            List<String> parts = new ArrayList<>();
+            for (String part : nodePath.split("/")) {
+                if (!part.isEmpty()) {
+                    parts.add(part);
+                }
+            }
+            this.segments = parts.toArray(new String[parts.size()]);
+        }
+    }
+
+    /**
+     * A node of the trie of the path listeners.
+     */
+    private static final class PathNode {
+
+        /**
+         * The nodes of the next path segments.
+         */
+        private final Map<String, PathNode> children = new HashMap<>();
+
+        /**
+         * The listeners of the node and its properties.
+         */
+        private final List<Subscriber> node = new ArrayList<>();
+
+        /**
+         * The listeners of the node and all its descendants.
+         */
+        private final List<Subscriber> subtree = new ArrayList<>();
+
+        /**
+         * The listeners of single properties by key.
+         */
+        private final Map<String, List<Subscriber>> keys = new HashMap<>();
+
+        /**
+         * Returns the list of listeners of a subscription to this node.
+         *
+         * @param subscription The subscription.
+         * @return the list of listeners of the subscription.
+         */
+        List<Subscriber> listeners(Subscription subscription) {
+            if (subscription.subtree) {
+                return subtree;
+            }
+            if (subscription.key != null) {
+                return keys.computeIfAbsent(subscription.key, k -> new ArrayList<>());
+            }
+            return node;
+        }
+
+        /**
+         * Returns {@code true} if there are no listeners at or below this node.
+         *
+         * @return {@code true} if there are no listeners at or below this node.
+         */
+        boolean isEmpty() {
+            return children.isEmpty() && node.isEmpty() && subtree.isEmpty() && keys.isEmpty();
+        }
+    }
+
+    /**
+     * A listener with its pending batches of events, which are delivered one
+     * after the other by a single task at a time.
+     */
+    private static final class Subscriber {
+
+        /**
+         * The listener.
+         */
+        private final PropertyChangeListener listener;
+
+        /**
+         * The batches not yet delivered.
+         */
+        private final Queue<List<PropertyChangeEvent>> pending = new ConcurrentLinkedQueue<>();
+
+        /**
+         * {@code true} while a task delivers the pending batches.
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * {@code false} after the listener was removed.
+         */
+        private volatile boolean active = true;
+
+        /**
+         * Associates the subscriber to a listener.
+         *
+         * @param listener The listener.
+         */
+        Subscriber(PropertyChangeListener listener) {
+            if (listener == null) {
+                throw new IllegalArgumentException("The listener is null.");
+            }
+            this.listener = listener;
+        }
+
+        /**
+         * Queues a batch and starts a delivery task, if none is running.
+         *
+         * @param batch The events.
+         * @param executor The executor delivering the events.
+         */
+        void deliver(List<PropertyChangeEvent> batch, Executor executor) {
+            pending.add(batch);
+            schedule(executor);
+        }
+
+        /**
+         * Starts a delivery task, if none is running.
+         *
+         * @param executor The executor delivering the events.
+         */
+        private void schedule(Executor executor) {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(() -> drain(executor));
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    LOG.log(Level.SEVERE, "Could not deliver the property change events.", e);
+                }
+            }
+        }
+
+        /**
+         * Delivers the pending batches.
+         *
+         * @param executor The executor delivering the events.
+         */
+        private void drain(Executor executor) {
+            List<PropertyChangeEvent> batch;
+            while ((batch = pending.poll()) != null) {
+                for (PropertyChangeEvent event : batch) {
+                    if (!active) {
+                        pending.clear();
+                        break;
+                    }
+                    try {
+                        listener.propertyChange(event);
+                    } catch (RuntimeException e) {
+                        LOG.log(Level.SEVERE, String.format("The listener of %s failed.", event.getPropertyName()), e);
+                    }
+                }
+            }
+            scheduled.set(false);
+            if (!pending.isEmpty()) {
+                schedule(executor);
+            }
+        }
+    }
+}
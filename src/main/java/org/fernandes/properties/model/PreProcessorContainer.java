@@ -3,9 +3,21 @@
  */
 package org.fernandes.properties.model;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 import org.fernandes.properties.model.node.ContainerNode;
 import org.fernandes.properties.model.node.ForNode;
 import org.fernandes.properties.model.node.IfNode;
@@ -13,6 +25,7 @@ import org.fernandes.properties.model.node.IncludeNode;
 import org.fernandes.properties.model.node.SyntaxNode;
 import org.fernandes.properties.model.node.TextNode;
 import org.fernandes.properties.model.node.VarNode;
+import org.fernandes.properties.util.Rope;
 
 /**
  * Container for the result of the pre processing of the hierarchical
@@ -23,20 +36,70 @@ import org.fernandes.properties.model.node.VarNode;
 public class PreProcessorContainer {
 
     /**
-     * The list with the includes.
+     * The pre-processed text, if it is collected in memory. It references the
+     * text and the includes instead of copying them.
      */
-    private final StringBuilder preprocessedText = new StringBuilder();
+    private final Rope preprocessedText;
+
+    /**
+     * The sink to which the pre-processed text is written.
+     */
+    private final Appendable output;
 
     /**
      * The current include.
      */
     private IncludeType curIncludeType;
 
+    /**
+     * The files included by the pre-processed text.
+     */
+    private final Set<Path> includedFiles = new LinkedHashSet<>();
+
+    /**
+     * The executor fetching the includes in advance or {@code null}.
+     */
+    private Executor prefetchExecutor;
+
+    /**
+     * If {@code true} the for loops generating sections are not expanded.
+     */
+    private boolean virtualSectionsEnabled;
+
+    /**
+     * The sections generated by the for loops, which were not expanded.
+     */
+    private final List<VirtualSections> virtualSections = new ArrayList<>();
+
+    /**
+     * The sections of the last for loop, which are only kept virtual if the
+     * loop is followed by a section or by the end of the text, or
+     * {@code null}. Otherwise the properties after the loop would belong to
+     * its last iteration.
+     */
+    private VirtualSections candidate;
+
+    /**
+     * The blank text after the loop of the candidate.
+     */
+    private final StringBuilder candidateTail = new StringBuilder();
+
+    /**
+     * The text and the includes being fetched, which wait for an earlier
+     * include to be written to the output in document order.
+     */
+    private final Deque<Object> pending = new ArrayDeque<>();
+
     /**
      * The map with pre-processor constants.
      */
     private final Map<String, String> constantMap = new LinkedHashMap<>();
 
+    /**
+     * The lookup of the constants passed to the conditions, created once.
+     */
+    private final Function<String, String> constants = constantMap::get;
+
     /**
      * The constant key.
      */
@@ -45,7 +108,13 @@ public class PreProcessorContainer {
     /**
      * The stack containing all the if expressions.
      */
-    private final Stack<IfNode> ifStack = new Stack<>();
+    private final Deque<IfNode> ifStack = new ArrayDeque<>();
+
+    /**
+     * The number of if expressions on the stack, which do not match. The
+     * text is only processed, if it is 0.
+     */
+    private int inactive;
 
     /**
      * Used to contains syntax trees. Used to process the for loops and
@@ -53,6 +122,182 @@ public class PreProcessorContainer {
      */
     private final ContainerNode parentContainer = new ContainerNode();
 
+    /**
+     * Creates a container which collects the pre-processed text in memory.
+     */
+    public PreProcessorContainer() {
+        this.preprocessedText = new Rope();
+        this.output = preprocessedText;
+    }
+
+    /**
+     * Creates a container which writes the pre-processed text to a sink as
+     * soon as it is produced.
+     *
+     * @param output The sink to which the pre-processed text is written.
+     */
+    public PreProcessorContainer(Appendable output) {
+        if (output == null) {
+            throw new IllegalArgumentException("The output is null.");
+        }
+        this.preprocessedText = null;
+        this.output = output;
+    }
+
+    /**
+     * Sets the virtual sections mode, in which the for loops, whose iterations
+     * only contain sections named after the loop variable, are not expanded,
+     * but collected in {@link #getVirtualSections()}. Such a loop is only
+     * collected if it is followed by a section or by the end of the text,
+     * else it is expanded.
+     *
+     * @param virtualSectionsEnabled If {@code true} the for loops generating
+     * sections are not expanded.
+     * @return a reference to this object.
+     */
+    public PreProcessorContainer setVirtualSections(boolean virtualSectionsEnabled) {
+        this.virtualSectionsEnabled = virtualSectionsEnabled;
+        return this;
+    }
+
+    /**
+     * Returns the sections generated by the for loops, which were not
+     * expanded in the virtual sections mode. Has to be called after the
+     * whole text was processed.
+     *
+     * @return the sections generated by the for loops, which were not
+     * expanded.
+     */
+    public List<VirtualSections> getVirtualSections() {
+        if (candidate != null) {
+            resolve(true); // the loop is at the end of the text
+        }
+        return Collections.unmodifiableList(virtualSections);
+    }
+
+    /**
+     * Sets the executor which fetches the includes in advance, so that the
+     * pre-processor does not wait for an include before it continues.
+     *
+     * @param prefetchExecutor The executor fetching the includes or
+     * {@code null} to fetch each include when it is found.
+     * @return a reference to this object.
+     */
+    public PreProcessorContainer setPrefetchExecutor(Executor prefetchExecutor) {
+        this.prefetchExecutor = prefetchExecutor;
+        return this;
+    }
+
+    /**
+     * Writes pre-processed text to the output or queues it behind the
+     * includes being fetched.
+     *
+     * @param text The pre-processed text.
+     * @throws UncheckedIOException if the output cannot be written.
+     */
+    private void emit(CharSequence text) {
+        if (candidate != null) {
+            int start = 0;
+            while (start < text.length() && Character.isWhitespace(text.charAt(start))) {
+                start++;
+            }
+            if (start == text.length()) {
+                candidateTail.append(text);
+                return;
+            }
+            resolve(text.charAt(start) == '[');
+        }
+        if (pending.isEmpty()) {
+            write(text);
+        } else {
+            pending.add(text);
+        }
+    }
+
+    /**
+     * Keeps the sections of the candidate virtual or expands its loop and
+     * writes the blank text after it.
+     *
+     * @param virtual If {@code true} the sections are kept virtual.
+     */
+    private void resolve(boolean virtual) {
+        VirtualSections sections = candidate;
+        candidate = null;
+        if (virtual) {
+            virtualSections.add(sections);
+        } else {
+            emit(sections.getLoop().produce());
+        }
+        if (candidateTail.length() > 0) {
+            emit(candidateTail.toString());
+            candidateTail.setLength(0);
+        }
+    }
+
+    /**
+     * Writes pre-processed text to the output.
+     *
+     * @param text The pre-processed text.
+     * @throws UncheckedIOException if the output cannot be written.
+     */
+    private void write(CharSequence text) {
+        try {
+            output.append(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Starts to fetch an include.
+     *
+     * @param includeType The type of the include.
+     * @param text The URL of the include without prefix.
+     * @return the content of the include in the future.
+     */
+    private CompletableFuture<CharSequence> prefetch(IncludeType includeType, String text) {
+        return CompletableFuture.supplyAsync(() -> includeType.process(text), prefetchExecutor);
+    }
+
+    /**
+     * Writes the queued text and includes to the output, as long as the
+     * includes have been fetched.
+     *
+     * @param wait If {@code true} waits for all includes to be fetched.
+     */
+    @SuppressWarnings("unchecked")
+    private void drain(boolean wait) {
+        while (!pending.isEmpty()) {
+            Object head = pending.peek();
+            if (head instanceof CompletableFuture) {
+                CompletableFuture<CharSequence> include = (CompletableFuture<CharSequence>) head;
+                if (!wait && !include.isDone()) {
+                    return;
+                }
+                pending.poll();
+                write(IncludeNode.await(include));
+            } else {
+                pending.poll();
+                write((CharSequence) head);
+            }
+        }
+    }
+
+    /**
+     * Waits for the includes being fetched and writes them to the output in
+     * document order. Has to be called before the output is closed, if the
+     * includes are prefetched.
+     *
+     * @return a reference to this object.
+     */
+    public PreProcessorContainer finish() {
+        if (candidate != null) {
+            resolve(true); // the loop is at the end of the text
+        }
+        drain(true);
+        return this;
+    }
+
     /**
      * Adds normal text with no processing to the includeList.
      *
@@ -62,7 +307,7 @@ public class PreProcessorContainer {
     public PreProcessorContainer processText(String text) {
         if (doProcess()) {
             if (parentContainer.isEmpty()) {
-                preprocessedText.append(text);
+                emit(text);
             } else {
                 ForNode forNode = (ForNode) parentContainer.peekForNode();
                 forNode.add(new TextNode(text));
@@ -92,12 +337,25 @@ public class PreProcessorContainer {
      */
     public PreProcessorContainer processInclude(String text) {
         if (doProcess()) {
+            Path file = curIncludeType.toFile(text);
+            if (file != null) {
+                includedFiles.add(file);
+            }
             if (parentContainer.isEmpty()) {
-                CharSequence cs = curIncludeType.process(text);
-                preprocessedText.append(cs);
+                if (prefetchExecutor == null) {
+                    CharSequence cs = curIncludeType.process(text);
+                    emit(cs);
+                } else {
+                    if (candidate != null) {
+                        resolve(false); // the include may continue the last iteration
+                    }
+                    pending.add(prefetch(curIncludeType, text));
+                    drain(false);
+                }
             } else {
                 ForNode forNode = (ForNode) parentContainer.peekForNode();
-                forNode.add(new IncludeNode(text, curIncludeType));
+                forNode.add(new IncludeNode(text, curIncludeType,
+                        prefetchExecutor == null ? null : prefetch(curIncludeType, text)));
             }
         }
         return this;
@@ -135,7 +393,7 @@ public class PreProcessorContainer {
                 } else if (constantMap.containsKey(key)) {
                     String value = constantMap.get(key);
                     if (value != null) {
-                        preprocessedText.append(value.trim());
+                        emit(value.trim());
                     }
                 }
             } else {
@@ -185,7 +443,7 @@ public class PreProcessorContainer {
             String value = System.getenv(realKey);
             if (value != null) {
                 if (parentContainer.isEmpty()) {
-                    preprocessedText.append(value);
+                    emit(value);
                 } else {
                     addKeyValueForNode(key, value);
                 }
@@ -215,7 +473,7 @@ public class PreProcessorContainer {
             String value = System.getProperty(realKey);
             if (value != null) {
                 if (parentContainer.isEmpty()) {
-                    preprocessedText.append(value);
+                    emit(value);
                 } else {
                     addKeyValueForNode(key, value);
                 }
@@ -233,25 +491,54 @@ public class PreProcessorContainer {
     public PreProcessorContainer ifStartVar(String variable) {
         IfNode ifContainer = new IfNode(variable);
         ifStack.push(ifContainer);
+        inactive++; // the if does not match until it is evaluated
         return this;
     }
 
     /**
-     * Gets the current if container from the stack and replaces the variable in
-     * it.
+     * Gets the current if container from the stack and moves it to the else
+     * if branch with a new variable, which only matches if no earlier branch
+     * matched.
      *
      * @param variable The variable of the if statement.
      * @return a reference to this object.
      */
     public PreProcessorContainer elseIfStartVar(String variable) {
         IfNode ifContainer = ifStack.peek();
-        ifContainer.setVariable(variable);
+        boolean wasMatch = ifContainer.isMatch();
+        ifContainer.elseIf(variable);
+        track(ifContainer, wasMatch);
+        return this;
+    }
+
+    /**
+     * Adds a comparison joined with {@code &&} to the condition of the if on
+     * top of the stack.
+     *
+     * @param variable The variable of the comparison.
+     * @return a reference to this object.
+     */
+    public PreProcessorContainer ifAnd(String variable) {
+        ifStack.peek().and(variable);
+        return this;
+    }
+
+    /**
+     * Adds a comparison joined with {@code ||} to the condition of the if on
+     * top of the stack.
+     *
+     * @param variable The variable of the comparison.
+     * @return a reference to this object.
+     */
+    public PreProcessorContainer ifOr(String variable) {
+        ifStack.peek().or(variable);
         return this;
     }
 
     /**
      * Adds the evaluation expression to the if on top of the stack. And
-     * performs the evaluation.
+     * performs the evaluation of the condition up to this comparison, unless
+     * an enclosing if does not match, so that the if cannot match either.
      *
      * @param value The value of the if statement.
      * @return a reference to this object.
@@ -259,12 +546,12 @@ public class PreProcessorContainer {
     public PreProcessorContainer ifStartVal(String value) {
         IfNode ifContainer = ifStack.peek();
         ifContainer.setValue(value);
-        String variable = ifContainer.getVariable();
-        String variableVal = constantMap.get(variable);
-        if (variableVal == null) {
-            throw new IllegalArgumentException(String.format("%s was not defined.", variable));
+        boolean wasMatch = ifContainer.isMatch();
+        if (inactive > (wasMatch ? 0 : 1)) {
+            return this;
         }
-        ifContainer.setVariableValue(variableVal);
+        ifContainer.evaluate(constants);
+        track(ifContainer, wasMatch);
         return this;
     }
 
@@ -319,7 +606,22 @@ public class PreProcessorContainer {
         ForNode forNode = (ForNode) parentContainer.peekForNode();
         SyntaxNode parent = forNode.getParent();
         if (parent == parentContainer) {
-            preprocessedText.append(parentContainer.produce());
+            VirtualSections sections = virtualSectionsEnabled ? VirtualSections.of(forNode) : null;
+            if (sections != null) {
+                if (candidate != null) {
+                    resolve(true); // followed by the section of this loop
+                }
+                candidate = sections;
+            } else if (pending.isEmpty() && candidate == null) {
+                // stream the iterations to the output instead of holding them in memory
+                try {
+                    parentContainer.produce(output);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                emit(parentContainer.produce());
+            }
             parentContainer.clear(); // clear up.
         }
         return this;
@@ -346,23 +648,39 @@ public class PreProcessorContainer {
      * @return a reference to this object.
      */
     public PreProcessorContainer ifEnd() {
-        ifStack.pop();
+        if (!ifStack.pop().isMatch()) {
+            inactive--;
+        }
         return this;
     }
 
     /**
-     * Pops the top element from the stack.
+     * Moves the if on top of the stack to its else branch, which matches if
+     * no earlier branch matched.
      *
      * @return a reference to this object.
      */
     public PreProcessorContainer ifElse() {
-        IfNode curIf = ifStack.peek();
-        IfOperator reverse = curIf.reverseMatch();
-        curIf.setOperator(reverse);
-        curIf.setVariableValue(curIf.getVariableValue()); // re-evaluation of the match
+        IfNode ifContainer = ifStack.peek();
+        boolean wasMatch = ifContainer.isMatch();
+        ifContainer.orElse();
+        track(ifContainer, wasMatch);
         return this;
     }
 
+    /**
+     * Updates the number of if expressions, which do not match, after an if
+     * on the stack was evaluated.
+     *
+     * @param ifContainer The evaluated if.
+     * @param wasMatch {@code true} if the if matched before the evaluation.
+     */
+    private void track(IfNode ifContainer, boolean wasMatch) {
+        if (wasMatch != ifContainer.isMatch()) {
+            inactive += wasMatch ? 1 : -1;
+        }
+    }
+
     /**
      * Associates the operator to the last if element on the stack.
      *
@@ -378,27 +696,62 @@ public class PreProcessorContainer {
     }
 
     /**
-     * Returns {@code true} if the if stack is empty or if the if condition on
-     * top of the if stack is {@code true}.
+     * Returns {@code true} if the if stack is empty or if all if conditions on
+     * the if stack are {@code true}.
      *
-     * @return {@code true} if the if stack is empty or if the if condition on
-     * top of the if stack is {@code true}.
+     * @return {@code true} if the if stack is empty or if all if conditions on
+     * the if stack are {@code true}.
      */
     private boolean doProcess() {
-        if (ifStack.isEmpty()) {
-            return true;
-        }
-        boolean process = !ifStack.stream().anyMatch(i -> !i.isMatch());
-        return process;
+        return inactive == 0;
+    }
+
+    /**
+     * Returns {@code true} if the text is processed, {@code false} inside of
+     * a branch which does not match. The parsers may skip an inactive branch
+     * up to its else if, else or end if without passing its text.
+     *
+     * @return {@code true} if the text is processed, else {@code false}.
+     */
+    public boolean isActive() {
+        return doProcess();
+    }
+
+    /**
+     * Returns the files included by the pre-processed text, in the order in
+     * which they were first included.
+     *
+     * @return the files included by the pre-processed text.
+     */
+    public Set<Path> getIncludedFiles() {
+        return Collections.unmodifiableSet(includedFiles);
     }
 
     /**
      * Returns the whole preprocessed text.
      *
      * @return the whole preprocessed text.
+     * @throws IllegalStateException if the text was written to a sink instead
+     * of being collected in memory.
      */
     public String getPreprocessedText() {
-        return preprocessedText.toString();
+        return getPreprocessed().toString();
+    }
+
+    /**
+     * Returns the whole preprocessed text without copying it. The returned
+     * sequence references the text and the includes it was made of.
+     *
+     * @return the whole preprocessed text.
+     * @throws IllegalStateException if the text was written to a sink instead
+     * of being collected in memory.
+     */
+    public CharSequence getPreprocessed() {
+        if (preprocessedText == null) {
+            throw new IllegalStateException("The pre-processed text was written to a sink.");
+        }
+        finish();
+        return preprocessedText;
     }
 
 }
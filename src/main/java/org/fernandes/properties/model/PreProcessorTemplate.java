@@ -0,0 +1,131 @@
+/*
+ OSSCUBE 2014
+ */
+package org.fernandes.properties.model;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import org.fernandes.properties.model.node.ContainerNode;
+import org.fernandes.properties.model.node.RenderContext;
+
+/**
+ * The pre-processor directives of an input compiled into a tree of syntax
+ * nodes, which can be rendered many times with different defines without
+ * parsing the input again. A template never changes after it was compiled, so
+ * it can be rendered by several threads at the same time.
+ * <p>
+ * The includes are fetched once per rendering through the include cache of
+ * {@link IncludeType}.
+ *
+ * @author onepoint
+ */
+public final class PreProcessorTemplate {
+
+    /**
+     * The root of the syntax tree.
+     */
+    private final ContainerNode root;
+
+    /**
+     * The files included by the template.
+     */
+    private final Set<Path> includedFiles;
+
+    /**
+     * Associates the template to its syntax tree.
+     *
+     * @param root The root of the syntax tree.
+     * @param includedFiles The files included by the template.
+     */
+    PreProcessorTemplate(ContainerNode root, Set<Path> includedFiles) {
+        this.root = root;
+        this.includedFiles = Collections.unmodifiableSet(new LinkedHashSet<>(includedFiles));
+    }
+
+    /**
+     * Renders the template with the environment and the system properties of
+     * this process.
+     *
+     * @param defines The defines, which override the definitions of the
+     * template with the same name.
+     * @return the pre-processed text.
+     * @throws IllegalArgumentException if the variable of a condition is not
+     * defined.
+     */
+    public CharSequence render(Map<String, String> defines) {
+        return render(defines, System.getenv(), System.getProperties());
+    }
+
+    /**
+     * Renders the template.
+     *
+     * @param defines The defines, which override the definitions of the
+     * template with the same name.
+     * @param environment The variables resolved by {@code !<$ENV.name>}.
+     * @param system The properties resolved by {@code !<$SYS.name>}.
+     * @return the pre-processed text.
+     * @throws IllegalArgumentException if the variable of a condition is not
+     * defined.
+     */
+    public CharSequence render(Map<String, String> defines, Map<String, String> environment, Properties system) {
+        return render(new RenderContext(defines, environment, system));
+    }
+
+    /**
+     * Renders the template in a context, which may share the contents of the
+     * includes with other renderings.
+     *
+     * @param context The context of the rendering, which is used only once.
+     * @return the pre-processed text.
+     * @throws IllegalArgumentException if the variable of a condition is not
+     * defined.
+     */
+    public CharSequence render(RenderContext context) {
+        return root.render(context);
+    }
+
+    /**
+     * Renders the template with the environment and the system properties of
+     * this process and writes the pre-processed text to a sink as it is
+     * produced, so that e.g. the iterations of a loop are not held in memory.
+     *
+     * @param defines The defines, which override the definitions of the
+     * template with the same name.
+     * @param out The sink of the pre-processed text.
+     * @throws IOException if the sink cannot be written.
+     * @throws IllegalArgumentException if the variable of a condition is not
+     * defined.
+     */
+    public void render(Map<String, String> defines, Appendable out) throws IOException {
+        render(new RenderContext(defines, System.getenv(), System.getProperties()), out);
+    }
+
+    /**
+     * Renders the template in a context and writes the pre-processed text to
+     * a sink as it is produced.
+     *
+     * @param context The context of the rendering, which is used only once.
+     * @param out The sink of the pre-processed text.
+     * @throws IOException if the sink cannot be written.
+     * @throws IllegalArgumentException if the variable of a condition is not
+     * defined.
+     */
+    public void render(RenderContext context, Appendable out) throws IOException {
+        root.render(context, out);
+    }
+
+    /**
+     * Returns the files the template may include, in the order in which they
+     * appear.
+     *
+     * @return the files the template may include.
+     */
+    public Set<Path> getIncludedFiles() {
+        return includedFiles;
+    }
+}
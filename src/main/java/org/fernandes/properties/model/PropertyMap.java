@@ -0,0 +1,160 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * The property map of a node, which keeps the order of the keys and counts
+ * the changes of all the property maps of a tree, so that the values rendered
+ * from references only have to be rendered again after a change.
+ *
+ * @author onepoint
+ */
+final class PropertyMap extends AbstractMap<String, String> {
+
+    /**
+     * The properties in the order in which they were added.
+     */
+    private final Map<String, String> map = new LinkedHashMap<>();
+
+    /**
+     * The number of changes of the property maps of the tree.
+     */
+    private final AtomicLong modifications;
+
+    /**
+     * Associates this map to the counter of the changes of the tree.
+     *
+     * @param modifications The number of changes of the property maps of the
+     * tree.
+     */
+    PropertyMap(AtomicLong modifications) {
+        this.modifications = modifications;
+    }
+
+    /**
+     * Returns the number of changes of the property maps of the tree.
+     *
+     * @return the number of changes of the property maps of the tree.
+     */
+    AtomicLong getModifications() {
+        return modifications;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String get(Object key) {
+        return map.get(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String put(String key, String value) {
+        modifications.incrementAndGet();
+        return map.put(key, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String remove(Object key) {
+        modifications.incrementAndGet();
+        return map.remove(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        modifications.incrementAndGet();
+        map.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        map.forEach(action);
+    }
+
+    /**
+     * {@inheritDoc} The entries and the iterator count their changes.
+     */
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                Iterator<Entry<String, String>> entries = map.entrySet().iterator();
+                return new Iterator<Entry<String, String>>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        Entry<String, String> entry = entries.next();
+                        return new SimpleEntry<String, String>(entry) {
+
+                            private static final long serialVersionUID = 1L;
+
+                            @Override
+                            public String setValue(String value) {
+                                modifications.incrementAndGet();
+                                super.setValue(value);
+                                return entry.setValue(value);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        modifications.incrementAndGet();
+                        entries.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return map.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Resolves the references of the hierarchical properties. The properties
+ * containing references are the vertices of a dependency graph, with an edge
+ * from each property to every referenced property, which contains references
+ * itself. The vertices are resolved in topological order, so that each
+ * reference is replaced by the completely resolved value of its target,
+ * independently of the order of the references in the input.
+ * <p>
+ * Vertices which do not depend on each other form separate components, which
+ * are resolved in parallel on large graphs.
+ * <p>
+ * Alternatively the compiled values are attached to their nodes, which
+ * resolve them when they are read.
+ *
+ * @author onepoint
+ */
+class ReferenceResolver {
+
+    /**
+     * The number of vertices from which independent components are resolved
+     * in parallel.
+     */
+    static final int PARALLEL_THRESHOLD = 4096;
+
+    /**
+     * The version of the tree in which the bound references are resolved.
+     */
+    private final HierarchicalPropertiesSnapshot tree;
+
+    /**
+     * Looks up the target nodes by hierarchical name.
+     */
+    private final Function<String, DefaultNode> lookup;
+
+    /**
+     * The vertices by node and property key.
+     */
+    private final Map<DefaultNode, Map<String, Vertex>> vertices = new IdentityHashMap<>();
+
+    /**
+     * All vertices in the order of their first reference.
+     */
+    private final List<Vertex> vertexList = new ArrayList<>();
+
+    /**
+     * Associates this resolver to the tree and the references found in it.
+     *
+     * @param tree The version of the tree in which the bound references are
+     * resolved.
+     * @param lookup Looks up the target nodes by hierarchical name.
+     * @param references The references found in the properties.
+     */
+    ReferenceResolver(HierarchicalPropertiesSnapshot tree, Function<String, DefaultNode> lookup,
+            List<Reference> references) {
+        this.tree = tree;
+        this.lookup = lookup;
+        for (Reference reference : references) {
+            vertex(reference.getLocation(), reference.getSourceProperty()).references.add(reference);
+        }
+    }
+
+    /**
+     * Replaces all references by the values of their targets.
+     *
+     * @throws IllegalStateException if the references are cyclic.
+     * @throws RuntimeException if a target cannot be found.
+     */
+    void resolve() {
+        for (Vertex vertex : vertexList) {
+            vertex.link();
+        }
+        List<List<Vertex>> components = sort();
+        if (vertexList.size() >= PARALLEL_THRESHOLD && components.size() > 1) {
+            components.parallelStream().forEach(component -> component.forEach(Vertex::resolve));
+        } else {
+            components.forEach(component -> component.forEach(Vertex::resolve));
+        }
+        for (Vertex vertex : vertexList) {
+            vertex.node.getPropertyMap().put(vertex.key, vertex.resolved);
+        }
+    }
+
+    /**
+     * Checks the references for cycles and attaches the compiled values to
+     * their nodes, so that the references are resolved when the properties are
+     * read.
+     *
+     * @throws IllegalStateException if the references are cyclic.
+     * @throws RuntimeException if a target node cannot be found.
+     */
+    void bind() {
+        for (Vertex vertex : vertexList) {
+            vertex.link();
+        }
+        sort();
+        for (Vertex vertex : vertexList) {
+            vertex.node.bindTemplate(vertex.key, vertex.template, tree);
+        }
+    }
+
+    /**
+     * Returns the vertex of a property, creating it if necessary.
+     *
+     * @param node The node of the property.
+     * @param key The key of the property.
+     * @return the vertex of the property.
+     */
+    private Vertex vertex(DefaultNode node, String key) {
+        Map<String, Vertex> nodeVertices = vertices.computeIfAbsent(node, n -> new HashMap<>());
+        Vertex vertex = nodeVertices.get(key);
+        if (vertex == null) {
+            vertex = new Vertex(node, key);
+            nodeVertices.put(key, vertex);
+            vertexList.add(vertex);
+        }
+        return vertex;
+    }
+
+    /**
+     * Returns the vertex of a property, if the property contains references.
+     *
+     * @param node The node of the property.
+     * @param key The key of the property.
+     * @return the vertex of the property or {@code null}.
+     */
+    private Vertex findVertex(DefaultNode node, String key) {
+        Map<String, Vertex> nodeVertices = vertices.get(node);
+        return nodeVertices == null ? null : nodeVertices.get(key);
+    }
+
+    /**
+     * Sorts the vertices topologically and splits them into independent
+     * components.
+     *
+     * @return the components, each with its vertices in topological order.
+     * @throws IllegalStateException if the references are cyclic.
+     */
+    private List<List<Vertex>> sort() {
+        List<Vertex> order = new ArrayList<>(vertexList.size());
+        for (Vertex vertex : vertexList) {
+            visit(vertex, order);
+        }
+        Map<Vertex, List<Vertex>> componentMap = new IdentityHashMap<>();
+        List<List<Vertex>> components = new ArrayList<>();
+        for (Vertex vertex : order) {
+            List<Vertex> component = componentMap.computeIfAbsent(vertex.component(), v -> new ArrayList<>());
+            if (component.isEmpty()) {
+                components.add(component);
+            }
+            component.add(vertex);
+        }
+        return components;
+    }
+
+    /**
+     * Adds a vertex to the topological order after all the vertices it
+     * depends on.
+     *
+     * @param start The vertex to add.
+     * @param order The vertices in topological order.
+     * @throws IllegalStateException if the references are cyclic.
+     */
+    private static void visit(Vertex start, List<Vertex> order) {
+        if (start.state == State.DONE) {
+            return;
+        }
+        List<Vertex> path = new ArrayList<>();
+        List<Integer> next = new ArrayList<>();
+        start.state = State.VISITING;
+        path.add(start);
+        next.add(0);
+        while (!path.isEmpty()) {
+            int last = path.size() - 1;
+            Vertex vertex = path.get(last);
+            int index = next.get(last);
+            if (index == vertex.dependencies.size()) {
+                vertex.state = State.DONE;
+                order.add(vertex);
+                path.remove(last);
+                next.remove(last);
+                continue;
+            }
+            next.set(last, index + 1);
+            Vertex dependency = vertex.dependencies.get(index);
+            if (dependency.state == State.VISITING) {
+                throw new IllegalStateException(String.format("Cyclic reference: %s.",
+                        cycle(path.subList(path.indexOf(dependency), path.size()))));
+            }
+            if (dependency.state == State.NEW) {
+                dependency.state = State.VISITING;
+                path.add(dependency);
+                next.add(0);
+            }
+        }
+    }
+
+    /**
+     * Describes a cycle of references.
+     *
+     * @param cycle The vertices of the cycle.
+     * @return the description of the cycle.
+     */
+    private static String cycle(List<Vertex> cycle) {
+        StringBuilder builder = new StringBuilder();
+        for (Vertex vertex : cycle) {
+            builder.append(vertex).append(" -> ");
+        }
+        return builder.append(cycle.get(0)).toString();
+    }
+
+    /**
+     * The state of a vertex during the topological sort.
+     */
+    private enum State {
+
+        /**
+         * Not visited yet.
+         */
+        NEW,
+
+        /**
+         * On the path being visited.
+         */
+        VISITING,
+
+        /**
+         * Added to the topological order.
+         */
+        DONE
+    }
+
+    /**
+     * A property containing references.
+     */
+    private final class Vertex {
+
+        /**
+         * The node of the property.
+         */
+        private final DefaultNode node;
+
+        /**
+         * The key of the property.
+         */
+        private final String key;
+
+        /**
+         * The references in the value of the property.
+         */
+        private final List<Reference> references = new ArrayList<>();
+
+        /**
+         * The target nodes of the references, in the same order.
+         */
+        private final List<DefaultNode> targets = new ArrayList<>();
+
+        /**
+         * The target vertices or {@code null} for targets without references,
+         * in the same order as the references.
+         */
+        private final List<Vertex> targetVertices = new ArrayList<>();
+
+        /**
+         * The vertices this vertex depends on.
+         */
+        private final List<Vertex> dependencies = new ArrayList<>();
+
+        /**
+         * The parent in the union find structure of the components.
+         */
+        private Vertex parent = this;
+
+        /**
+         * The state during the topological sort.
+         */
+        private State state = State.NEW;
+
+        /**
+         * The compiled value of the property.
+         */
+        private ValueTemplate template;
+
+        /**
+         * The value with all references replaced.
+         */
+        private String resolved;
+
+        /**
+         * Associates this vertex to a property.
+         *
+         * @param node The node of the property.
+         * @param key The key of the property.
+         */
+        Vertex(DefaultNode node, String key) {
+            this.node = node;
+            this.key = key;
+        }
+
+        /**
+         * Compiles the value of the property, looks up the targets of the
+         * references and links this vertex to the vertices it depends on.
+         *
+         * @throws RuntimeException if the property or a target node cannot be
+         * found.
+         */
+        void link() {
+            String value = node.getPropertyMap().get(key);
+            if (value == null) {
+                throw new RuntimeException("The property to change cannot be null.");
+            }
+            template = ValueTemplate.compile(value, references);
+            for (Reference reference : references) {
+                DefaultNode target = lookup.apply(reference.getTargetHierarchy());
+                if (target == null) {
+                    throw new RuntimeException(String.format("The node %s referenced by %s cannot be found.",
+                            reference.getTargetHierarchy(), this));
+                }
+                Vertex targetVertex = findVertex(target, reference.getTargetProperty());
+                targets.add(target);
+                targetVertices.add(targetVertex);
+                if (targetVertex != null) {
+                    dependencies.add(targetVertex);
+                    targetVertex.union(this);
+                }
+            }
+        }
+
+        /**
+         * Merges the components of this and another vertex.
+         *
+         * @param other The other vertex.
+         */
+        void union(Vertex other) {
+            component().parent = other.component();
+        }
+
+        /**
+         * Returns the representative of the component of this vertex.
+         *
+         * @return the representative of the component of this vertex.
+         */
+        Vertex component() {
+            Vertex root = this;
+            while (root.parent != root) {
+                root = root.parent;
+            }
+            for (Vertex cur = this; cur.parent != root;) {
+                Vertex next = cur.parent;
+                cur.parent = root;
+                cur = next;
+            }
+            return root;
+        }
+
+        /**
+         * Replaces the references in the value of the property. Must be called
+         * after the vertices it depends on were resolved.
+         *
+         * @throws RuntimeException if a target property cannot be found.
+         */
+        void resolve() {
+            resolved = template.render(this::targetValue);
+        }
+
+        /**
+         * Returns the resolved value of the target of a reference.
+         *
+         * @param index The index of the reference.
+         * @return the resolved value of the target of the reference.
+         * @throws RuntimeException if the target property cannot be found.
+         */
+        private String targetValue(int index) {
+            Vertex targetVertex = targetVertices.get(index);
+            if (targetVertex != null) {
+                return targetVertex.resolved;
+            }
+            Reference reference = references.get(index);
+            String targetValue = targets.get(index).getPropertyMap().get(reference.getTargetProperty());
+            if (targetValue == null) {
+                throw new RuntimeException(String.format("The property %s:%s referenced by %s cannot be found.",
+                        reference.getTargetHierarchy(), reference.getTargetProperty(), this));
+            }
+            return targetValue;
+        }
+
+        /**
+         * Returns the string representation of this object.
+         *
+         * @return the string representation of this object.
+         */
+        @Override
+        public String toString() {
+            return node.getHierarchicalName() + ":" + key;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.model;
+
+import java.beans.PropertyChangeEvent;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The {@code "root"} event fired when the root of the properties is replaced,
+ * e.g. by a reload. Besides the old and the new root, it contains the changes
+ * between both trees, which are computed only once for all listeners.
+ *
+ * @author onepoint
+ */
+public class RootChangeEvent extends PropertyChangeEvent {
+
+    /**
+     * The serial version UID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The name of the event.
+     */
+    public static final String ROOT = "root";
+
+    /**
+     * The changes between the old and the new tree in document order.
+     */
+    private final transient List<HierarchicalPropertyChangeEvent> changes;
+
+    /**
+     * Creates an event.
+     *
+     * @param source The properties with the new root.
+     * @param oldRoot The old root.
+     * @param newRoot The new root.
+     * @param changes The changes between the old and the new tree.
+     */
+    public RootChangeEvent(Object source, PropertyNode oldRoot, PropertyNode newRoot,
+            List<HierarchicalPropertyChangeEvent> changes) {
+        super(source, ROOT, oldRoot, newRoot);
+        this.changes = Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * Returns the changes between the old and the new tree in document order,
+     * parents before their children.
+     *
+     * @return the changes between the old and the new tree.
+     */
+    public List<HierarchicalPropertyChangeEvent> getChanges() {
+        return changes;
+    }
+}
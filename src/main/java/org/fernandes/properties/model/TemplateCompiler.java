@@ -0,0 +1,404 @@
+/*
+ OSSCUBE 2014
+ */
+package org.fernandes.properties.model;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.fernandes.properties.model.node.ContainerNode;
+import org.fernandes.properties.model.node.DefineNode;
+import org.fernandes.properties.model.node.ForNode;
+import org.fernandes.properties.model.node.IfNode;
+import org.fernandes.properties.model.node.IncludeNode;
+import org.fernandes.properties.model.node.TextNode;
+import org.fernandes.properties.model.node.VarNode;
+
+/**
+ * A pre-processor container, which does not evaluate the directives, but
+ * compiles them into a {@link PreProcessorTemplate}. It receives the same
+ * callbacks from the parsers as the pre-processor container.
+ *
+ * @author onepoint
+ */
+public class TemplateCompiler extends PreProcessorContainer {
+
+    /**
+     * The root of the syntax tree.
+     */
+    private final ContainerNode root = new ContainerNode();
+
+    /**
+     * The open containers, the innermost first. Its bottom is the root.
+     */
+    private final Deque<ContainerNode> containers = new ArrayDeque<>();
+
+    /**
+     * The text, which was not yet added as a text node, so that adjacent text
+     * becomes a single node.
+     */
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * The files included by the template.
+     */
+    private final Set<Path> includedFiles = new LinkedHashSet<>();
+
+    /**
+     * The current include.
+     */
+    private IncludeType curIncludeType;
+
+    /**
+     * The constant key.
+     */
+    private String constantKey;
+
+    /**
+     * Creates a compiler with an empty template.
+     */
+    public TemplateCompiler() {
+        containers.push(root);
+    }
+
+    /**
+     * Returns the compiled template.
+     *
+     * @return the compiled template.
+     */
+    public PreProcessorTemplate getTemplate() {
+        flushText();
+        return new PreProcessorTemplate(root, includedFiles);
+    }
+
+    /**
+     * Returns the container to which the nodes are added.
+     *
+     * @return the container to which the nodes are added.
+     */
+    private ContainerNode current() {
+        flushText();
+        return containers.peek();
+    }
+
+    /**
+     * Adds the pending text as a single text node.
+     */
+    private void flushText() {
+        if (text.length() > 0) {
+            containers.peek().add(new TextNode(text.toString()));
+            text.setLength(0);
+        }
+    }
+
+    /**
+     * Returns the innermost open node, which has to be of a specific type.
+     *
+     * @param <T> The type of the node.
+     * @param type The type of the node.
+     * @param directive The directive, which requires the node.
+     * @return the innermost open node.
+     * @throws IllegalStateException if the innermost open node has another
+     * type.
+     */
+    private <T extends ContainerNode> T open(Class<T> type, String directive) {
+        flushText();
+        ContainerNode node = containers.peek();
+        if (!type.isInstance(node)) {
+            throw new IllegalStateException(String.format("%s without matching start.", directive));
+        }
+        return type.cast(node);
+    }
+
+    /**
+     * Adds text, which is joined with the adjacent text into a single text
+     * node.
+     *
+     * @param text The text.
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer processText(String text) {
+        this.text.append(text);
+        return this;
+    }
+
+    /**
+     * Sets the current include type.
+     *
+     * @param text The text representing an include type.
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer processCurIncludeType(String text) {
+        curIncludeType = IncludeType.byPrefix(text);
+        return this;
+    }
+
+    /**
+     * Adds an include node.
+     *
+     * @param text The URL of the include without prefix.
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer processInclude(String text) {
+        Path file = curIncludeType.toFile(text);
+        if (file != null) {
+            includedFiles.add(file);
+        }
+        current().add(new IncludeNode(text, curIncludeType));
+        return this;
+    }
+
+    /**
+     * Sets the key of the next define.
+     *
+     * @param key The key for the constant.
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer addConstantKey(String key) {
+        this.constantKey = key;
+        return this;
+    }
+
+    /**
+     * Adds a define node.
+     *
+     * @param value The value of the constant.
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer addConstantVal(String value) {
+        current().add(new DefineNode(constantKey, value));
+        return this;
+    }
+
+    /**
+     * Adds a variable node.
+     *
+     * @param key The name of the variable.
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer addDefineVal(String key) {
+        current().add(new VarNode(key));
+        return this;
+    }
+
+    /**
+     * Adds a variable node.
+     *
+     * @param key The name of the variable with the prefix of the system
+     * properties.
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer addSystemVal(String key) {
+        return addDefineVal(key);
+    }
+
+    /**
+     * Opens an if node.
+     *
+     * @param variable The variable of the if statement.
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer ifStartVar(String variable) {
+        IfNode ifNode = new IfNode(variable);
+        current().add(ifNode);
+        containers.push(ifNode);
+        return this;
+    }
+
+    /**
+     * Replaces the open if node with a new node for the else if branch.
+     *
+     * @param variable The variable of the else if statement.
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer elseIfStartVar(String variable) {
+        IfNode elseIf = new IfNode(variable);
+        open(IfNode.class, "elseif").setElse(elseIf);
+        containers.pop();
+        containers.push(elseIf);
+        return this;
+    }
+
+    /**
+     * Sets the operator of the open if node.
+     *
+     * @param operator The sign of the operator.
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer ifOperator(String operator) {
+        open(IfNode.class, "if").setOperator(IfOperator.bySign(operator));
+        return this;
+    }
+
+    /**
+     * Adds a comparison joined with {@code &&} to the open if node.
+     *
+     * @param variable The variable of the comparison.
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer ifAnd(String variable) {
+        open(IfNode.class, "if").and(variable);
+        return this;
+    }
+
+    /**
+     * Adds a comparison joined with {@code ||} to the open if node.
+     *
+     * @param variable The variable of the comparison.
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer ifOr(String variable) {
+        open(IfNode.class, "if").or(variable);
+        return this;
+    }
+
+    /**
+     * Sets the value of the open if node, which is evaluated when rendering.
+     *
+     * @param value The value of the if statement.
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer ifStartVal(String value) {
+        open(IfNode.class, "if").setValue(value);
+        return this;
+    }
+
+    /**
+     * Replaces the open if node with the container of the else branch.
+     *
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer ifElse() {
+        ContainerNode orElse = new ContainerNode();
+        open(IfNode.class, "else").setElse(orElse);
+        containers.pop();
+        containers.push(orElse);
+        return this;
+    }
+
+    /**
+     * Closes the open if node or else branch.
+     *
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer ifEnd() {
+        if (containers.size() == 1 || current() instanceof ForNode) {
+            throw new IllegalStateException("endif without matching start.");
+        }
+        containers.pop();
+        return this;
+    }
+
+    /**
+     * Opens a for node.
+     *
+     * @param value The variable of the for statement.
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer forVar(String value) {
+        ForNode forNode = new ForNode(value);
+        current().add(forNode);
+        containers.push(forNode);
+        return this;
+    }
+
+    /**
+     * Sets the start value of the open for node.
+     *
+     * @param value The start value of the variable in the for statement.
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer forStart(String value) {
+        open(ForNode.class, "for").setStart(Integer.parseInt(value));
+        return this;
+    }
+
+    /**
+     * Sets the end value of the open for node.
+     *
+     * @param value The end value of the variable in the for statement.
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer forEndOrStep(String value) {
+        open(ForNode.class, "for").setEnd(Integer.parseInt(value));
+        return this;
+    }
+
+    /**
+     * Uses the end value of the open for node as step and sets a new end
+     * value.
+     *
+     * @param value The end value of the variable in the for statement.
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer forEnd(String value) {
+        ForNode forNode = open(ForNode.class, "for");
+        forNode.setStep(forNode.getEnd());
+        forNode.setEnd(Integer.parseInt(value));
+        return this;
+    }
+
+    /**
+     * Closes the open for node.
+     *
+     * @return a reference to this object.
+     */
+    @Override
+    public PreProcessorContainer forEnd() {
+        open(ForNode.class, "endfor");
+        containers.pop();
+        return this;
+    }
+
+    /**
+     * Returns {@code true}, since all branches are compiled.
+     *
+     * @return {@code true}.
+     */
+    @Override
+    public boolean isActive() {
+        return true;
+    }
+
+    /**
+     * Returns the files included by the template.
+     *
+     * @return the files included by the template.
+     */
+    @Override
+    public Set<Path> getIncludedFiles() {
+        return Collections.unmodifiableSet(includedFiles);
+    }
+
+    /**
+     * Renders the template with no defines.
+     *
+     * @return the pre-processed text.
+     */
+    @Override
+    public CharSequence getPreprocessed() {
+        return getTemplate().render(Collections.emptyMap());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.fernandes.properties.model.HierarchicalPropertyChangeEvent.Type;
+
+/**
+ * Compares two trees and lists the added, removed and changed nodes and
+ * properties. Nodes are matched by name below matched parents and properties
+ * are compared with their resolved values.
+ *
+ * @author onepoint
+ */
+final class TreeDiff {
+
+    /**
+     * The source of the events.
+     */
+    private final Object source;
+
+    /**
+     * The changes found so far.
+     */
+    private final List<HierarchicalPropertyChangeEvent> changes = new ArrayList<>();
+
+    /**
+     * Associates the comparison to the source of the events.
+     *
+     * @param source The source of the events.
+     */
+    private TreeDiff(Object source) {
+        this.source = source;
+    }
+
+    /**
+     * Compares two trees.
+     *
+     * @param source The source of the events.
+     * @param oldRoot The root of the old tree.
+     * @param newRoot The root of the new tree.
+     * @return the changes in document order, parents before their children.
+     */
+    static List<HierarchicalPropertyChangeEvent> diff(Object source, DefaultNode oldRoot, DefaultNode newRoot) {
+        TreeDiff diff = new TreeDiff(source);
+        diff.compare(oldRoot, newRoot);
+        return diff.changes;
+    }
+
+    /**
+     * Compares two matched nodes and their children.
+     *
+     * @param oldNode The node of the old tree.
+     * @param newNode The node of the new tree.
+     */
+    private void compare(DefaultNode oldNode, DefaultNode newNode) {
+        String path = newNode.getHierarchicalName();
+        Map<String, String> oldProperties = oldNode.getPropertyMap();
+        Map<String, String> newProperties = newNode.getPropertyMap();
+        for (String key : oldProperties.keySet()) {
+            if (!newProperties.containsKey(key)) {
+                add(Type.PROPERTY_REMOVED, path, key, oldNode.getProperty(key), null);
+            } else {
+                String oldValue = oldNode.getProperty(key);
+                String newValue = newNode.getProperty(key);
+                if (!Objects.equals(oldValue, newValue)) {
+                    add(Type.PROPERTY_CHANGED, path, key, oldValue, newValue);
+                }
+            }
+        }
+        for (String key : newProperties.keySet()) {
+            if (!oldProperties.containsKey(key)) {
+                add(Type.PROPERTY_ADDED, path, key, null, newNode.getProperty(key));
+            }
+        }
+        Map<String, DefaultNode> oldChildren = oldNode.getChildren();
+        Map<String, DefaultNode> newChildren = newNode.getChildren();
+        for (Map.Entry<String, DefaultNode> oldChild : oldChildren.entrySet()) {
+            DefaultNode newChild = newChildren.get(oldChild.getKey());
+            if (newChild == null) {
+                removed(oldChild.getValue());
+            } else {
+                compare(oldChild.getValue(), newChild);
+            }
+        }
+        for (Map.Entry<String, DefaultNode> newChild : newChildren.entrySet()) {
+            if (!oldChildren.containsKey(newChild.getKey())) {
+                added(newChild.getValue());
+            }
+        }
+    }
+
+    /**
+     * Lists a removed node with its properties and descendants.
+     *
+     * @param node The removed node.
+     */
+    private void removed(DefaultNode node) {
+        String path = node.getHierarchicalName();
+        add(Type.NODE_REMOVED, path, null, node, null);
+        for (String key : node.getPropertyMap().keySet()) {
+            add(Type.PROPERTY_REMOVED, path, key, node.getProperty(key), null);
+        }
+        for (DefaultNode child : node.getChildren().values()) {
+            removed(child);
+        }
+    }
+
+    /**
+     * Lists an added node with its properties and descendants.
+     *
+     * @param node The added node.
+     */
+    private void added(DefaultNode node) {
+        String path = node.getHierarchicalName();
+        add(Type.NODE_ADDED, path, null, null, node);
+        for (String key : node.getPropertyMap().keySet()) {
+            add(Type.PROPERTY_ADDED, path, key, null, node.getProperty(key));
+        }
+        for (DefaultNode child : node.getChildren().values()) {
+            added(child);
+        }
+    }
+
+    /**
+     * Adds a change.
+     *
+     * @param type The type of the change.
+     * @param path The hierarchical name of the node.
+     * @param key The key of the property or {@code null} for node changes.
+     * @param oldValue The old value.
+     * @param newValue The new value.
+     */
+    private void add(Type type, String path, String key, Object oldValue, Object newValue) {
+        changes.add(new HierarchicalPropertyChangeEvent(source, type, path, key, oldValue, newValue));
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * A property value compiled into literal text and reference slots, like e.g.
+ * "${/Test/hello:key4}". The value is rendered by inserting the values of the
+ * referenced properties between the literals.
+ * <p>
+ * When the references are resolved lazily, the rendered value is memoised
+ * together with the version of the tree and the number of changes of its
+ * property maps, and rendered again only after a change.
+ *
+ * @author onepoint
+ */
+final class ValueTemplate {
+
+    /**
+     * The value from which the template was compiled.
+     */
+    private final String source;
+
+    /**
+     * The references found in the value.
+     */
+    private final List<Reference> references;
+
+    /**
+     * The literal text before, between and after the reference slots.
+     */
+    private final String[] literals;
+
+    /**
+     * The index of the reference of each slot.
+     */
+    private final int[] slots;
+
+    /**
+     * The last rendered value or {@code null}.
+     */
+    private volatile Memo memo;
+
+    /**
+     * Associates this template to its parts.
+     *
+     * @param source The value from which the template was compiled.
+     * @param references The references found in the value.
+     * @param literals The literal text before, between and after the reference
+     * slots.
+     * @param slots The index of the reference of each slot.
+     */
+    private ValueTemplate(String source, List<Reference> references, String[] literals, int[] slots) {
+        this.source = source;
+        this.references = references;
+        this.literals = literals;
+        this.slots = slots;
+    }
+
+    /**
+     * Compiles a property value in a single pass. Only the text matching one
+     * of the references becomes a slot. The reference can contain spaces
+     * between the dollar sign and the opening brace and around the separator.
+     *
+     * @param source The property value.
+     * @param references The references found in the value by the parser.
+     * @return the compiled template.
+     */
+    static ValueTemplate compile(String source, List<Reference> references) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        int copied = 0;
+        int start = source.indexOf('$');
+        while (start >= 0) {
+            int end = source.indexOf('}', start);
+            if (end < 0) {
+                break;
+            }
+            int index = match(source, start, end, references);
+            if (index >= 0) {
+                literals.add(source.substring(copied, start));
+                slots.add(index);
+                copied = end + 1;
+                start = source.indexOf('$', copied);
+            } else {
+                start = source.indexOf('$', start + 1);
+            }
+        }
+        literals.add(source.substring(copied));
+        int[] slotArray = new int[slots.size()];
+        for (int i = 0; i < slotArray.length; i++) {
+            slotArray[i] = slots.get(i);
+        }
+        return new ValueTemplate(source, references, literals.toArray(new String[literals.size()]), slotArray);
+    }
+
+    /**
+     * Matches the text between a dollar sign and a closing brace against
+     * the references.
+     *
+     * @param value The property value.
+     * @param start The position of the dollar sign.
+     * @param end The position of the closing brace.
+     * @param references The references found in the value.
+     * @return the index of the matching reference or -1.
+     */
+    private static int match(String value, int start, int end, List<Reference> references) {
+        int open = skipWhitespace(value, start + 1, end);
+        if (open == end || value.charAt(open) != '{') {
+            return -1;
+        }
+        for (int i = 0, size = references.size(); i < size; i++) {
+            Reference reference = references.get(i);
+            String hierarchy = reference.getTargetHierarchy();
+            String property = reference.getTargetProperty();
+            if (!value.startsWith(hierarchy, open + 1)) {
+                continue;
+            }
+            int cur = skipWhitespace(value, open + 1 + hierarchy.length(), end);
+            if (cur == end || (value.charAt(cur) != ':' && value.charAt(cur) != '=')) {
+                continue;
+            }
+            cur = skipWhitespace(value, cur + 1, end);
+            if (end - cur == property.length() && value.startsWith(property, cur)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Skips whitespace.
+     *
+     * @param value The text.
+     * @param from The position from which to skip.
+     * @param end The position at which to stop.
+     * @return the position of the first character which is not whitespace or
+     * {@code end}.
+     */
+    private static int skipWhitespace(String value, int from, int end) {
+        while (from < end && Character.isWhitespace(value.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Returns the value from which the template was compiled.
+     *
+     * @return the value from which the template was compiled.
+     */
+    String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the references found in the value.
+     *
+     * @return the references found in the value.
+     */
+    List<Reference> getReferences() {
+        return references;
+    }
+
+    /**
+     * Renders the value.
+     *
+     * @param targetValues Returns the value of the target of the reference with
+     * a specific index.
+     * @return the rendered value.
+     */
+    String render(IntFunction<String> targetValues) {
+        if (slots.length == 0) {
+            return source;
+        }
+        StringBuilder builder = new StringBuilder(source.length());
+        for (int i = 0; i < slots.length; i++) {
+            builder.append(literals[i]).append(targetValues.apply(slots[i]));
+        }
+        return builder.append(literals[slots.length]).toString();
+    }
+
+    /**
+     * Returns the rendered value, resolving the references in the version of
+     * the tree to which the node of the value belongs. The value is rendered
+     * again only if a property of the tree changed since the last call, which
+     * is checked without looking up the targets.
+     *
+     * @param props The version of the tree in which the targets are looked up.
+     * @param modifications The number of changes of the property maps of the
+     * tree.
+     * @return the rendered value.
+     * @throws RuntimeException if a target cannot be found.
+     */
+    String value(HierarchicalPropertiesSnapshot props, AtomicLong modifications) {
+        long modification = modifications.get(); // read before the targets
+        Memo last = memo;
+        if (last != null && last.tree == props && last.modification == modification) {
+            return last.value;
+        }
+        String value = render(index -> lookup(props, index));
+        memo = new Memo(props, modification, value);
+        return value;
+    }
+
+    /**
+     * Looks up the current value of the target of a reference.
+     *
+     * @param props The version of the tree in which the target is looked up.
+     * @param index The index of the reference.
+     * @return the current value of the target.
+     * @throws RuntimeException if the target cannot be found.
+     */
+    private String lookup(HierarchicalPropertiesSnapshot props, int index) {
+        Reference reference = references.get(index);
+        DefaultNode target = props.getNode(reference.getTargetHierarchy());
+        if (target == null) {
+            throw new RuntimeException(String.format("The node %s referenced by %s cannot be found.",
+                    reference.getTargetHierarchy(), source));
+        }
+        String targetValue = target.getProperty(reference.getTargetProperty());
+        if (targetValue == null) {
+            throw new RuntimeException(String.format("The property %s:%s referenced by %s cannot be found.",
+                    reference.getTargetHierarchy(), reference.getTargetProperty(), source));
+        }
+        return targetValue;
+    }
+
+    /**
+     * A rendered value with the version of the tree it was rendered in and
+     * the number of changes of the tree at that time.
+     */
+    private static final class Memo {
+
+        /**
+         * The version of the tree in which the targets were looked up.
+         */
+        private final HierarchicalPropertiesSnapshot tree;
+
+        /**
+         * The number of changes of the property maps of the tree, when the
+         * targets were looked up.
+         */
+        private final long modification;
+
+        /**
+         * The rendered value.
+         */
+        private final String value;
+
+        /**
+         * Associates this memo to the rendered value.
+         *
+         * @param tree The version of the tree in which the targets were
+         * looked up.
+         * @param modification The number of changes of the property maps of
+         * the tree, when the targets were looked up.
+         * @param value The rendered value.
+         */
+        Memo(HierarchicalPropertiesSnapshot tree, long modification, String value) {
+            this.tree = tree;
+            this.modification = modification;
+            this.value = value;
+        }
+    }
+}
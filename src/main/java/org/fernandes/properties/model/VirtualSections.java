@@ -0,0 +1,382 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import org.fernandes.properties.model.node.ForNode;
+import org.fernandes.properties.util.Rope;
+
+/**
+ * The sections generated by a for loop, which are not expanded by the
+ * pre-processor. The iterations of the loop have to start with a section
+ * named after the loop variable, like e.g. "[/shard/!&lt;$i&gt;]", and can
+ * only contain this section and the sections below it.
+ * <p>
+ * The nodes of an iteration are parsed from the loop, when one of them is
+ * read with {@link #getNode(String)} for the first time, and are kept
+ * afterwards. The iteration over all nodes parses the iterations one after
+ * the other without keeping them. The node named after the loop variable has
+ * its parent in the tree owning the sections, in which the references of the
+ * iteration are resolved, if they do not point into the iteration itself.
+ *
+ * @author onepoint
+ */
+public final class VirtualSections {
+
+    /**
+     * The value of the loop variable used to find it in the section name.
+     */
+    private static final String MARKER = "\uFDD0";
+
+    /**
+     * The for loop.
+     */
+    private final ForNode loop;
+
+    /**
+     * The section name before the loop variable without leading slash.
+     */
+    private final String prefix;
+
+    /**
+     * The section name after the loop variable without trailing slash.
+     */
+    private final String suffix;
+
+    /**
+     * The path of the section without leading slash, below which the sections
+     * are generated, or {@code null}.
+     */
+    private final String parentPath;
+
+    /**
+     * The parsed iterations by value of the loop variable.
+     */
+    private final Map<Integer, HierarchicalProperties> iterations = new ConcurrentHashMap<>();
+
+    /**
+     * The values of the loop variable of the iterations parsed by the current
+     * thread.
+     */
+    private final ThreadLocal<Set<Integer>> parsing = ThreadLocal.withInitial(HashSet::new);
+
+    /**
+     * The properties owning the sections.
+     */
+    private DefaultHierarchicalProperties owner;
+
+    /**
+     * Parses the text of an iteration without resolving its references.
+     */
+    private Function<CharSequence, DefaultHierarchicalProperties> parser;
+
+    /**
+     * {@code true} if the references of the iterations are resolved when they
+     * are read.
+     */
+    private boolean lazyReferences;
+
+    /**
+     * Associates this object to a loop and the section name.
+     *
+     * @param loop The for loop.
+     * @param prefix The section name before the loop variable.
+     * @param suffix The section name after the loop variable.
+     */
+    private VirtualSections(ForNode loop, String prefix, String suffix) {
+        this.loop = loop;
+        this.prefix = prefix.replaceFirst("^/+", "");
+        this.suffix = suffix.replaceFirst("/+$", "");
+        int parentEnd = this.prefix.lastIndexOf('/');
+        this.parentPath = parentEnd > 0 ? this.prefix.substring(0, parentEnd) : null;
+    }
+
+    /**
+     * Creates the virtual sections of a for loop.
+     *
+     * @param loop The for loop.
+     * @return the virtual sections of the loop or {@code null}, if its
+     * iterations do not start with a section named after the loop variable or
+     * contain other sections.
+     */
+    public static VirtualSections of(ForNode loop) {
+        String text = produce(loop, MARKER).toString();
+        int headerStart = 0;
+        while (headerStart < text.length() && Character.isWhitespace(text.charAt(headerStart))) {
+            headerStart++;
+        }
+        String header = header(text, headerStart);
+        if (header == null) {
+            return null;
+        }
+        int marker = header.indexOf(MARKER);
+        if (marker < 0 || header.indexOf(MARKER, marker + 1) >= 0) {
+            return null;
+        }
+        for (String line : text.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("[")) {
+                String other = header(trimmed, 0);
+                if (other == null || !(other.equals(header) || other.startsWith(header + "/"))) {
+                    return null;
+                }
+            }
+        }
+        return new VirtualSections(loop, header.substring(0, marker), header.substring(marker + 1));
+    }
+
+    /**
+     * Returns the name of the section starting at a position.
+     *
+     * @param text The text with the section.
+     * @param start The position of the opening bracket.
+     * @return the name of the section or {@code null}, if there is none.
+     */
+    private static String header(String text, int start) {
+        if (start >= text.length() || text.charAt(start) != '[') {
+            return null;
+        }
+        int end = text.indexOf(']', start);
+        return end < 0 ? null : text.substring(start + 1, end).trim();
+    }
+
+    /**
+     * Produces the text of an iteration.
+     *
+     * @param loop The for loop.
+     * @param value The value of the loop variable.
+     * @return the text of the iteration.
+     */
+    private static CharSequence produce(ForNode loop, String value) {
+        Rope text = new Rope();
+        synchronized (loop) { // the loop keeps the value of its variable
+            try {
+                loop.produceIteration(text, value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Attaches the sections to the properties owning them.
+     *
+     * @param owner The properties owning the sections.
+     * @param parser Parses the text of an iteration without resolving its
+     * references.
+     * @param lazyReferences If {@code true} the references of the iterations
+     * are resolved when they are read.
+     */
+    void attach(DefaultHierarchicalProperties owner, Function<CharSequence, DefaultHierarchicalProperties> parser,
+            boolean lazyReferences) {
+        this.owner = owner;
+        this.parser = parser;
+        this.lazyReferences = lazyReferences;
+    }
+
+    /**
+     * Returns the for loop.
+     *
+     * @return the for loop.
+     */
+    ForNode getLoop() {
+        return loop;
+    }
+
+    /**
+     * Returns the path of the section without leading slash, below which the
+     * sections are generated, like e.g. "shard".
+     *
+     * @return the path of the parent section or {@code null}.
+     */
+    public String getParentPath() {
+        return parentPath;
+    }
+
+    /**
+     * Returns a node generated by the loop. The iteration generating it is
+     * parsed on the first access and kept.
+     *
+     * @param hierarchicalName The path like name of the node.
+     * @return a node with hierarchicalName or {@code null}.
+     * @throws IllegalStateException if the sections are not attached to
+     * properties or the references of two iterations depend on each other.
+     */
+    public DefaultNode getNode(String hierarchicalName) {
+        Integer value = valueOf(hierarchicalName);
+        if (value == null) {
+            return null;
+        }
+        HierarchicalProperties iteration = iterations.get(value);
+        if (iteration == null) {
+            // not computeIfAbsent, since the references may lead to other iterations
+            HierarchicalProperties parsed = parse(value);
+            iteration = iterations.putIfAbsent(value, parsed);
+            if (iteration == null) {
+                iteration = parsed;
+            }
+        }
+        return (DefaultNode) iteration.getNode(hierarchicalName);
+    }
+
+    /**
+     * Returns the number of iterations parsed and kept.
+     *
+     * @return the number of iterations parsed and kept.
+     */
+    public int materialised() {
+        return iterations.size();
+    }
+
+    /**
+     * Returns the value of the loop variable in the name of a node.
+     *
+     * @param hierarchicalName The path like name of the node.
+     * @return the value of the loop variable or {@code null}, if the node is
+     * not generated by the loop.
+     */
+    private Integer valueOf(String hierarchicalName) {
+        int cur = 0;
+        while (cur < hierarchicalName.length() && hierarchicalName.charAt(cur) == '/') {
+            cur++;
+        }
+        if (!hierarchicalName.startsWith(prefix, cur)) {
+            return null;
+        }
+        int valueStart = cur + prefix.length();
+        int valueEnd = valueStart;
+        if (valueEnd < hierarchicalName.length() && hierarchicalName.charAt(valueEnd) == '-') {
+            valueEnd++;
+        }
+        while (valueEnd < hierarchicalName.length() && Character.isDigit(hierarchicalName.charAt(valueEnd))) {
+            valueEnd++;
+        }
+        if (valueEnd == valueStart || valueEnd - valueStart > 10 || !hierarchicalName.startsWith(suffix, valueEnd)) {
+            return null;
+        }
+        int rest = valueEnd + suffix.length();
+        if (rest < hierarchicalName.length() && hierarchicalName.charAt(rest) != '/') {
+            return null;
+        }
+        String text = hierarchicalName.substring(valueStart, valueEnd);
+        try {
+            int value = Integer.parseInt(text);
+            return loop.contains(value) && Integer.toString(value).equals(text) ? value : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses an iteration, attaches the node named after the loop variable to
+     * its parent in the owning tree and resolves the references.
+     *
+     * @param value The value of the loop variable.
+     * @return the properties of the iteration.
+     * @throws IllegalStateException if the sections are not attached to
+     * properties or the references of two iterations depend on each other.
+     */
+    private HierarchicalProperties parse(int value) {
+        if (parser == null) {
+            throw new IllegalStateException("The virtual sections are not attached to properties.");
+        }
+        Set<Integer> parsed = parsing.get();
+        if (!parsed.add(value)) {
+            throw new IllegalStateException(String.format(
+                    "The references of the iteration /%s%d%s lead back to it through other iterations.",
+                    prefix, value, suffix));
+        }
+        try {
+            CharSequence text = produce(loop, Integer.toString(value));
+            int start = 0;
+            while (start < text.length() && Character.isWhitespace(text.charAt(start))) {
+                start++;
+            }
+            // the iteration is parsed from its first section
+            DefaultHierarchicalProperties iteration = parser.apply(text.subSequence(start, text.length()));
+            if (iteration == null) {
+                return new DefaultHierarchicalProperties();
+            }
+            int nameEnd = suffix.indexOf('/');
+            String name = "/" + prefix + value + (nameEnd < 0 ? suffix : suffix.substring(0, nameEnd));
+            DefaultNode node = iteration.getNode(name);
+            if (node != null) {
+                node.setParent(parentPath == null ? owner.getRoot() : owner.getNode("/" + parentPath));
+            }
+            iteration.dereferenceRefs(owner, target -> {
+                Integer targetValue = valueOf(target);
+                return targetValue != null && targetValue == value ? iteration.getNode(target) : owner.getNode(target);
+            }, lazyReferences);
+            return iteration;
+        } finally {
+            parsed.remove(value);
+        }
+    }
+
+    /**
+     * Returns the iterator over the generated nodes, which parses the
+     * iterations, which are not kept, one after the other.
+     *
+     * @return the iterator over the generated nodes.
+     */
+    public Iterator<DefaultNode> iterator() {
+        return new Iterator<DefaultNode>() {
+
+            /**
+             * The value of the loop variable of the next iteration.
+             */
+            private long value = loop.getStart();
+
+            /**
+             * The nodes of the current iteration.
+             */
+            private Iterator<DefaultNode> nodes = Collections.emptyIterator();
+
+            /**
+             * The next node or {@code null}.
+             */
+            private DefaultNode next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    if (nodes.hasNext()) {
+                        DefaultNode node = nodes.next();
+                        if (valueOf(node.getHierarchicalName()) != null) {
+                            next = node;
+                        }
+                    } else if (loop.getStep() != 0 && loop.contains((int) value)) {
+                        HierarchicalProperties iteration = iterations.get((int) value);
+                        nodes = (iteration == null ? parse((int) value) : iteration).iterator();
+                        value += loop.getStep();
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public DefaultNode next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                DefaultNode node = next;
+                next = null;
+                return node;
+            }
+        };
+    }
+}
@@ -4,6 +4,7 @@
 
 package org.fernandes.properties.model.node;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -26,11 +27,6 @@ public class ContainerNode extends AbstractSyntaxNode {
      */
     private final Map<String, String> constantMap = new LinkedHashMap<>();
 
-    /**
-     * Used to build the produced result of all components.
-     */
-    private final StringBuilder builder = new StringBuilder();
-
     /**
      * Adds a preprocessor node.
      * @param e The node to add.
@@ -112,6 +108,14 @@ public class ContainerNode extends AbstractSyntaxNode {
         return children.stream();
     }
 
+    /**
+     * Returns the children.
+     * @return the children.
+     */
+    protected List<SyntaxNode> getChildren() {
+        return children;
+    }
+
     /**
      * Checks, if there are no children.
      * @return return {@code true} if there are no children, else {@code false}.
@@ -121,15 +125,28 @@ public class ContainerNode extends AbstractSyntaxNode {
     }
 
     /**
-     * Returns an empty string.
-     * @return an empty string.
+     * Writes the output of the children to a sink.
+     * @param out The sink of the output.
+     * @throws IOException if the sink cannot be written.
      */
     @Override
-    public CharSequence produce() {
-        stream().forEach(node -> {
-            builder.append(node.produce());
-        });
-        return builder;
+    public void produce(Appendable out) throws IOException {
+        for(SyntaxNode node : children) {
+            node.produce(out);
+        }
+    }
+
+    /**
+     * Writes the output of the children in the context of a rendering to a sink.
+     * @param context The context of the rendering.
+     * @param out The sink of the output.
+     * @throws IOException if the sink cannot be written.
+     */
+    @Override
+    public void render(RenderContext context, Appendable out) throws IOException {
+        for(SyntaxNode node : children) {
+            node.render(context, out);
+        }
     }
 
     /**
@@ -178,4 +195,4 @@ public class ContainerNode extends AbstractSyntaxNode {
 
 
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,80 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.model.node;
+
+import java.io.IOException;
+
+/**
+ * A preprocessor node, which defines a constant when a template is rendered.
+ * @author onepoint
+ */
+public class DefineNode extends AbstractSyntaxNode {
+
+    /**
+     * The name of the constant.
+     */
+    private final String key;
+
+    /**
+     * The value of the constant.
+     */
+    private final String value;
+
+    /**
+     * Associates the constant with this node.
+     * @param key The name of the constant.
+     * @param value The value of the constant.
+     */
+    public DefineNode(String key, String value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    /**
+     * Returns the name of the constant.
+     * @return the name of the constant.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns an empty string, since a definition produces no output.
+     * @return an empty string.
+     */
+    @Override
+    public CharSequence produce() {
+        return "";
+    }
+
+    /**
+     * Defines the constant in the context and returns an empty string.
+     * @param context The context of the rendering.
+     * @return an empty string.
+     */
+    @Override
+    public CharSequence render(RenderContext context) {
+        context.define(key, value);
+        return "";
+    }
+
+    /**
+     * Writes nothing, since a definition produces no output.
+     * @param out The sink of the output.
+     */
+    @Override
+    public void produce(Appendable out) {
+    }
+
+    /**
+     * Defines the constant in the context.
+     * @param context The context of the rendering.
+     * @param out The sink of the output.
+     */
+    @Override
+    public void render(RenderContext context, Appendable out) {
+        context.define(key, value);
+    }
+}
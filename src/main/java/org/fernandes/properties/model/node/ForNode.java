@@ -3,6 +3,8 @@
  */
 package org.fernandes.properties.model.node;
 
+import java.io.IOException;
+
 /**
  * Contains the elements of a container.
  *
@@ -83,6 +85,15 @@ public class ForNode extends ContainerNode {
         }
     }
 
+    /**
+     * Returns the start value.
+     *
+     * @return the start value.
+     */
+    public int getStart() {
+        return start;
+    }
+
     /**
      * Returns the end value.
      *
@@ -92,6 +103,41 @@ public class ForNode extends ContainerNode {
         return end;
     }
 
+    /**
+     * Returns the step.
+     *
+     * @return the step.
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * Returns the variable name.
+     *
+     * @return the variable name.
+     */
+    public String getVarName() {
+        return varName;
+    }
+
+    /**
+     * Returns {@code true} if the loop variable takes a value in one of the
+     * iterations.
+     *
+     * @param value The value of the variable.
+     * @return {@code true} if the loop variable takes the value, else
+     * {@code false}.
+     */
+    public boolean contains(int value) {
+        if (step > 0) {
+            return value >= start && value <= end && (value - start) % step == 0;
+        } else if (step < 0) {
+            return value <= start && value >= end && (start - value) % -step == 0;
+        }
+        return false;
+    }
+
     /**
      * Sets the step.
      *
@@ -112,35 +158,70 @@ public class ForNode extends ContainerNode {
     }
 
     /**
-     * Calls the {@code produce} method of the children classes and aggregates its
-     * output.
+     * Calls the {@code produce} method of the children classes once per
+     * iteration and writes their output to a sink, so that the iterations are
+     * not held in memory.
      *
-     * @return the result of the aggregation of the child classes.
+     * @param out The sink of the output.
+     * @throws IOException if the sink cannot be written.
      */
     @Override
-    public CharSequence produce() {
-        StringBuilder builder = new StringBuilder();
+    public void produce(Appendable out) throws IOException {
         int i = start;
         if (step > 0) {
             for (; i <= end; i += step) {
-                processChildren(builder, i);
+                produceIteration(out, Integer.toString(i));
             }
         } else if (step < 0) {
             for (; i >= end; i += step) {
-                processChildren(builder, i);
+                produceIteration(out, Integer.toString(i));
+            }
+        }
+    }
+
+    /**
+     * Renders the children once for each value of the variable, which is only
+     * visible inside of the loop, and writes their output to a sink.
+     *
+     * @param context The context of the rendering.
+     * @param out The sink of the output.
+     * @throws IOException if the sink cannot be written.
+     */
+    @Override
+    public void render(RenderContext context, Appendable out) throws IOException {
+        context.push();
+        try {
+            if (step > 0) {
+                for (int i = start; i <= end; i += step) {
+                    context.set(varName, Integer.toString(i));
+                    super.render(context, out);
+                }
+            } else if (step < 0) {
+                for (int i = start; i >= end; i += step) {
+                    context.set(varName, Integer.toString(i));
+                    super.render(context, out);
+                }
             }
+        } finally {
+            context.pop();
         }
-        return builder;
     }
 
-    private void processChildren(StringBuilder builder, int i) {
-        stream().forEach(child -> {
+    /**
+     * Writes the children to a sink for a single value of the variable.
+     *
+     * @param out The sink of the output.
+     * @param value The value of the variable.
+     * @throws IOException if the sink cannot be written.
+     */
+    public void produceIteration(Appendable out, String value) throws IOException {
+        for (SyntaxNode child : getChildren()) {
             if(child instanceof VarNode) {
                 VarNode node = (VarNode) child;
-                node.put(varName, Integer.toString(i));
+                node.put(varName, value);
             }
-            builder.append(child.produce());
-        });
+            child.produce(out);
+        }
     }
 
 }
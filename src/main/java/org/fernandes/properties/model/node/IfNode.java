@@ -4,10 +4,15 @@
 
 package org.fernandes.properties.model.node;
 
+import java.io.IOException;
+import java.util.function.Function;
+import org.fernandes.properties.model.Condition;
 import org.fernandes.properties.model.IfOperator;
 
 /**
- * Contains the parts of a conditional expression.
+ * Contains the parts of a conditional expression. The comparisons of the
+ * expression are compiled one by one into a {@link Condition}, in which
+ * {@code &&} binds stronger than {@code ||}.
  * @author onepoint
  */
 public class IfNode extends ContainerNode {
@@ -23,20 +28,44 @@ public class IfNode extends ContainerNode {
     private String value;
 
     /**
-     * The actual variable value.
+     * The compiled condition or {@code null}, if no comparison was added yet.
      */
-    private String variableValue;
+    private Condition condition;
+
+    /**
+     * The alternatives of the condition before the last {@code ||} or
+     * {@code null}.
+     */
+    private Condition alternatives;
+
+    /**
+     * The comparisons joined by {@code &&} after the last {@code ||} or
+     * {@code null}.
+     */
+    private Condition term;
 
     /**
      * If this expression is {@code true} or {@code false}.
      */
     private boolean match;
 
+    /**
+     * {@code true} if an earlier branch of this if, else if and else chain
+     * matched, so that no later branch matches anymore.
+     */
+    private boolean taken;
+
     /**
      * The operator being used here.
      */
     private IfOperator operator;
 
+    /**
+     * The node rendered if the condition does not match: the next else if or
+     * the else or {@code null}.
+     */
+    private ContainerNode elseBranch;
+
     /**
      * Associates the variable directly to this object.
      * @param variable The variable.
@@ -46,32 +75,86 @@ public class IfNode extends ContainerNode {
     }
 
     /**
-     * Sets the declared value.
+     * Sets the declared value and compiles the comparison of the variable
+     * with it into the condition.
      * @param value The declared value.
      */
     public void setValue(String value) {
         this.value = value;
+        Condition comparison = Condition.compare(variable, operator, value);
+        term = term == null ? comparison : term.and(comparison);
+        condition = alternatives == null ? term : alternatives.or(term);
     }
 
     /**
-     * Sets the variable value.
-     * @param variableValue The variable value to be set.
+     * Starts a comparison joined with {@code &&} to the previous one.
+     * @param variable The variable of the comparison.
      */
-    public void setVariableValue(String variableValue) {
-        this.variableValue = variableValue;
-        switch(operator) {
-            case EQUALS:
-                match = value.matches(variableValue);
-                break;
-            case NOT:
-                match = !value.matches(variableValue);
-                break;
-        }
+    public void and(String variable) {
+        this.variable = variable;
+    }
+
+    /**
+     * Starts a comparison joined with {@code ||} to the previous ones.
+     * @param variable The variable of the comparison.
+     */
+    public void or(String variable) {
+        alternatives = condition;
+        term = null;
+        this.variable = variable;
+    }
+
+    /**
+     * Evaluates the condition and sets the match of this branch.
+     * @param variables Returns the value of a variable or {@code null}.
+     * @throws IllegalArgumentException if a tested variable is not defined.
+     */
+    public void evaluate(Function<String, String> variables) {
+        match = !taken && test(variables);
+    }
+
+    /**
+     * Evaluates the condition for the values of the variables.
+     * @param variables Returns the value of a variable or {@code null}.
+     * @return {@code true} if the condition is met, else {@code false}.
+     * @throws IllegalArgumentException if a tested variable is not defined.
+     */
+    public boolean test(Function<String, String> variables) {
+        return condition != null && condition.test(variables);
+    }
+
+    /**
+     * Moves to the next else if branch. The branch can only match, if no
+     * earlier branch matched.
+     * @param variable The variable of the else if branch.
+     */
+    public void elseIf(String variable) {
+        taken |= match;
+        match = false;
+        this.variable = variable;
+        condition = alternatives = term = null;
     }
 
     /**
-     * Returns {@code true} if {@code value} and {@code variableValue} match, else {@code false}.
-     * @return {@code true} if {@code value} and {@code variableValue} match, else {@code false}.
+     * Moves to the else branch, which matches, if no earlier branch matched.
+     */
+    public void orElse() {
+        taken |= match;
+        match = !taken;
+    }
+
+    /**
+     * Sets the node rendered if the condition does not match.
+     * @param elseBranch The next else if or the else.
+     */
+    public void setElse(ContainerNode elseBranch) {
+        this.elseBranch = elseBranch;
+        elseBranch.setParent(this);
+    }
+
+    /**
+     * Returns {@code true} if the condition of this branch is met, else {@code false}.
+     * @return {@code true} if the condition of this branch is met, else {@code false}.
      */
     public boolean isMatch() {
         return match;
@@ -112,35 +195,43 @@ public class IfNode extends ContainerNode {
         return this.operator.getReverse();
     }
 
-    /**
-     * Returns the value of a variable.
-     * @return the value of a variable.
-     */
-    public String getVariableValue() {
-        return variableValue;
-    }
-
     /**
      * Returns the string representation of this object.
      * @return the string representation of this object.
      */
     @Override
     public String toString() {
-        return "IfContainer{" + "variable=" + variable + ", value=" + value + ", variableValue=" + variableValue +
+        return "IfContainer{" + "variable=" + variable + ", value=" + value +
                 ", match=" + match + ", operator=" + operator + '}';
     }
 
     /**
-     * Returns the content of this node.
-     * @return the content of this node.
+     * Writes the content of this node to a sink, if the condition matched.
+     * @param out The sink of the output.
+     * @throws IOException if the sink cannot be written.
      */
     @Override
-    public CharSequence produce() {
-        StringBuilder builder = new StringBuilder();
+    public void produce(Appendable out) throws IOException {
         if(isMatch()) {
-            stream().forEach(node -> builder.append(node.produce()));
+            super.produce(out);
+        }
+    }
+
+    /**
+     * Writes the children to a sink, if the condition is met in the context,
+     * else the else branch.
+     * @param context The context of the rendering.
+     * @param out The sink of the output.
+     * @throws IOException if the sink cannot be written.
+     * @throws IllegalArgumentException if a tested variable is not defined.
+     */
+    @Override
+    public void render(RenderContext context, Appendable out) throws IOException {
+        if(test(context.getVariables())) {
+            super.render(context, out);
+        } else if(elseBranch != null) {
+            elseBranch.render(context, out);
         }
-        return builder;
     }
 
 
@@ -4,6 +4,9 @@
 
 package org.fernandes.properties.model.node;
 
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import org.fernandes.properties.model.IncludeType;
 
 /**
@@ -22,14 +25,36 @@ public class IncludeNode extends AbstractSyntaxNode {
      */
     private final String target;
 
+    /**
+     * The content fetched in advance or {@code null}.
+     */
+    private final CompletableFuture<CharSequence> prefetched;
+
+    /**
+     * The content, once it was produced, so that the iterations of a loop
+     * share it.
+     */
+    private CharSequence content;
+
     /**
      * Associates a target with this container.
      * @param target The target to be associated with this container.
      * @param curIncludeType The current type of include.
      */
     public IncludeNode(String target, IncludeType curIncludeType) {
+        this(target, curIncludeType, null);
+    }
+
+    /**
+     * Associates a target and its content fetched in advance with this container.
+     * @param target The target to be associated with this container.
+     * @param curIncludeType The current type of include.
+     * @param prefetched The content fetched in advance or {@code null}.
+     */
+    public IncludeNode(String target, IncludeType curIncludeType, CompletableFuture<CharSequence> prefetched) {
         this.target = target;
         this.curIncludeType = curIncludeType;
+        this.prefetched = prefetched;
     }
 
     /**
@@ -41,14 +66,69 @@ public class IncludeNode extends AbstractSyntaxNode {
     }
 
     /**
-     * Returns an empty string.
-     * @return an empty string.
+     * Returns the content of the include, which is loaded only once.
+     * @return the content of the include or an empty string.
      */
     @Override
     public CharSequence produce() {
         if(curIncludeType == null || target == null) {
             return "";
         }
-        return curIncludeType.process(target);
+        if(content == null) {
+            content = prefetched != null ? await(prefetched) : curIncludeType.process(target);
+        }
+        return content;
+    }
+
+    /**
+     * Returns the content of the include, which is fetched through the include
+     * cache once for each rendering context.
+     * @param context The context of the rendering.
+     * @return the content of the include or an empty string.
+     */
+    @Override
+    public CharSequence render(RenderContext context) {
+        if(curIncludeType == null || target == null) {
+            return "";
+        }
+        return context.include(curIncludeType, target);
+    }
+
+    /**
+     * Writes the content of this node to a sink.
+     * @param out The sink of the output.
+     * @throws IOException if the sink cannot be written.
+     */
+    @Override
+    public void produce(Appendable out) throws IOException {
+        out.append(produce());
+    }
+
+    /**
+     * Writes the content of this node in the context of a rendering to a sink.
+     * @param context The context of the rendering.
+     * @param out The sink of the output.
+     * @throws IOException if the sink cannot be written.
+     */
+    @Override
+    public void render(RenderContext context, Appendable out) throws IOException {
+        out.append(render(context));
+    }
+
+    /**
+     * Waits for the content of an include fetched in advance.
+     * @param prefetched The content fetched in advance.
+     * @return the content of the include.
+     * @throws RuntimeException the failure of the fetch.
+     */
+    public static CharSequence await(CompletableFuture<CharSequence> prefetched) {
+        try {
+            return prefetched.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
     }
 }
@@ -0,0 +1,211 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.model.node;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import org.fernandes.properties.model.ExternalEnvironment;
+import org.fernandes.properties.model.IncludeType;
+
+/**
+ * The state of a single rendering of a compiled template: the defines passed
+ * to the rendering, the constants defined by the template and the variables
+ * of the loops, together with the environment and the system properties used
+ * to resolve the {@code ENV.} and {@code SYS.} variables.
+ * <p>
+ * The defines passed to the rendering override the definitions of the
+ * template with the same name, so that a template can define defaults. A
+ * context is only used by one thread.
+ *
+ * @author onepoint
+ */
+public final class RenderContext {
+
+    /**
+     * The prefix of the variables of the environment.
+     */
+    private static final String ENV_PREFIX = ExternalEnvironment.ENV + ".";
+
+    /**
+     * The prefix of the variables of the system properties.
+     */
+    private static final String SYS_PREFIX = ExternalEnvironment.SYS + ".";
+
+    /**
+     * The defines passed to the rendering.
+     */
+    private final Map<String, String> defines;
+
+    /**
+     * The environment variables.
+     */
+    private final Map<String, String> environment;
+
+    /**
+     * The system properties.
+     */
+    private final Properties system;
+
+    /**
+     * The contents of the includes by type and target, which are fetched once
+     * per rendering or once for a batch of renderings sharing the map.
+     */
+    private final Map<String, CompletableFuture<CharSequence>> includes;
+
+    /**
+     * The constants of the template and the variables of the loops, the
+     * innermost loop first.
+     */
+    private final Deque<Map<String, String>> scopes = new ArrayDeque<>();
+
+    /**
+     * The lookup of the variables passed to the conditions, created once.
+     */
+    private final Function<String, String> variables = this::get;
+
+    /**
+     * Creates the context of a rendering.
+     *
+     * @param defines The defines, which override the definitions of the
+     * template.
+     * @param environment The environment variables.
+     * @param system The system properties.
+     */
+    public RenderContext(Map<String, String> defines, Map<String, String> environment, Properties system) {
+        this(defines, environment, system, new HashMap<>());
+    }
+
+    /**
+     * Creates the context of a rendering, which shares the contents of the
+     * includes with other renderings.
+     *
+     * @param defines The defines, which override the definitions of the
+     * template.
+     * @param environment The environment variables.
+     * @param system The system properties.
+     * @param includes The contents of the includes, which has to be a
+     * concurrent map, if it is shared by renderings in several threads.
+     */
+    public RenderContext(Map<String, String> defines, Map<String, String> environment, Properties system,
+            Map<String, CompletableFuture<CharSequence>> includes) {
+        this.defines = defines;
+        this.environment = environment;
+        this.system = system;
+        this.includes = includes;
+        scopes.push(new HashMap<>());
+    }
+
+    /**
+     * Returns the value of a variable.
+     *
+     * @param key The name of the variable, which starts with {@code ENV.}
+     * for an environment variable and with {@code SYS.} for a system property.
+     * @return the value of the variable or {@code null}, if it is not defined.
+     */
+    public String get(String key) {
+        if (key.startsWith(ENV_PREFIX)) {
+            return environment.get(key.substring(ENV_PREFIX.length()));
+        }
+        if (key.startsWith(SYS_PREFIX)) {
+            return system.getProperty(key.substring(SYS_PREFIX.length()));
+        }
+        for (Map<String, String> scope : scopes) {
+            String value = scope.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return defines.get(key);
+    }
+
+    /**
+     * Returns the lookup of the variables, which resolves them like
+     * {@link #get(String)}.
+     *
+     * @return the lookup of the variables.
+     */
+    public Function<String, String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Returns the content of an include, which is fetched only once for all
+     * renderings sharing the contents of the includes. The include is fetched
+     * outside of the map, so that renderings fetching other includes are not
+     * blocked, while the renderings needing the same include wait for it.
+     *
+     * @param type The type of the include.
+     * @param target The URL of the include without prefix.
+     * @return the content of the include.
+     * @throws RuntimeException if the include cannot be fetched.
+     */
+    public CharSequence include(IncludeType type, String target) {
+        String key = type.getPrefix() + ":" + target;
+        CompletableFuture<CharSequence> content = includes.get(key);
+        if (content == null) {
+            CompletableFuture<CharSequence> created = new CompletableFuture<>();
+            content = includes.putIfAbsent(key, created);
+            if (content == null) {
+                content = created;
+                try {
+                    created.complete(type.process(target));
+                } catch (RuntimeException e) {
+                    created.completeExceptionally(e);
+                }
+            }
+        }
+        try {
+            return content.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Defines a constant of the template in the current scope, unless it is
+     * overridden by the defines of the rendering.
+     *
+     * @param key The name of the constant.
+     * @param value The value of the constant.
+     */
+    public void define(String key, String value) {
+        if (!defines.containsKey(key)) {
+            scopes.peek().put(key, value);
+        }
+    }
+
+    /**
+     * Sets a loop variable in the current scope.
+     *
+     * @param key The name of the variable.
+     * @param value The value of the variable.
+     */
+    public void set(String key, String value) {
+        scopes.peek().put(key, value);
+    }
+
+    /**
+     * Opens the scope of a loop.
+     */
+    public void push() {
+        scopes.push(new HashMap<>());
+    }
+
+    /**
+     * Closes the scope of a loop, discarding its variables.
+     */
+    public void pop() {
+        scopes.pop();
+    }
+}
@@ -4,6 +4,10 @@
 
 package org.fernandes.properties.model.node;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import org.fernandes.properties.util.Rope;
+
 /**
  * Just a marker interface.
  * @author onepoint
@@ -26,6 +30,47 @@ public interface SyntaxNode {
      * Produces the output.
      * @return the string with the output of the component.
      */
-    public CharSequence produce();
+    public default CharSequence produce() {
+        Rope rope = new Rope();
+        try {
+            produce(rope);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return rope;
+    }
+
+    /**
+     * Writes the output to a sink as it is produced, so that e.g. the
+     * iterations of a loop are not held in memory.
+     * @param out The sink of the output.
+     * @throws IOException if the sink cannot be written.
+     */
+    public void produce(Appendable out) throws IOException;
+
+    /**
+     * Produces the output of a compiled template, without changing this node,
+     * so that a template can be rendered many times and by several threads.
+     * @param context The context of the rendering.
+     * @return the output of the component.
+     */
+    public default CharSequence render(RenderContext context) {
+        Rope rope = new Rope();
+        try {
+            render(context, rope);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return rope;
+    }
+
+    /**
+     * Writes the output of a compiled template to a sink as it is produced,
+     * without changing this node.
+     * @param context The context of the rendering.
+     * @param out The sink of the output.
+     * @throws IOException if the sink cannot be written.
+     */
+    public void render(RenderContext context, Appendable out) throws IOException;
 
 }
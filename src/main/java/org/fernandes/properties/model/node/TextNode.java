@@ -4,6 +4,9 @@
 
 package org.fernandes.properties.model.node;
 
+import java.io.IOException;
+import org.fernandes.properties.util.Rope;
+
 /**
  * A preprocessor node that allows to store text.
  * @author onepoint
@@ -40,5 +43,42 @@ public class TextNode extends AbstractSyntaxNode {
         return cs;
     }
 
+    /**
+     * Returns the content of this node.
+     * @param context The context of the rendering.
+     * @return the content of this node.
+     */
+    @Override
+    public CharSequence render(RenderContext context) {
+        return cs;
+    }
+
+    /**
+     * Writes the content of this node to a sink.
+     * @param out The sink of the output.
+     * @throws IOException if the sink cannot be written.
+     */
+    @Override
+    public void produce(Appendable out) throws IOException {
+        out.append(produce());
+    }
+
+    /**
+     * Writes the content of this node in the context of a rendering to a sink.
+     * A rope references the content, so that the renderings of a template 
+     * share it even if it is short.
+     * @param context The context of the rendering.
+     * @param out The sink of the output.
+     * @throws IOException if the sink cannot be written.
+     */
+    @Override
+    public void render(RenderContext context, Appendable out) throws IOException {
+        if (out instanceof Rope) {
+            ((Rope) out).appendShared(cs);
+        } else {
+            out.append(cs);
+        }
+    }
+
 
 }
@@ -4,6 +4,8 @@
 
 package org.fernandes.properties.model.node;
 
+import java.io.IOException;
+
 /**
  * Node containing a variable.
  * @author onepoint
@@ -69,4 +71,36 @@ public class VarNode extends AbstractSyntaxNode {
         }
         return "";
     }
+
+    /**
+     * Returns the value of the variable in the context of a rendering.
+     * @param context The context of the rendering.
+     * @return the value of the variable or an empty string, if it is not defined.
+     */
+    @Override
+    public CharSequence render(RenderContext context) {
+        String value = context.get(var);
+        return value == null ? "" : value.trim();
+    }
+
+    /**
+     * Writes the content of this node to a sink.
+     * @param out The sink of the output.
+     * @throws IOException if the sink cannot be written.
+     */
+    @Override
+    public void produce(Appendable out) throws IOException {
+        out.append(produce());
+    }
+
+    /**
+     * Writes the content of this node in the context of a rendering to a sink.
+     * @param context The context of the rendering.
+     * @param out The sink of the output.
+     * @throws IOException if the sink cannot be written.
+     */
+    @Override
+    public void render(RenderContext context, Appendable out) throws IOException {
+        out.append(render(context));
+    }
 }
@@ -7,7 +7,6 @@ import org.fernandes.properties.model.DefaultHierarchicalProperties;
 import org.fernandes.properties.model.ExternalEnvironment;
 import static org.parboiled.BaseParser.EOI;
 import org.parboiled.Rule;
-import org.parboiled.annotations.BuildParseTree;
 import org.parboiled.annotations.SuppressSubnodes;
 
 /**
@@ -15,7 +14,6 @@ import org.parboiled.annotations.SuppressSubnodes;
  *
  * @author onepoint
  */
-@BuildParseTree
 public class HierarchicalPropertiesParser extends AbstractParser<DefaultHierarchicalProperties> {
 
     /**
@@ -37,7 +35,8 @@ public class HierarchicalPropertiesParser extends AbstractParser<DefaultHierarch
                 sequence(comment(), multipleNewLines()),
                 sequence(multilineComment(), multipleNewLines()),
                 sequence(expression(), multipleNewLines()),
-                sequence(categoryNode(), multipleNewLines())
+                sequence(categoryNode(), multipleNewLines()),
+                blankLine()
         );
     }
 
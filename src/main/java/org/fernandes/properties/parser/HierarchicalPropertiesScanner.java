@@ -0,0 +1,639 @@
+/*
+ OSSCUBE 2014
+ */
+package org.fernandes.properties.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.fernandes.properties.model.DefaultHierarchicalProperties;
+import org.fernandes.properties.model.ExternalEnvironment;
+
+/**
+ * Hand written, single pass scanner for the hierarchical properties. It
+ * accepts the same grammar as {@link HierarchicalPropertiesParser} and injects
+ * the data into {@link DefaultHierarchicalProperties} using the same callbacks,
+ * but it never backtracks over more than a few characters of look-ahead.
+ * <p>
+ * Input which does not match the grammar is skipped character by character,
+ * which is what the recovering parse runner ends up doing for the typical
+ * errors, like blank lines or indented lines left over by the pre-processor.
+ * In fail fast mode the scanner stops with a {@link ParseException} on the
+ * first error instead.
+ *
+ * @author onepoint
+ */
+public class HierarchicalPropertiesScanner {
+
+    /**
+     * The prefix of the environment variables.
+     */
+    private static final String ENV_PREFIX = "${" + ExternalEnvironment.ENV + ".";
+
+    /**
+     * The prefix of the Java system properties.
+     */
+    private static final String SYS_PREFIX = "${" + ExternalEnvironment.SYS + ".";
+
+    /**
+     * The domain object to be filled with data.
+     */
+    private final DefaultHierarchicalProperties props;
+
+    /**
+     * The parse options.
+     */
+    private final ParseOptions options;
+
+    /**
+     * The messages of the errors, only filled in diagnostics mode.
+     */
+    private final List<String> errors = new ArrayList<>();
+
+    /**
+     * The input being scanned.
+     */
+    private ScannerInput in;
+
+    /**
+     * The current position in the input.
+     */
+    private int pos;
+
+    /**
+     * The number of regions in the input that could not be matched.
+     */
+    private int errorCount;
+
+    /**
+     * The index of the first character that could not be matched or
+     * {@code -1}.
+     */
+    private int firstErrorIndex = -1;
+
+    /**
+     * The line of the first character that could not be matched.
+     */
+    private int firstErrorLine;
+
+    /**
+     * The column of the first character that could not be matched.
+     */
+    private int firstErrorColumn;
+
+    /**
+     * Creates a scanner which fills new hierarchical properties.
+     */
+    public HierarchicalPropertiesScanner() {
+        this(new DefaultHierarchicalProperties());
+    }
+
+    /**
+     * Creates a scanner which fills the given hierarchical properties.
+     *
+     * @param props The domain object to be filled with data.
+     */
+    public HierarchicalPropertiesScanner(DefaultHierarchicalProperties props) {
+        this(props, new ParseOptions());
+    }
+
+    /**
+     * Creates a scanner which fills the given hierarchical properties.
+     *
+     * @param props The domain object to be filled with data.
+     * @param options The parse options.
+     */
+    public HierarchicalPropertiesScanner(DefaultHierarchicalProperties props, ParseOptions options) {
+        this.props = props;
+        this.options = options;
+    }
+
+    /**
+     * Scans the whole input and injects its content into the hierarchical
+     * properties.
+     *
+     * @param input The text to scan.
+     * @return the filled hierarchical properties.
+     * @throws ParseException if the input cannot be parsed in fail fast mode.
+     */
+    public DefaultHierarchicalProperties parse(CharSequence input) {
+        return parse(ScannerInput.of(input));
+    }
+
+    /**
+     * Scans the whole input read from a reader and injects its content into
+     * the hierarchical properties. Only a bounded window of the input is kept
+     * in memory, which only grows for elements larger than the window.
+     *
+     * @param reader The reader from which the text is read.
+     * @return the filled hierarchical properties.
+     * @throws IOException if the reader cannot be read.
+     * @throws ParseException if the input cannot be parsed in fail fast mode.
+     */
+    public DefaultHierarchicalProperties parse(Reader reader) throws IOException {
+        try {
+            return parse(ScannerInput.of(reader));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Scans the whole input and injects its content into the hierarchical
+     * properties.
+     *
+     * @param in The input to scan.
+     * @return the filled hierarchical properties.
+     * @throws ParseException if the input cannot be parsed in fail fast mode.
+     */
+    private DefaultHierarchicalProperties parse(ScannerInput in) {
+        this.in = in;
+        this.pos = 0;
+        boolean inError = false;
+        while (in.has(pos)) {
+            if (mainElement()) {
+                inError = false;
+            } else if (!blankLine()) {
+                if (!inError) {
+                    error();
+                    inError = true;
+                }
+                pos++;
+            }
+            in.release(pos);
+        }
+        if (errorCount > 0 && options.isFailFast()) {
+            throw new ParseException(firstErrorIndex, firstErrorLine, firstErrorColumn, errors);
+        }
+        return props.reindex();
+    }
+
+    /**
+     * Records an error at the current position. In fail fast mode without
+     * diagnostics the scanner stops on the first error.
+     *
+     * @throws ParseException if the input cannot be parsed in fail fast mode.
+     */
+    private void error() {
+        errorCount++;
+        if (firstErrorIndex < 0) {
+            firstErrorIndex = pos;
+            firstErrorLine = in.line(pos);
+            firstErrorColumn = in.column(pos);
+        }
+        if (options.isFailFast()) {
+            if (!options.isDiagnostics()) {
+                throw in.error(pos, errors);
+            }
+            errors.add(String.format("Invalid input '%s' (%s)", in.charAt(pos), in.position(pos)));
+        }
+    }
+
+    /**
+     * Returns the number of regions in the input that could not be matched.
+     *
+     * @return the number of regions in the input that could not be matched.
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Returns the index of the first character that could not be matched.
+     *
+     * @return the index of the first character that could not be matched or
+     * {@code -1}, if there were no errors.
+     */
+    public int getFirstErrorIndex() {
+        return firstErrorIndex;
+    }
+
+    /**
+     * Matches a comment, a multi-line comment, an expression or a category
+     * node, followed by optional new lines.
+     *
+     * @return {@code true} if one of the elements was matched, else
+     * {@code false}.
+     */
+    private boolean mainElement() {
+        if (comment() || multilineComment() || expression() || categoryNode()) {
+            multipleNewLines();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skips a line only containing spaces or tabs, like the blank line of the
+     * grammar.
+     *
+     * @return {@code true} if a blank line was skipped, else {@code false}.
+     */
+    private boolean blankLine() {
+        int cur = pos;
+        while (in.has(cur) && isSpaceChar(in.charAt(cur))) {
+            cur++;
+        }
+        int newLine = newlineLength(cur);
+        if (newLine == 0) {
+            return false;
+        }
+        pos = cur + newLine;
+        return true;
+    }
+
+    /**
+     * Matches a line comment, like e.g. "# comment" or "// comment".
+     *
+     * @return {@code true} if a comment was matched, else {@code false}.
+     */
+    private boolean comment() {
+        int start = commentStart(pos);
+        if (start < 0) {
+            return false;
+        }
+        int end = generalTextEnd(start);
+        props.addLineComment(in.text(start, end));
+        pos = end;
+        return true;
+    }
+
+    /**
+     * Checks the start of a line comment.
+     *
+     * @param from The position from which to check.
+     * @return the position after the comment marker or {@code -1}, if there is
+     * no comment at {@code from}.
+     */
+    private int commentStart(int from) {
+        int cur = skipSpaces(from);
+        if (in.has(cur) && in.charAt(cur) == '#') {
+            return cur + 1;
+        }
+        if (in.has(cur + 1) && in.charAt(cur) == '/' && in.charAt(cur + 1) == '/') {
+            return cur + 2;
+        }
+        return -1;
+    }
+
+    /**
+     * Matches a multi-line comment.
+     *
+     * @return {@code true} if a multi-line comment was matched, else
+     * {@code false}.
+     */
+    private boolean multilineComment() {
+        if (!startsWith(pos, "/*")) {
+            return false;
+        }
+        int start = pos + 2;
+        for (int cur = start; in.has(cur + 1); cur++) {
+            if (in.charAt(cur) == '*' && in.charAt(cur + 1) == '/') {
+                props.addMultilineComment(in.text(start, cur));
+                pos = cur + 2;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Matches a key value pair, like e.g. "key = value".
+     *
+     * @return {@code true} if an expression was matched, else {@code false}.
+     */
+    private boolean expression() {
+        int keyEnd = alphaNumericsEnd(pos);
+        if (keyEnd == pos) {
+            return false;
+        }
+        int valueStart = separatorEnd(keyEnd);
+        if (valueStart < 0 || !in.has(valueStart)) {
+            return false;
+        }
+        char c = in.charAt(valueStart);
+        if (isValueChar(c)) {
+            props.putKey(in.text(pos, keyEnd));
+            int valueEnd = value(valueStart);
+            props.putValue(in.text(valueStart, valueEnd));
+            pos = valueEnd;
+            return true;
+        }
+        // A value may also just be a line comment.
+        int commentStart = commentStart(valueStart);
+        if (commentStart < 0) {
+            return false;
+        }
+        int commentEnd = generalTextEnd(commentStart);
+        int newLine = newlineLength(commentEnd);
+        if (newLine == 0) {
+            return false;
+        }
+        props.putKey(in.text(pos, keyEnd));
+        props.addLineComment(in.text(commentStart, commentEnd));
+        props.putValue(in.text(valueStart, commentEnd + newLine));
+        pos = commentEnd + newLine;
+        return true;
+    }
+
+    /**
+     * Scans a value, processing the environment variables and the references
+     * found in it.
+     *
+     * @param from The start of the value.
+     * @return the end of the value.
+     */
+    private int value(int from) {
+        int cur = from;
+        while (in.has(cur)) {
+            char c = in.charAt(cur);
+            if (c == '\\') {
+                int newLine = newlineLength(cur + 1);
+                if (newLine > 0) {
+                    cur += 1 + newLine;
+                } else if (in.has(cur + 1) && in.charAt(cur + 1) == '#') {
+                    cur += 2;
+                } else {
+                    cur++;
+                }
+            } else if (c == '$' && in.has(cur + 1) && in.charAt(cur + 1) == '{') {
+                int end = elVariable(cur, ENV_PREFIX, ExternalEnvironment.ENV);
+                if (end < 0) {
+                    end = elVariable(cur, SYS_PREFIX, ExternalEnvironment.SYS);
+                }
+                if (end < 0) {
+                    end = reference(cur);
+                }
+                cur = end < 0 ? cur + 1 : end;
+            } else if (isValueChar(c)) {
+                cur++;
+            } else {
+                break;
+            }
+        }
+        return cur;
+    }
+
+    /**
+     * Matches an expression language variable, like e.g. "${ENV.PATH}".
+     *
+     * @param from The position of the dollar sign.
+     * @param prefix The prefix of the variable including the dot.
+     * @param environment The environment from which the variable is read.
+     * @return the position after the variable or {@code -1}, if there is no
+     * such variable at {@code from}.
+     */
+    private int elVariable(int from, String prefix, ExternalEnvironment environment) {
+        if (!startsWith(from, prefix)) {
+            return -1;
+        }
+        int nameStart = from + prefix.length();
+        int nameEnd = alphaNumericsWithDotEnd(nameStart);
+        if (nameEnd == nameStart || !in.has(nameEnd) || in.charAt(nameEnd) != '}') {
+            return -1;
+        }
+        props.putCurEnvVarMap(environment.toString(), in.text(nameStart, nameEnd));
+        return nameEnd + 1;
+    }
+
+    /**
+     * Matches a reference, like e.g. "${/Test/hello:key4}".
+     *
+     * @param from The position of the dollar sign.
+     * @return the position after the reference or {@code -1}, if there is no
+     * reference at {@code from}.
+     */
+    private int reference(int from) {
+        int hierarchyStart = from + 2;
+        int hierarchyEnd = hierarchyStart;
+        while (in.has(hierarchyEnd) && isHierarchyChar(in.charAt(hierarchyEnd))) {
+            hierarchyEnd++;
+        }
+        if (hierarchyEnd == hierarchyStart) {
+            return -1;
+        }
+        int keyStart = separatorEnd(hierarchyEnd);
+        if (keyStart < 0) {
+            return -1;
+        }
+        int keyEnd = alphaNumericsWithDotEnd(keyStart);
+        if (keyEnd == keyStart || !in.has(keyEnd) || in.charAt(keyEnd) != '}') {
+            return -1;
+        }
+        props.putReferenceNode(in.text(hierarchyStart, hierarchyEnd));
+        props.putReferenceValue(in.text(keyStart, keyEnd));
+        return keyEnd + 1;
+    }
+
+    /**
+     * Matches a category node, like e.g. "[/Test/hello]".
+     *
+     * @return {@code true} if a category node was matched, else
+     * {@code false}.
+     */
+    private boolean categoryNode() {
+        int cur = skipSpaces(pos);
+        if (!in.has(cur) || in.charAt(cur) != '[') {
+            return false;
+        }
+        cur = skipSpaces(cur + 1);
+        if (in.has(cur) && in.charAt(cur) == '/') {
+            cur++;
+        }
+        int nodesStart = cur;
+        int nameEnd;
+        while ((nameEnd = alphaNumericsEnd(cur)) > cur) {
+            cur = nameEnd;
+            if (in.has(cur) && in.charAt(cur) == '/') {
+                cur++;
+            }
+        }
+        if (!in.has(cur) || in.charAt(cur) != ']') {
+            return false;
+        }
+        props.createNodes(in.text(nodesStart, cur));
+        pos = skipSpaces(cur + 1);
+        multipleNewLines();
+        return true;
+    }
+
+    /**
+     * Matches the separator between keys and values with optional spaces
+     * around it.
+     *
+     * @param from The position from which to match.
+     * @return the position after the separator or {@code -1}, if there is no
+     * separator at {@code from}.
+     */
+    private int separatorEnd(int from) {
+        int cur = skipSpaces(from);
+        if (!in.has(cur)) {
+            return -1;
+        }
+        char c = in.charAt(cur);
+        if (c != ':' && c != '=') {
+            return -1;
+        }
+        return skipSpaces(cur + 1);
+    }
+
+    /**
+     * Skips optional new lines.
+     */
+    private void multipleNewLines() {
+        int newLine;
+        while ((newLine = newlineLength(pos)) > 0) {
+            pos += newLine;
+        }
+    }
+
+    /**
+     * Returns the length of the new line at a specific position.
+     *
+     * @param from The position to check.
+     * @return the length of the new line at {@code from} or {@code 0}, if
+     * there is no new line.
+     */
+    private int newlineLength(int from) {
+        if (!in.has(from)) {
+            return 0;
+        }
+        char c = in.charAt(from);
+        if (c == '\n') {
+            return 1;
+        }
+        if (c == '\r') {
+            return in.has(from + 1) && in.charAt(from + 1) == '\n' ? 2 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Skips the blank characters (not tabs).
+     *
+     * @param from The position from which to skip.
+     * @return the position of the first non blank character.
+     */
+    private int skipSpaces(int from) {
+        int cur = from;
+        while (in.has(cur) && in.charAt(cur) == ' ') {
+            cur++;
+        }
+        return cur;
+    }
+
+    /**
+     * Returns the end of a sequence of alphanumeric characters.
+     *
+     * @param from The position from which to match.
+     * @return the end of a sequence of alphanumeric characters.
+     */
+    private int alphaNumericsEnd(int from) {
+        int cur = from;
+        while (in.has(cur) && isAlphaNumeric(in.charAt(cur))) {
+            cur++;
+        }
+        return cur;
+    }
+
+    /**
+     * Returns the end of a sequence of alphanumeric characters or dots.
+     *
+     * @param from The position from which to match.
+     * @return the end of a sequence of alphanumeric characters or dots.
+     */
+    private int alphaNumericsWithDotEnd(int from) {
+        int cur = from;
+        while (in.has(cur) && (isAlphaNumeric(in.charAt(cur)) || in.charAt(cur) == '.')) {
+            cur++;
+        }
+        return cur;
+    }
+
+    /**
+     * Returns the end of a sequence of characters in the extended ascii range.
+     *
+     * @param from The position from which to match.
+     * @return the end of a sequence of characters in the extended ascii range.
+     */
+    private int generalTextEnd(int from) {
+        int cur = from;
+        while (in.has(cur) && isGeneralText(in.charAt(cur))) {
+            cur++;
+        }
+        return cur;
+    }
+
+    /**
+     * Checks, if the input contains a string at a specific position.
+     *
+     * @param from The position to check.
+     * @param expected The expected string.
+     * @return {@code true} if {@code expected} is found at {@code from}.
+     */
+    private boolean startsWith(int from, String expected) {
+        int expectedLength = expected.length();
+        if (!in.has(from + expectedLength - 1)) {
+            return false;
+        }
+        for (int i = 0; i < expectedLength; i++) {
+            if (in.charAt(from + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks for numbers and ASCII characters.
+     *
+     * @param c The character to check.
+     * @return {@code true} for numbers and ASCII characters.
+     */
+    static boolean isAlphaNumeric(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    /**
+     * Checks for the characters allowed in the hierarchy of a reference.
+     *
+     * @param c The character to check.
+     * @return {@code true} for alphanumeric characters, dots and slashes.
+     */
+    private static boolean isHierarchyChar(char c) {
+        return isAlphaNumeric(c) || c == '.' || c == '/';
+    }
+
+    /**
+     * Checks for space characters including the tab.
+     *
+     * @param c The character to check.
+     * @return {@code true} for space characters including the tab.
+     */
+    private static boolean isSpaceChar(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    /**
+     * Checks for most characters in the extended ascii range.
+     *
+     * @param c The character to check.
+     * @return {@code true} for most characters in the extended ascii range.
+     */
+    private static boolean isGeneralText(char c) {
+        return (c >= ' ' && c <= '~') || (c >= '\u0080' && c <= '\u00ff');
+    }
+
+    /**
+     * Checks for the characters allowed in a value, which are the characters
+     * in the extended ascii range except the "#".
+     *
+     * @param c The character to check.
+     * @return {@code true} for characters allowed in a value.
+     */
+    private static boolean isValueChar(char c) {
+        return c != '#' && isGeneralText(c);
+    }
+}
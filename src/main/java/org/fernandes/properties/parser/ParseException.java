@@ -0,0 +1,155 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.parser;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when the input cannot be parsed in fail fast mode.
+ *
+ * @author onepoint
+ */
+public class ParseException extends RuntimeException {
+
+    /**
+     * The serial version UID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The index of the first character which could not be parsed.
+     */
+    private final int errorIndex;
+
+    /**
+     * The line of the first error, starting with 1.
+     */
+    private final int line;
+
+    /**
+     * The column of the first error, starting with 1.
+     */
+    private final int column;
+
+    /**
+     * The messages of all errors, only filled in diagnostics mode.
+     */
+    private final List<String> errors;
+
+    /**
+     * Creates the exception for the first error in the input.
+     *
+     * @param input The input which could not be parsed.
+     * @param errorIndex The index of the first character which could not be
+     * parsed.
+     * @param errors The messages of all errors, which can be empty.
+     */
+    public ParseException(CharSequence input, int errorIndex, List<String> errors) {
+        this(errorIndex, lineOf(input, errorIndex), columnOf(input, errorIndex), errors);
+    }
+
+    /**
+     * Creates the exception for the first error in the input.
+     *
+     * @param errorIndex The index of the first character which could not be
+     * parsed.
+     * @param line The line of the first error, starting with 1.
+     * @param column The column of the first error, starting with 1.
+     * @param errors The messages of all errors, which can be empty.
+     */
+    public ParseException(int errorIndex, int line, int column, List<String> errors) {
+        super(message(line, column, errors));
+        this.errorIndex = errorIndex;
+        this.line = line;
+        this.column = column;
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * Returns the index of the first character which could not be parsed.
+     *
+     * @return the index of the first character which could not be parsed.
+     */
+    public int getErrorIndex() {
+        return errorIndex;
+    }
+
+    /**
+     * Returns the line of the first error.
+     *
+     * @return the line of the first error, starting with 1.
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Returns the column of the first error.
+     *
+     * @return the column of the first error, starting with 1.
+     */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * Returns the messages of all errors.
+     *
+     * @return the messages of all errors, which is empty if the diagnostics
+     * were not requested.
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Returns the line of a character in the input.
+     *
+     * @param input The input.
+     * @param index The index of the character.
+     * @return the line of a character in the input, starting with 1.
+     */
+    static int lineOf(CharSequence input, int index) {
+        int line = 1;
+        for (int i = 0, end = Math.min(index, input.length()); i < end; i++) {
+            if (input.charAt(i) == '\n') {
+                line++;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Returns the column of a character in the input.
+     *
+     * @param input The input.
+     * @param index The index of the character.
+     * @return the column of a character in the input, starting with 1.
+     */
+    static int columnOf(CharSequence input, int index) {
+        int start = Math.min(index, input.length());
+        while (start > 0 && input.charAt(start - 1) != '\n') {
+            start--;
+        }
+        return index - start + 1;
+    }
+
+    /**
+     * Creates the message of the exception.
+     *
+     * @param line The line of the first error.
+     * @param column The column of the first error.
+     * @param errors The messages of all errors.
+     * @return the message of the exception.
+     */
+    private static String message(int line, int column, List<String> errors) {
+        StringBuilder message = new StringBuilder(String.format("Invalid input at line %d, column %d.", line, column));
+        for (String error : errors) {
+            message.append(System.lineSeparator()).append(error);
+        }
+        return message.toString();
+    }
+}
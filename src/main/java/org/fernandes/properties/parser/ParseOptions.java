@@ -0,0 +1,273 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.parser;
+
+import java.util.concurrent.Executor;
+import org.fernandes.properties.util.PrefetchExecutor;
+
+/**
+ * Options used to parse the hierarchical properties and the pre-processor
+ * input.
+ * <p>
+ * Per default the input is parsed with the {@link ParserEngine#SCANNER} and
+ * the parts of the input which cannot be parsed are skipped. In fail fast mode
+ * the input is parsed without error recovery and the first error is reported
+ * with a {@link ParseException}. Only if the diagnostics are requested the
+ * input is parsed again with error recovery, to report all errors.
+ *
+ * @author onepoint
+ */
+public class ParseOptions {
+
+    /**
+     * The engine used to parse the hierarchical properties.
+     */
+    private ParserEngine engine = ParserEngine.SCANNER;
+
+    /**
+     * If {@code true} parsing stops with an exception on the first error.
+     */
+    private boolean failFast;
+
+    /**
+     * If {@code true} all errors are collected, when the input cannot be
+     * parsed in fail fast mode.
+     */
+    private boolean diagnostics;
+
+    /**
+     * If {@code true} the pre-processor and the properties parser run
+     * concurrently.
+     */
+    private boolean pipelined;
+
+    /**
+     * If {@code true} the references are resolved when the properties are
+     * read.
+     */
+    private boolean lazyReferences;
+
+    /**
+     * If {@code true} the includes are fetched concurrently.
+     */
+    private boolean prefetchIncludes;
+
+    /**
+     * The executor fetching the includes or {@code null} for the
+     * {@link PrefetchExecutor}.
+     */
+    private Executor includeExecutor;
+
+    /**
+     * If {@code true} the sections generated by the for loops are created
+     * when they are read.
+     */
+    private boolean virtualSections;
+
+    /**
+     * Returns the options for parsing validated input without error recovery.
+     *
+     * @return the options for parsing validated input without error recovery.
+     */
+    public static ParseOptions failFast() {
+        return new ParseOptions().setFailFast(true);
+    }
+
+    /**
+     * Returns the engine used to parse the hierarchical properties.
+     *
+     * @return the engine used to parse the hierarchical properties.
+     */
+    public ParserEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Sets the engine used to parse the hierarchical properties.
+     *
+     * @param engine The engine used to parse the hierarchical properties.
+     * @return a reference to this object.
+     */
+    public ParseOptions setEngine(ParserEngine engine) {
+        if (engine == null) {
+            throw new IllegalArgumentException("The parser engine is null.");
+        }
+        this.engine = engine;
+        return this;
+    }
+
+    /**
+     * Returns {@code true} if parsing stops with an exception on the first
+     * error.
+     *
+     * @return {@code true} if parsing stops with an exception on the first
+     * error, else {@code false}.
+     */
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    /**
+     * Sets the fail fast mode.
+     *
+     * @param failFast If {@code true} parsing stops with a
+     * {@link ParseException} on the first error, else the errors are skipped.
+     * @return a reference to this object.
+     */
+    public ParseOptions setFailFast(boolean failFast) {
+        this.failFast = failFast;
+        return this;
+    }
+
+    /**
+     * Returns {@code true} if all errors are collected, when the input cannot
+     * be parsed in fail fast mode.
+     *
+     * @return {@code true} if all errors are collected, when the input cannot
+     * be parsed in fail fast mode, else {@code false}.
+     */
+    public boolean isDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Sets the diagnostics mode.
+     *
+     * @param diagnostics If {@code true} the input is parsed again with error
+     * recovery, when it cannot be parsed in fail fast mode, so that the
+     * {@link ParseException} contains all errors.
+     * @return a reference to this object.
+     */
+    public ParseOptions setDiagnostics(boolean diagnostics) {
+        this.diagnostics = diagnostics;
+        return this;
+    }
+
+    /**
+     * Returns {@code true} if the pre-processor and the properties parser run
+     * concurrently.
+     *
+     * @return {@code true} if the pre-processor and the properties parser run
+     * concurrently, else {@code false}.
+     */
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * Sets the pipelined mode.
+     *
+     * @param pipelined If {@code true} the pre-processor runs in its own thread
+     * and passes the pre-processed text in chunks to the properties parser, as
+     * soon as it is produced, instead of producing the whole text first.
+     * @return a reference to this object.
+     */
+    public ParseOptions setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+        return this;
+    }
+
+    /**
+     * Returns {@code true} if the references are resolved when the properties
+     * are read.
+     *
+     * @return {@code true} if the references are resolved when the properties
+     * are read, else {@code false}.
+     */
+    public boolean isLazyReferences() {
+        return lazyReferences;
+    }
+
+    /**
+     * Sets the lazy references mode.
+     *
+     * @param lazyReferences If {@code true} the references are not resolved
+     * when the properties are loaded, but when a property containing them is
+     * read for the first time. The resolved value is kept until a value of
+     * the tree changes.
+     * @return a reference to this object.
+     */
+    public ParseOptions setLazyReferences(boolean lazyReferences) {
+        this.lazyReferences = lazyReferences;
+        return this;
+    }
+
+    /**
+     * Returns {@code true} if the includes are fetched concurrently.
+     *
+     * @return {@code true} if the includes are fetched concurrently, else
+     * {@code false}.
+     */
+    public boolean isPrefetchIncludes() {
+        return prefetchIncludes;
+    }
+
+    /**
+     * Sets the prefetch mode of the includes.
+     *
+     * @param prefetchIncludes If {@code true} the pre-processor starts to
+     * fetch each include as soon as it finds it and continues with the input,
+     * instead of waiting for the content. The contents are inserted in the
+     * order of the includes.
+     * @return a reference to this object.
+     */
+    public ParseOptions setPrefetchIncludes(boolean prefetchIncludes) {
+        this.prefetchIncludes = prefetchIncludes;
+        return this;
+    }
+
+    /**
+     * Sets the executor fetching the includes in prefetch mode.
+     *
+     * @param includeExecutor The executor fetching the includes or
+     * {@code null} for the default {@link PrefetchExecutor}.
+     * @return a reference to this object.
+     */
+    public ParseOptions setIncludeExecutor(Executor includeExecutor) {
+        this.includeExecutor = includeExecutor;
+        return this;
+    }
+
+    /**
+     * Returns {@code true} if the sections generated by the for loops are
+     * created when they are read.
+     *
+     * @return {@code true} if the sections generated by the for loops are
+     * created when they are read, else {@code false}.
+     */
+    public boolean isVirtualSections() {
+        return virtualSections;
+    }
+
+    /**
+     * Sets the virtual sections mode.
+     *
+     * @param virtualSections If {@code true} a for loop, whose iterations
+     * only contain sections named after the loop variable, like e.g.
+     * "[/shard/!&lt;$i&gt;]", is not expanded by the pre-processor. The nodes
+     * of an iteration are parsed from the loop, when one of them is read for
+     * the first time. A loop, which is not followed by a section or by the
+     * end of the text, is expanded. The virtual sections cannot be used with
+     * the {@link #setPipelined(boolean) pipelined} parse.
+     * @return a reference to this object.
+     */
+    public ParseOptions setVirtualSections(boolean virtualSections) {
+        this.virtualSections = virtualSections;
+        return this;
+    }
+
+    /**
+     * Returns the executor fetching the includes.
+     *
+     * @return the executor fetching the includes or {@code null}, if the
+     * includes are not prefetched.
+     */
+    public Executor getPrefetchExecutor() {
+        if (!prefetchIncludes) {
+            return null;
+        }
+        return includeExecutor == null ? PrefetchExecutor.INSTANCE : includeExecutor;
+    }
+}
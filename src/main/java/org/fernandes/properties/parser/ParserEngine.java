@@ -0,0 +1,252 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import org.fernandes.properties.model.DefaultHierarchicalProperties;
+import org.fernandes.properties.model.PreProcessorContainer;
+
+/**
+ * The engines which can be used to parse the hierarchical properties and the
+ * pre-processor directives.
+ * @author onepoint
+ */
+public enum ParserEngine {
+
+    /**
+     * The hand written single pass scanners. This is the default engine.
+     */
+    SCANNER {
+                /**
+                 * Parses the input with the {@link HierarchicalPropertiesScanner}.
+                 *
+                 * @param input The parser input.
+                 * @param options The parse options.
+                 * @return the parsed hierarchical properties.
+                 */
+                @Override
+                public DefaultHierarchicalProperties parse(String input, ParseOptions options) {
+                    return new HierarchicalPropertiesScanner(new DefaultHierarchicalProperties(), options).parse(input);
+                }
+
+                /**
+                 * Parses the input with the {@link HierarchicalPropertiesScanner}
+                 * without copying it.
+                 *
+                 * @param input The parser input.
+                 * @param options The parse options.
+                 * @return the parsed hierarchical properties.
+                 */
+                @Override
+                public DefaultHierarchicalProperties parse(CharSequence input, ParseOptions options) {
+                    return new HierarchicalPropertiesScanner(new DefaultHierarchicalProperties(), options).parse(input);
+                }
+
+                /**
+                 * Parses the input with the {@link HierarchicalPropertiesScanner},
+                 * reading it incrementally.
+                 *
+                 * @param reader The reader with the parser input.
+                 * @param options The parse options.
+                 * @return the parsed hierarchical properties.
+                 * @throws IOException if the reader cannot be read.
+                 */
+                @Override
+                public DefaultHierarchicalProperties parse(Reader reader, ParseOptions options) throws IOException {
+                    return new HierarchicalPropertiesScanner(new DefaultHierarchicalProperties(), options).parse(reader);
+                }
+
+                /**
+                 * Processes the input with the {@link PreProcessorScanner}.
+                 *
+                 * @param input The parser input.
+                 * @param container The container which receives the
+                 * pre-processed text.
+                 * @param options The parse options.
+                 * @return the container with the pre-processed text.
+                 */
+                @Override
+                public PreProcessorContainer preprocess(String input, PreProcessorContainer container,
+                        ParseOptions options) {
+                    return new PreProcessorScanner(container, options).parse(input);
+                }
+
+                /**
+                 * Processes the input with the {@link PreProcessorScanner},
+                 * reading it incrementally.
+                 *
+                 * @param reader The reader with the parser input.
+                 * @param container The container which receives the
+                 * pre-processed text.
+                 * @param options The parse options.
+                 * @return the container with the pre-processed text.
+                 * @throws IOException if the reader cannot be read.
+                 */
+                @Override
+                public PreProcessorContainer preprocess(Reader reader, PreProcessorContainer container,
+                        ParseOptions options) throws IOException {
+                    return new PreProcessorScanner(container, options).parse(reader);
+                }
+            },
+
+    /**
+     * The grappa based parsers. They need the whole input in memory.
+     */
+    GRAPPA {
+                /**
+                 * Parses the input with the {@link HierarchicalPropertiesParser}.
+                 *
+                 * @param input The parser input.
+                 * @param options The parse options.
+                 * @return the parsed hierarchical properties or {@code null}.
+                 */
+                @Override
+                public DefaultHierarchicalProperties parse(String input, ParseOptions options) {
+                    DefaultHierarchicalProperties props = ParserFactory.parse(HierarchicalPropertiesParser.class,
+                            HierarchicalPropertiesParser::main, input, options);
+                    return props == null ? null : props.reindex();
+                }
+
+                /**
+                 * Processes the input with the {@link PreProcessorParser}.
+                 *
+                 * @param input The parser input.
+                 * @param container The container which receives the
+                 * pre-processed text.
+                 * @param options The parse options.
+                 * @return the container with the pre-processed text or
+                 * {@code null}.
+                 */
+                @Override
+                public PreProcessorContainer preprocess(String input, PreProcessorContainer container,
+                        ParseOptions options) {
+                    return ParserFactory.parse(PreProcessorParser.class, parser -> {
+                        parser.preProcessorContainer = container;
+                        return parser.main();
+                    }, input, options);
+                }
+            };
+
+    /**
+     * Parses the input into hierarchical properties, skipping the errors.
+     *
+     * @param input The parser input.
+     * @return the parsed hierarchical properties or {@code null}.
+     */
+    public DefaultHierarchicalProperties parse(String input) {
+        return parse(input, new ParseOptions());
+    }
+
+    /**
+     * Parses the input into hierarchical properties.
+     *
+     * @param input The parser input.
+     * @param options The parse options.
+     * @return the parsed hierarchical properties or {@code null}.
+     * @throws ParseException if the input cannot be parsed in fail fast mode.
+     */
+    public abstract DefaultHierarchicalProperties parse(String input, ParseOptions options);
+
+    /**
+     * Parses a character sequence into hierarchical properties, like the
+     * pre-processed text. Engines which need a string copy the sequence.
+     *
+     * @param input The parser input.
+     * @param options The parse options.
+     * @return the parsed hierarchical properties or {@code null}.
+     * @throws ParseException if the input cannot be parsed in fail fast mode.
+     */
+    public DefaultHierarchicalProperties parse(CharSequence input, ParseOptions options) {
+        return parse(input.toString(), options);
+    }
+
+    /**
+     * Parses the input read from a reader into hierarchical properties. The
+     * reader is not closed.
+     *
+     * @param reader The reader with the parser input.
+     * @param options The parse options.
+     * @return the parsed hierarchical properties or {@code null}.
+     * @throws IOException if the reader cannot be read.
+     * @throws ParseException if the input cannot be parsed in fail fast mode.
+     */
+    public DefaultHierarchicalProperties parse(Reader reader, ParseOptions options) throws IOException {
+        return parse(read(reader), options);
+    }
+
+    /**
+     * Processes the pre-processor directives in the input.
+     *
+     * @param input The parser input.
+     * @param options The parse options.
+     * @return the container with the pre-processed text or {@code null}.
+     * @throws ParseException if the input cannot be parsed in fail fast mode.
+     */
+    public PreProcessorContainer preprocess(String input, ParseOptions options) {
+        return preprocess(input, new PreProcessorContainer().setPrefetchExecutor(options.getPrefetchExecutor()),
+                options);
+    }
+
+    /**
+     * Processes the pre-processor directives in the input.
+     *
+     * @param input The parser input.
+     * @param container The container which receives the pre-processed text.
+     * @param options The parse options.
+     * @return the container with the pre-processed text or {@code null}.
+     * @throws ParseException if the input cannot be parsed in fail fast mode.
+     */
+    public abstract PreProcessorContainer preprocess(String input, PreProcessorContainer container,
+            ParseOptions options);
+
+    /**
+     * Processes the pre-processor directives in the input read from a reader.
+     * The reader is not closed.
+     *
+     * @param reader The reader with the parser input.
+     * @param options The parse options.
+     * @return the container with the pre-processed text or {@code null}.
+     * @throws IOException if the reader cannot be read.
+     * @throws ParseException if the input cannot be parsed in fail fast mode.
+     */
+    public PreProcessorContainer preprocess(Reader reader, ParseOptions options) throws IOException {
+        return preprocess(reader, new PreProcessorContainer().setPrefetchExecutor(options.getPrefetchExecutor()),
+                options);
+    }
+
+    /**
+     * Processes the pre-processor directives in the input read from a reader.
+     * The reader is not closed.
+     *
+     * @param reader The reader with the parser input.
+     * @param container The container which receives the pre-processed text.
+     * @param options The parse options.
+     * @return the container with the pre-processed text or {@code null}.
+     * @throws IOException if the reader cannot be read.
+     * @throws ParseException if the input cannot be parsed in fail fast mode.
+     */
+    public PreProcessorContainer preprocess(Reader reader, PreProcessorContainer container, ParseOptions options)
+            throws IOException {
+        return preprocess(read(reader), container, options);
+    }
+
+    /**
+     * Reads the whole content of a reader.
+     *
+     * @param reader The reader to be read.
+     * @return the whole content of the reader.
+     * @throws IOException if the reader cannot be read.
+     */
+    private static String read(Reader reader) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[ScannerInput.DEFAULT_BUFFER_SIZE];
+        int read;
+        while ((read = reader.read(buffer)) >= 0) {
+            builder.append(buffer, 0, read);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.parser;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import org.parboiled.BaseParser;
+import org.parboiled.Rule;
+import org.parboiled.errors.ErrorUtils;
+import org.parboiled.errors.ParseError;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.parserunners.RecoveringParseRunner;
+import org.parboiled.parserunners.ReportingParseRunner;
+import org.parboiled.support.ParsingResult;
+import org.parboiled.transform.ParserTransformer;
+
+/**
+ * Creates parser instances. The extended parser class is generated only once
+ * for each parser class (and thus for each class loader) and its constructor is
+ * kept, so that creating a new parser does not go through the byte code
+ * generation and the class loader lookups of {@code Parboiled.createParser}.
+ * <p>
+ * Every call returns a fresh parser instance with its own state, so the
+ * parsers can be used concurrently.
+ *
+ * @author onepoint
+ */
+public class ParserFactory {
+
+    /**
+     * The constructors of the extended parser classes.
+     */
+    private static final ClassValue<Constructor<?>> CONSTRUCTORS = new ClassValue<Constructor<?>>() {
+
+        /**
+         * Generates the extended parser class and returns its no argument
+         * constructor.
+         *
+         * @param parserClass The parser class to be extended.
+         * @return the no argument constructor of the extended parser class.
+         */
+        @Override
+        protected Constructor<?> computeValue(Class<?> parserClass) {
+            try {
+                return ParserTransformer.transformParser(parserClass).getConstructor();
+            } catch (Exception e) {
+                throw new RuntimeException(String.format("Error creating extended parser class for %s.",
+                        parserClass.getName()), e);
+            }
+        }
+    };
+
+    /**
+     * Hidden constructor.
+     */
+    private ParserFactory() {
+    }
+
+    /**
+     * Creates a new instance of the parser.
+     *
+     * @param <P> The type of the parser.
+     * @param parserClass The class of the parser to be created.
+     * @return a new instance of the parser.
+     */
+    public static <P extends BaseParser<?>> P createParser(Class<P> parserClass) {
+        if (parserClass == null) {
+            throw new IllegalArgumentException("The parser class is null.");
+        }
+        try {
+            return parserClass.cast(CONSTRUCTORS.get(parserClass).newInstance());
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new RuntimeException(String.format("Could not create parser %s.", parserClass.getName()), e);
+        }
+    }
+
+    /**
+     * Parses the input with a new instance of the parser.
+     * <p>
+     * Per default the input is parsed with error recovery. In fail fast mode
+     * the input is parsed without error recovery and only on failure it is
+     * parsed again to locate the first error and, in diagnostics mode, once
+     * more with error recovery to collect all errors.
+     *
+     * @param <P> The type of the parser.
+     * @param <V> The type of the value produced by the parser.
+     * @param parserClass The class of the parser to be created.
+     * @param rootRule Returns the root rule of the parser.
+     * @param input The parser input.
+     * @param options The parse options.
+     * @return the value produced by the parser or {@code null}.
+     * @throws ParseException if the input cannot be parsed in fail fast mode.
+     */
+    public static <P extends BaseParser<V>, V> V parse(Class<P> parserClass, Function<P, Rule> rootRule,
+            String input, ParseOptions options) {
+        if (!options.isFailFast()) {
+            return new RecoveringParseRunner<V>(rootRule.apply(createParser(parserClass))).run(input).resultValue;
+        }
+        ParsingResult<V> result = new BasicParseRunner<V>(rootRule.apply(createParser(parserClass))).run(input);
+        if (result.matched) {
+            return result.resultValue;
+        }
+        ParsingResult<V> errorResult = new ReportingParseRunner<V>(rootRule.apply(createParser(parserClass))).run(input);
+        int errorIndex = errorResult.parseErrors.isEmpty() ? input.length()
+                : errorResult.parseErrors.get(0).getStartIndex();
+        List<String> errors = new ArrayList<>();
+        if (options.isDiagnostics()) {
+            // the recovering runner reports the positions in its own modified input buffer
+            for (ParseError error : new RecoveringParseRunner<V>(rootRule.apply(createParser(parserClass)))
+                    .run(input).parseErrors) {
+                errors.add(ErrorUtils.printParseError(error));
+            }
+        }
+        throw new ParseException(input, errorIndex, errors);
+    }
+}
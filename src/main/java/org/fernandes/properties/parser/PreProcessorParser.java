@@ -5,6 +5,7 @@
 package org.fernandes.properties.parser;
 
 import org.fernandes.properties.model.ExternalEnvironment;
+import org.fernandes.properties.model.IfOperator;
 import static org.fernandes.properties.model.IncludeType.CLASSPATH;
 import static org.fernandes.properties.model.IncludeType.FILE;
 import static org.fernandes.properties.model.IncludeType.HTTP;
@@ -52,7 +53,18 @@ public class PreProcessorParser extends AbstractParser<PreProcessorContainer> {
     }
 
     public Rule textOrCommand() {
-        return firstOf(preprocessorCommand(), oneOrMore(testNot("!<"), ANY, push(preProcessorContainer.processText(match()))));
+        return firstOf(preprocessorCommand(), skipInactive(),
+                oneOrMore(testNot("!<"), ANY, push(preProcessorContainer.processText(match()))));
+    }
+
+    /**
+     * Returns a rule, which skips the text of a branch of an if, which does
+     * not match, up to the next directive without passing it to the container.
+     * @return a rule, which skips the text of a branch of an if, which does
+     * not match, up to the next directive.
+     */
+    public Rule skipInactive() {
+        return sequence(ACTION(!preProcessorContainer.isActive()), oneOrMore(testNot("!<"), ANY));
     }
 
     /**
@@ -161,7 +173,7 @@ public class PreProcessorParser extends AbstractParser<PreProcessorContainer> {
     }
 
     /**
-     * Example: !<if:env == prod>
+     * Example: !<if:env == prod> or {@code !<if:env in (dev, test) && port >= 8000>}
      * @param prefix The prefix for this operation. Can be "if" for example.
      * @return the rule for the if start.
      */
@@ -170,8 +182,40 @@ public class PreProcessorParser extends AbstractParser<PreProcessorContainer> {
         return sequence(optionalSpaces(), prefix, optionalSpaces(), ":", optionalSpaces(),
                 oneOrMore(alphaNumericWithDot()),
                     isIf ? push(preProcessorContainer.ifStartVar(match())) : push(preProcessorContainer.elseIfStartVar(match())),
-                optionalSpaces(), firstOf("==", "!="), push(preProcessorContainer.ifOperator(match())), optionalSpaces(),
-                oneOrMore(alphaNumericWithDot()), push(preProcessorContainer.ifStartVal(match())));
+                comparison(),
+                zeroOrMore(optionalSpaces(), firstOf(
+                        sequence("&&", optionalSpaces(), oneOrMore(alphaNumericWithDot()),
+                                push(preProcessorContainer.ifAnd(match()))),
+                        sequence("||", optionalSpaces(), oneOrMore(alphaNumericWithDot()),
+                                push(preProcessorContainer.ifOr(match())))),
+                        comparison()));
+    }
+
+    /**
+     * Example: == prod, {@code >= 8000}, =~ prod.* or in (dev, test)
+     * @return the rule for the operator and the value of a comparison in an if.
+     */
+    public Rule comparison() {
+        return sequence(optionalSpaces(), firstOf(
+                sequence(IfOperator.IN.getSign(), push(preProcessorContainer.ifOperator(match())), optionalSpaces(),
+                        "(", optionalSpaces(), valueList(), push(preProcessorContainer.ifStartVal(match())),
+                        optionalSpaces(), ")"),
+                sequence(firstOf(IfOperator.MATCHES.getSign(), IfOperator.NOT_MATCHES.getSign()),
+                        push(preProcessorContainer.ifOperator(match())), optionalSpaces(),
+                        oneOrMore(noneOf(" \t\r\n>")), push(preProcessorContainer.ifStartVal(match()))),
+                sequence(firstOf(IfOperator.EQUALS.getSign(), IfOperator.NOT.getSign(), IfOperator.LESS_EQUALS.getSign(),
+                        IfOperator.GREATER_EQUALS.getSign(), IfOperator.LESS.getSign(), IfOperator.GREATER.getSign()),
+                        push(preProcessorContainer.ifOperator(match())), optionalSpaces(),
+                        oneOrMore(alphaNumericWithDot()), push(preProcessorContainer.ifStartVal(match())))));
+    }
+
+    /**
+     * Example: dev, test
+     * @return the rule for the comma separated values of an in comparison.
+     */
+    public Rule valueList() {
+        return sequence(oneOrMore(alphaNumericWithDot()),
+                zeroOrMore(optionalSpaces(), ",", optionalSpaces(), oneOrMore(alphaNumericWithDot())));
     }
 
     /**
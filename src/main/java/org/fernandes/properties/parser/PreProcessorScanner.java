@@ -0,0 +1,802 @@
+/*
+ OSSCUBE 2014
+ */
+package org.fernandes.properties.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.fernandes.properties.model.IfOperator;
+import org.fernandes.properties.model.IncludeType;
+import org.fernandes.properties.model.PreProcessorContainer;
+
+/**
+ * Hand written, single pass scanner for the pre-processor directives. It
+ * accepts the directives of {@link PreProcessorParser} and drives the
+ * {@link PreProcessorContainer} with the same callbacks, but it passes the
+ * text between the directives in chunks instead of character by character.
+ * <p>
+ * The callbacks of a directive are only fired once the whole directive up to
+ * the closing "&gt;" was matched. Directives which cannot be matched are
+ * skipped up to their closing "&gt;" on the same line. In fail fast mode the
+ * scanner stops with a {@link ParseException} on the first error instead.
+ *
+ * @author onepoint
+ */
+public class PreProcessorScanner {
+
+    /**
+     * The start of a pre-processor directive.
+     */
+    private static final String DIRECTIVE_START = "!<";
+
+    /**
+     * The maximum number of characters passed at once to the container, so
+     * that long text does not have to be held in memory completely.
+     */
+    private static final int MAX_TEXT_CHUNK = ScannerInput.DEFAULT_BUFFER_SIZE / 2;
+
+    /**
+     * The container filled with the pre-processor content.
+     */
+    private final PreProcessorContainer container;
+
+    /**
+     * The parse options.
+     */
+    private final ParseOptions options;
+
+    /**
+     * The messages of the errors, only filled in diagnostics mode.
+     */
+    private final List<String> errors = new ArrayList<>();
+
+    /**
+     * The input being scanned.
+     */
+    private ScannerInput in;
+
+    /**
+     * The current position in the input.
+     */
+    private int pos;
+
+    /**
+     * The number of directives that could not be matched.
+     */
+    private int errorCount;
+
+    /**
+     * The index of the first directive that could not be matched or
+     * {@code -1}.
+     */
+    private int firstErrorIndex = -1;
+
+    /**
+     * The line of the first directive that could not be matched.
+     */
+    private int firstErrorLine;
+
+    /**
+     * The column of the first directive that could not be matched.
+     */
+    private int firstErrorColumn;
+
+    /**
+     * Creates a scanner which fills a new pre-processor container.
+     */
+    public PreProcessorScanner() {
+        this(new PreProcessorContainer(), new ParseOptions());
+    }
+
+    /**
+     * Creates a scanner which fills the given pre-processor container.
+     *
+     * @param container The container to be filled with the pre-processor
+     * content.
+     * @param options The parse options.
+     */
+    public PreProcessorScanner(PreProcessorContainer container, ParseOptions options) {
+        this.container = container;
+        this.options = options;
+    }
+
+    /**
+     * Scans the whole input and processes the directives in it.
+     *
+     * @param input The text to scan.
+     * @return the filled pre-processor container.
+     * @throws ParseException if the input cannot be parsed in fail fast mode.
+     */
+    public PreProcessorContainer parse(CharSequence input) {
+        return parse(ScannerInput.of(input));
+    }
+
+    /**
+     * Scans the whole input read from a reader and processes the directives in
+     * it. Only a bounded window of the input is kept in memory.
+     *
+     * @param reader The reader from which the text is read.
+     * @return the filled pre-processor container.
+     * @throws IOException if the reader cannot be read.
+     * @throws ParseException if the input cannot be parsed in fail fast mode.
+     */
+    public PreProcessorContainer parse(Reader reader) throws IOException {
+        try {
+            return parse(ScannerInput.of(reader));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Scans the whole input and processes the directives in it.
+     *
+     * @param in The input to scan.
+     * @return the filled pre-processor container.
+     * @throws ParseException if the input cannot be parsed in fail fast mode.
+     */
+    private PreProcessorContainer parse(ScannerInput in) {
+        this.in = in;
+        this.pos = 0;
+        while (in.has(pos)) {
+            if (!container.isActive()) {
+                skipInactive();
+                if (!in.has(pos)) {
+                    break;
+                }
+            }
+            if (startsWith(pos, DIRECTIVE_START)) {
+                if (!directive()) {
+                    error();
+                    pos = invalidDirectiveEnd();
+                }
+            } else {
+                text();
+            }
+            in.release(pos);
+        }
+        if (errorCount > 0 && options.isFailFast()) {
+            throw new ParseException(firstErrorIndex, firstErrorLine, firstErrorColumn, errors);
+        }
+        return container;
+    }
+
+    /**
+     * Returns the number of directives that could not be matched.
+     *
+     * @return the number of directives that could not be matched.
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Returns the index of the first directive that could not be matched.
+     *
+     * @return the index of the first directive that could not be matched or
+     * {@code -1}, if there were no errors.
+     */
+    public int getFirstErrorIndex() {
+        return firstErrorIndex;
+    }
+
+    /**
+     * Records an error at the current position. In fail fast mode without
+     * diagnostics the scanner stops on the first error.
+     *
+     * @throws ParseException if the input cannot be parsed in fail fast mode.
+     */
+    private void error() {
+        errorCount++;
+        if (firstErrorIndex < 0) {
+            firstErrorIndex = pos;
+            firstErrorLine = in.line(pos);
+            firstErrorColumn = in.column(pos);
+        }
+        if (options.isFailFast()) {
+            if (!options.isDiagnostics()) {
+                throw in.error(pos, errors);
+            }
+            errors.add(String.format("Invalid directive '%s' (%s)", in.text(pos, invalidDirectiveEnd()),
+                    in.position(pos)));
+        }
+    }
+
+    /**
+     * Passes the text up to the next directive to the container.
+     */
+    private void text() {
+        int cur = pos + 1;
+        int max = pos + MAX_TEXT_CHUNK;
+        while (cur < max && in.has(cur) && !startsWith(cur, DIRECTIVE_START)) {
+            cur++;
+        }
+        container.processText(in.text(pos, cur));
+        pos = cur;
+    }
+
+    /**
+     * Skips a branch of an if, which does not match, up to its else if, else
+     * or end if, which is left at the current position. The text is skipped
+     * without passing it to the container and the nested ifs are only counted
+     * and not evaluated. Only the loops, which do not depend on the
+     * conditions, are still passed to the container.
+     */
+    private void skipInactive() {
+        int depth = 0;
+        while (in.has(pos)) {
+            if (!startsWith(pos, DIRECTIVE_START)) {
+                pos++;
+                if (pos % MAX_TEXT_CHUNK == 0) {
+                    in.release(pos);
+                }
+                continue;
+            }
+            int start = pos + DIRECTIVE_START.length();
+            Directive matched = null;
+            int end = -1;
+            for (Directive directive : Directive.values()) {
+                end = directiveEnd(directive.match(this, start, false));
+                if (end >= 0) {
+                    matched = directive;
+                    break;
+                }
+            }
+            if (matched == null) {
+                error();
+                pos = invalidDirectiveEnd();
+                continue;
+            }
+            switch (matched) {
+                case IF:
+                    depth++;
+                    break;
+                case END_IF:
+                    if (depth == 0) {
+                        return;
+                    }
+                    depth--;
+                    break;
+                case ELSE_IF:
+                case ELSE:
+                    if (depth == 0) {
+                        return;
+                    }
+                    break;
+                case FOR:
+                case END_FOR:
+                    matched.match(this, start, true);
+                    break;
+                default:
+                    break;
+            }
+            pos = end;
+        }
+    }
+
+    /**
+     * Matches a directive, like e.g. "!&lt;def:env=prod&gt;", and fires its
+     * callbacks.
+     *
+     * @return {@code true} if a directive was matched, else {@code false}.
+     */
+    private boolean directive() {
+        int start = pos + DIRECTIVE_START.length();
+        for (Directive directive : Directive.values()) {
+            int end = directiveEnd(directive.match(this, start, false));
+            if (end >= 0) {
+                directive.match(this, start, true);
+                pos = end;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Matches the end of a directive with optional spaces before it.
+     *
+     * @param from The end of the directive body or {@code -1}.
+     * @return the position after the end of the directive or {@code -1}.
+     */
+    private int directiveEnd(int from) {
+        if (from < 0) {
+            return -1;
+        }
+        int cur = spacesEnd(from);
+        return in.has(cur) && in.charAt(cur) == '>' ? cur + 1 : -1;
+    }
+
+    /**
+     * Returns the position after the closing "&gt;" of an invalid directive
+     * on the same line or after the directive start, if there is none.
+     *
+     * @return the position after an invalid directive.
+     */
+    private int invalidDirectiveEnd() {
+        for (int cur = pos + DIRECTIVE_START.length(); in.has(cur); cur++) {
+            char c = in.charAt(cur);
+            if (c == '>') {
+                return cur + 1;
+            }
+            if (c == '\n' || c == '\r') {
+                break;
+            }
+        }
+        return pos + DIRECTIVE_START.length();
+    }
+
+    /**
+     * Matches a define, like e.g. "def:env=prod".
+     *
+     * @param from The start of the directive body.
+     * @param fire If {@code true} the callbacks are fired.
+     * @return the end of the define or {@code -1}.
+     */
+    private int define(int from, boolean fire) {
+        int cur = keyword(spacesEnd(from), "def");
+        cur = separator(cur, ':');
+        int keyEnd = alphaNumericsWithDotEnd(cur);
+        if (keyEnd <= cur) {
+            return -1;
+        }
+        int valueStart = separator(keyEnd, '=');
+        int valueEnd = alphaNumericsWithDotEnd(valueStart);
+        if (valueEnd <= valueStart) {
+            return -1;
+        }
+        if (fire) {
+            container.addConstantKey(in.text(cur, keyEnd));
+            container.addConstantVal(in.text(valueStart, valueEnd));
+        }
+        return valueEnd;
+    }
+
+    /**
+     * Matches an include, like e.g. "classpath:hierarchicalProperties/include1.txt".
+     *
+     * @param from The start of the directive body.
+     * @param fire If {@code true} the callbacks are fired.
+     * @return the end of the include or {@code -1}.
+     */
+    private int include(int from, boolean fire) {
+        for (IncludeType includeType : IncludeType.values()) {
+            String prefix = includeType.getPrefix();
+            if (startsWith(from, prefix) && in.has(from + prefix.length())
+                    && in.charAt(from + prefix.length()) == ':') {
+                int urlStart = from + prefix.length() + 1;
+                int urlEnd = urlStart;
+                while (in.has(urlEnd) && in.charAt(urlEnd) != '>') {
+                    urlEnd++;
+                }
+                if (urlEnd == urlStart) {
+                    return -1;
+                }
+                if (fire) {
+                    container.processCurIncludeType(prefix);
+                    container.processInclude(in.text(urlStart, urlEnd));
+                }
+                return urlEnd;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Matches the value of a define, like e.g. "$env" or "$ENV.PATH".
+     *
+     * @param from The start of the directive body.
+     * @param fire If {@code true} the callbacks are fired.
+     * @return the end of the define value or {@code -1}.
+     */
+    private int defineVal(int from, boolean fire) {
+        int cur = spacesEnd(from);
+        if (!in.has(cur) || in.charAt(cur) != '$') {
+            return -1;
+        }
+        int keyEnd = alphaNumericsWithDotEnd(cur + 1);
+        if (keyEnd <= cur + 1) {
+            return -1;
+        }
+        if (fire) {
+            container.addDefineVal(in.text(cur + 1, keyEnd));
+        }
+        return keyEnd;
+    }
+
+    /**
+     * Matches an if or an else if, like e.g. "if:env == prod" or
+     * "if:env in (dev, test) &amp;&amp; port &gt;= 8000".
+     *
+     * @param from The start of the directive body.
+     * @param fire If {@code true} the callbacks are fired.
+     * @param isIf {@code true} for an if, {@code false} for an else if.
+     * @return the end of the if or {@code -1}.
+     */
+    private int ifRule(int from, boolean fire, boolean isIf) {
+        int cur = keyword(spacesEnd(from), isIf ? "if" : "elseif");
+        cur = separator(cur, ':');
+        String connective = null;
+        while (true) {
+            int variableEnd = alphaNumericsWithDotEnd(cur);
+            if (variableEnd <= cur) {
+                return -1;
+            }
+            if (fire) {
+                String variable = in.text(cur, variableEnd);
+                if (connective == null) {
+                    if (isIf) {
+                        container.ifStartVar(variable);
+                    } else {
+                        container.elseIfStartVar(variable);
+                    }
+                } else if (connective.equals("&&")) {
+                    container.ifAnd(variable);
+                } else {
+                    container.ifOr(variable);
+                }
+            }
+            cur = comparison(variableEnd, fire);
+            if (cur < 0) {
+                return -1;
+            }
+            int next = spacesEnd(cur);
+            if (startsWith(next, "&&")) {
+                connective = "&&";
+            } else if (startsWith(next, "||")) {
+                connective = "||";
+            } else {
+                return cur;
+            }
+            cur = spacesEnd(next + connective.length());
+        }
+    }
+
+    /**
+     * Matches the operator and the value of a comparison in an if, like e.g.
+     * "== prod", "&gt;= 8000", "=~ prod.*" or "in (dev, test)".
+     *
+     * @param from The end of the variable of the comparison.
+     * @param fire If {@code true} the callbacks are fired.
+     * @return the end of the comparison or {@code -1}.
+     */
+    private int comparison(int from, boolean fire) {
+        int operatorStart = spacesEnd(from);
+        IfOperator operator = null;
+        for (IfOperator candidate : IfOperator.values()) {
+            if (startsWith(operatorStart, candidate.getSign())
+                    && (operator == null || candidate.getSign().length() > operator.getSign().length())) {
+                operator = candidate;
+            }
+        }
+        if (operator == null) {
+            return -1;
+        }
+        int valueStart = spacesEnd(operatorStart + operator.getSign().length());
+        int valueEnd;
+        int end;
+        if (operator == IfOperator.IN) {
+            if (!in.has(valueStart) || in.charAt(valueStart) != '(') {
+                return -1;
+            }
+            valueStart = spacesEnd(valueStart + 1);
+            valueEnd = alphaNumericsWithDotEnd(valueStart);
+            while (valueEnd > valueStart) {
+                int separatorEnd = separator(valueEnd, ',');
+                if (separatorEnd < 0) {
+                    break;
+                }
+                int itemEnd = alphaNumericsWithDotEnd(separatorEnd);
+                if (itemEnd <= separatorEnd) {
+                    return -1;
+                }
+                valueEnd = itemEnd;
+            }
+            end = spacesEnd(valueEnd);
+            if (!in.has(end) || in.charAt(end) != ')') {
+                return -1;
+            }
+            end++;
+        } else if (operator == IfOperator.MATCHES || operator == IfOperator.NOT_MATCHES) {
+            valueEnd = valueStart;
+            while (in.has(valueEnd) && " \t\r\n>".indexOf(in.charAt(valueEnd)) < 0) {
+                valueEnd++;
+            }
+            end = valueEnd;
+        } else {
+            valueEnd = alphaNumericsWithDotEnd(valueStart);
+            end = valueEnd;
+        }
+        if (valueEnd <= valueStart) {
+            return -1;
+        }
+        if (fire) {
+            container.ifOperator(operator.getSign());
+            container.ifStartVal(in.text(valueStart, valueEnd));
+        }
+        return end;
+    }
+
+    /**
+     * Matches a directive consisting of a single word, like e.g. "endif".
+     *
+     * @param from The start of the directive body.
+     * @param word The word of the directive.
+     * @return the end of the directive or {@code -1}.
+     */
+    private int word(int from, String word) {
+        return keyword(spacesEnd(from), word);
+    }
+
+    /**
+     * Matches the start of a for loop, like e.g. "for i = 1 : 10".
+     *
+     * @param from The start of the directive body.
+     * @param fire If {@code true} the callbacks are fired.
+     * @return the end of the for start or {@code -1}.
+     */
+    private int forStart(int from, boolean fire) {
+        int cur = keyword(from, "for");
+        if (cur < 0 || spacesEnd(cur) == cur) {
+            return -1;
+        }
+        int variableStart = spacesEnd(cur);
+        int variableEnd = variableStart;
+        while (in.has(variableEnd) && isAlpha(in.charAt(variableEnd))) {
+            variableEnd++;
+        }
+        if (variableEnd == variableStart) {
+            return -1;
+        }
+        int startStart = separator(variableEnd, '=');
+        int startEnd = digitsEnd(startStart);
+        if (startEnd <= startStart) {
+            return -1;
+        }
+        int endStart = separator(startEnd, ':');
+        int endEnd = digitsEnd(endStart);
+        if (endEnd <= endStart) {
+            return -1;
+        }
+        int end = spacesEnd(endEnd);
+        if (in.has(end) && in.charAt(end) == ':') {
+            int stepStart = spacesEnd(end + 1);
+            int stepEnd = digitsEnd(stepStart);
+            if (stepEnd <= stepStart) {
+                return -1;
+            }
+            end = stepEnd;
+        }
+        if (fire) {
+            container.forVar(in.text(variableStart, variableEnd));
+            container.forStart(in.text(startStart, startEnd));
+            container.forEndOrStep(in.text(endStart, endEnd));
+        }
+        return end;
+    }
+
+    /**
+     * Matches a keyword.
+     *
+     * @param from The position from which to match or {@code -1}.
+     * @param keyword The keyword.
+     * @return the position after the keyword or {@code -1}.
+     */
+    private int keyword(int from, String keyword) {
+        return from >= 0 && startsWith(from, keyword) ? from + keyword.length() : -1;
+    }
+
+    /**
+     * Matches a separator with optional spaces around it.
+     *
+     * @param from The position from which to match or {@code -1}.
+     * @param separator The separator.
+     * @return the position after the separator and the spaces or {@code -1}.
+     */
+    private int separator(int from, char separator) {
+        if (from < 0) {
+            return -1;
+        }
+        int cur = spacesEnd(from);
+        if (!in.has(cur) || in.charAt(cur) != separator) {
+            return -1;
+        }
+        return spacesEnd(cur + 1);
+    }
+
+    /**
+     * Skips the space characters including the tab.
+     *
+     * @param from The position from which to skip or {@code -1}.
+     * @return the position of the first non space character or {@code -1}.
+     */
+    private int spacesEnd(int from) {
+        if (from < 0) {
+            return -1;
+        }
+        int cur = from;
+        while (in.has(cur) && (in.charAt(cur) == ' ' || in.charAt(cur) == '\t')) {
+            cur++;
+        }
+        return cur;
+    }
+
+    /**
+     * Returns the end of a sequence of alphanumeric characters or dots.
+     *
+     * @param from The position from which to match or {@code -1}.
+     * @return the end of a sequence of alphanumeric characters or dots or
+     * {@code -1}.
+     */
+    private int alphaNumericsWithDotEnd(int from) {
+        if (from < 0) {
+            return -1;
+        }
+        int cur = from;
+        while (in.has(cur) && (HierarchicalPropertiesScanner.isAlphaNumeric(in.charAt(cur)) || in.charAt(cur) == '.')) {
+            cur++;
+        }
+        return cur;
+    }
+
+    /**
+     * Returns the end of a sequence of digits.
+     *
+     * @param from The position from which to match or {@code -1}.
+     * @return the end of a sequence of digits or {@code -1}.
+     */
+    private int digitsEnd(int from) {
+        if (from < 0) {
+            return -1;
+        }
+        int cur = from;
+        while (in.has(cur) && in.charAt(cur) >= '0' && in.charAt(cur) <= '9') {
+            cur++;
+        }
+        return cur;
+    }
+
+    /**
+     * Checks, if the input contains a string at a specific position.
+     *
+     * @param from The position to check.
+     * @param expected The expected string.
+     * @return {@code true} if {@code expected} is found at {@code from}.
+     */
+    private boolean startsWith(int from, String expected) {
+        int expectedLength = expected.length();
+        if (!in.has(from + expectedLength - 1)) {
+            return false;
+        }
+        for (int i = 0; i < expectedLength; i++) {
+            if (in.charAt(from + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks for ASCII letters.
+     *
+     * @param c The character to check.
+     * @return {@code true} for ASCII letters.
+     */
+    private static boolean isAlpha(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    /**
+     * The directives in the order in which they are tried.
+     */
+    private enum Directive {
+
+        /**
+         * Example: {@code !<def:env=production> }
+         */
+        DEFINE {
+                    @Override
+                    int match(PreProcessorScanner scanner, int from, boolean fire) {
+                        return scanner.define(from, fire);
+                    }
+                },
+        /**
+         * Example: !&lt;classpath:hierarchicalProperties/include1.txt&gt;
+         */
+        INCLUDE {
+                    @Override
+                    int match(PreProcessorScanner scanner, int from, boolean fire) {
+                        return scanner.include(from, fire);
+                    }
+                },
+        /**
+         * Example: {@code !<$env> }
+         */
+        DEFINE_VAL {
+                    @Override
+                    int match(PreProcessorScanner scanner, int from, boolean fire) {
+                        return scanner.defineVal(from, fire);
+                    }
+                },
+        /**
+         * Example: {@code !<if:env == prod> }
+         */
+        IF {
+                    @Override
+                    int match(PreProcessorScanner scanner, int from, boolean fire) {
+                        return scanner.ifRule(from, fire, true);
+                    }
+                },
+        /**
+         * Example: {@code !<elseif:env == prod> }
+         */
+        ELSE_IF {
+                    @Override
+                    int match(PreProcessorScanner scanner, int from, boolean fire) {
+                        return scanner.ifRule(from, fire, false);
+                    }
+                },
+        /**
+         * Example: {@code !<endif> }
+         */
+        END_IF {
+                    @Override
+                    int match(PreProcessorScanner scanner, int from, boolean fire) {
+                        int end = scanner.word(from, "endif");
+                        if (fire) {
+                            scanner.container.ifEnd();
+                        }
+                        return end;
+                    }
+                },
+        /**
+         * Example: {@code !<else> }
+         */
+        ELSE {
+                    @Override
+                    int match(PreProcessorScanner scanner, int from, boolean fire) {
+                        int end = scanner.word(from, "else");
+                        if (fire) {
+                            scanner.container.ifElse();
+                        }
+                        return end;
+                    }
+                },
+        /**
+         * Example: {@code !<for i = 1 : 10> }
+         */
+        FOR {
+                    @Override
+                    int match(PreProcessorScanner scanner, int from, boolean fire) {
+                        return scanner.forStart(from, fire);
+                    }
+                },
+        /**
+         * Example: {@code !<endfor> }
+         */
+        END_FOR {
+                    @Override
+                    int match(PreProcessorScanner scanner, int from, boolean fire) {
+                        int end = scanner.word(from, "endfor");
+                        if (fire) {
+                            scanner.container.forEnd();
+                        }
+                        return end;
+                    }
+                };
+
+        /**
+         * Matches the body of the directive.
+         *
+         * @param scanner The scanner.
+         * @param from The start of the directive body.
+         * @param fire If {@code true} the callbacks are fired, which is only
+         * done once the whole directive was matched.
+         * @return the end of the directive body or {@code -1}.
+         */
+        abstract int match(PreProcessorScanner scanner, int from, boolean fire);
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * The input of the hand written scanners. The characters are addressed with
+ * their absolute index in the input, so that the scanners work the same on a
+ * character sequence held in memory and on a reader, of which only a bounded
+ * window is kept in memory.
+ *
+ * @author onepoint
+ */
+abstract class ScannerInput {
+
+    /**
+     * The default size of the buffer used to read from a reader.
+     */
+    static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * Creates the input from a character sequence held in memory.
+     *
+     * @param input The character sequence.
+     * @return the input for the scanners.
+     */
+    static ScannerInput of(CharSequence input) {
+        return new TextInput(input);
+    }
+
+    /**
+     * Creates the input from a reader.
+     *
+     * @param reader The reader.
+     * @return the input for the scanners.
+     */
+    static ScannerInput of(Reader reader) {
+        return new ReaderInput(reader, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Checks, if there is a character at a specific index and reads more input
+     * if necessary.
+     *
+     * @param index The absolute index of the character.
+     * @return {@code true} if there is a character at {@code index}, else
+     * {@code false}.
+     * @throws UncheckedIOException if the input cannot be read.
+     */
+    abstract boolean has(int index);
+
+    /**
+     * Returns the character at a specific index. Must only be called after
+     * {@link #has(int)} returned {@code true} for this index.
+     *
+     * @param index The absolute index of the character.
+     * @return the character at {@code index}.
+     */
+    abstract char charAt(int index);
+
+    /**
+     * Returns the text between two indexes.
+     *
+     * @param start The absolute index of the first character.
+     * @param end The absolute index after the last character.
+     * @return the text between the two indexes.
+     */
+    abstract String text(int start, int end);
+
+    /**
+     * Signals that the characters before a specific index are not needed
+     * anymore.
+     *
+     * @param index The absolute index of the first character still needed.
+     */
+    abstract void release(int index);
+
+    /**
+     * Returns the line of a character which was not released yet.
+     *
+     * @param index The absolute index of the character.
+     * @return the line of the character, starting with 1.
+     */
+    abstract int line(int index);
+
+    /**
+     * Returns the column of a character which was not released yet.
+     *
+     * @param index The absolute index of the character.
+     * @return the column of the character, starting with 1.
+     */
+    abstract int column(int index);
+
+    /**
+     * Returns the position of a character which was not released yet as
+     * text.
+     *
+     * @param index The absolute index of the character.
+     * @return the position of the character as text.
+     */
+    String position(int index) {
+        return String.format("line %d, column %d", line(index), column(index));
+    }
+
+    /**
+     * Creates the exception for an error at a specific index.
+     *
+     * @param index The absolute index of the first character which could not
+     * be parsed.
+     * @param errors The messages of all errors, which can be empty.
+     * @return the exception for the error.
+     */
+    ParseException error(int index, List<String> errors) {
+        return new ParseException(index, line(index), column(index), errors);
+    }
+
+    /**
+     * Input held completely in memory.
+     */
+    private static final class TextInput extends ScannerInput {
+
+        /**
+         * The text.
+         */
+        private final CharSequence input;
+
+        /**
+         * The length of the text.
+         */
+        private final int length;
+
+        /**
+         * Creates the input from a character sequence.
+         *
+         * @param input The character sequence.
+         */
+        TextInput(CharSequence input) {
+            this.input = input;
+            this.length = input.length();
+        }
+
+        @Override
+        boolean has(int index) {
+            return index < length;
+        }
+
+        @Override
+        char charAt(int index) {
+            return input.charAt(index);
+        }
+
+        @Override
+        String text(int start, int end) {
+            return input.subSequence(start, end).toString();
+        }
+
+        @Override
+        void release(int index) {
+        }
+
+        @Override
+        int line(int index) {
+            return ParseException.lineOf(input, index);
+        }
+
+        @Override
+        int column(int index) {
+            return ParseException.columnOf(input, index);
+        }
+    }
+
+    /**
+     * Input read from a reader into a buffer. The buffer only grows when a
+     * single element of the grammar does not fit into it.
+     */
+    private static final class ReaderInput extends ScannerInput {
+
+        /**
+         * The reader.
+         */
+        private final Reader reader;
+
+        /**
+         * The buffer with the characters which were not discarded yet.
+         */
+        private char[] buffer;
+
+        /**
+         * The absolute index of the first character in the buffer.
+         */
+        private int base;
+
+        /**
+         * The absolute index after the last character read.
+         */
+        private int end;
+
+        /**
+         * The absolute index of the first character still needed.
+         */
+        private int released;
+
+        /**
+         * {@code true} if the end of the reader was reached.
+         */
+        private boolean eof;
+
+        /**
+         * The number of lines in the discarded characters.
+         */
+        private int discardedLines;
+
+        /**
+         * The absolute index of the start of the last line in the discarded
+         * characters.
+         */
+        private int discardedLineStart;
+
+        /**
+         * Creates the input from a reader.
+         *
+         * @param reader The reader.
+         * @param bufferSize The initial size of the buffer.
+         */
+        ReaderInput(Reader reader, int bufferSize) {
+            this.reader = reader;
+            this.buffer = new char[bufferSize];
+        }
+
+        @Override
+        boolean has(int index) {
+            while (index >= end) {
+                if (eof) {
+                    return false;
+                }
+                fill();
+            }
+            return true;
+        }
+
+        /**
+         * Reads more characters into the buffer, discarding the released
+         * characters or growing the buffer, if it is full.
+         */
+        private void fill() {
+            if (end - base == buffer.length) {
+                int discard = released - base;
+                if (discard > 0) {
+                    for (int i = 0; i < discard; i++) {
+                        if (buffer[i] == '\n') {
+                            discardedLines++;
+                            discardedLineStart = base + i + 1;
+                        }
+                    }
+                    System.arraycopy(buffer, discard, buffer, 0, end - released);
+                    base = released;
+                } else {
+                    char[] grown = new char[buffer.length * 2];
+                    System.arraycopy(buffer, 0, grown, 0, buffer.length);
+                    buffer = grown;
+                }
+            }
+            try {
+                int read = reader.read(buffer, end - base, buffer.length - (end - base));
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    end += read;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        char charAt(int index) {
+            return buffer[index - base];
+        }
+
+        @Override
+        String text(int start, int end) {
+            return new String(buffer, start - base, end - start);
+        }
+
+        @Override
+        void release(int index) {
+            released = index;
+        }
+
+        @Override
+        int line(int index) {
+            int line = discardedLines + 1;
+            for (int i = base, last = Math.min(index, end); i < last; i++) {
+                if (buffer[i - base] == '\n') {
+                    line++;
+                }
+            }
+            return line;
+        }
+
+        @Override
+        int column(int index) {
+            int start = Math.min(index, end);
+            while (start > base && buffer[start - 1 - base] != '\n') {
+                start--;
+            }
+            return index - (start > base ? start : discardedLineStart) + 1;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded pipe for text between a producer thread and a consumer thread.
+ * The producer writes to the {@link #sink()} and the consumer reads from the
+ * {@link #source()}. The text is passed in chunks, so that only a bounded
+ * number of chunks is held in memory at any time.
+ * <p>
+ * A failure of the producer is passed to the consumer with
+ * {@link #fail(Throwable)}. Closing the source stops the producer on its next
+ * write.
+ *
+ * @author onepoint
+ */
+public class CharPipe {
+
+    /**
+     * The default number of characters of a chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    /**
+     * The default maximum number of chunks in the pipe.
+     */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * Marks the end of the text.
+     */
+    private static final String END = new String();
+
+    /**
+     * The time in milliseconds after which a blocked producer checks, if the
+     * source was closed.
+     */
+    private static final long OFFER_TIMEOUT = 100;
+
+    /**
+     * The chunks written by the producer and not yet read by the consumer.
+     */
+    private final BlockingQueue<String> chunks;
+
+    /**
+     * The number of characters from which a chunk is passed to the consumer.
+     */
+    private final int chunkSize;
+
+    /**
+     * The side of the producer.
+     */
+    private final Sink sink = new Sink();
+
+    /**
+     * The side of the consumer.
+     */
+    private final Source source = new Source();
+
+    /**
+     * The failure of the producer or {@code null}.
+     */
+    private volatile Throwable failure;
+
+    /**
+     * {@code true} if the source was closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a pipe with the default capacity and chunk size.
+     */
+    public CharPipe() {
+        this(DEFAULT_CAPACITY, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a pipe.
+     *
+     * @param capacity The maximum number of chunks in the pipe.
+     * @param chunkSize The number of characters from which a chunk is passed
+     * to the consumer.
+     */
+    public CharPipe(int capacity, int chunkSize) {
+        if (capacity < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("The capacity and the chunk size must be positive.");
+        }
+        this.chunks = new ArrayBlockingQueue<>(capacity);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns the writer of the producer. It has to be closed when the
+     * producer is done.
+     *
+     * @return the writer of the producer.
+     */
+    public Writer sink() {
+        return sink;
+    }
+
+    /**
+     * Returns the reader of the consumer. Reading rethrows the failure of the
+     * producer, once all the text written before the failure was read.
+     *
+     * @return the reader of the consumer.
+     */
+    public Reader source() {
+        return source;
+    }
+
+    /**
+     * Signals the failure of the producer to the consumer.
+     *
+     * @param failure The failure of the producer.
+     */
+    public void fail(Throwable failure) {
+        this.failure = failure;
+        try {
+            sink.put(END);
+        } catch (IOException e) {
+            // the source was closed, so nobody waits for the failure
+        }
+    }
+
+    /**
+     * The side of the producer, which collects small writes into chunks.
+     */
+    private class Sink extends Writer {
+
+        /**
+         * The text not yet passed to the consumer.
+         */
+        private StringBuilder pending = new StringBuilder();
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            pending.append(cbuf, off, len);
+            passFullChunk();
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            pending.append(str, off, off + len);
+            passFullChunk();
+        }
+
+        @Override
+        public Writer append(CharSequence csq) throws IOException {
+            pending.append(csq);
+            passFullChunk();
+            return this;
+        }
+
+        /**
+         * Passes the pending text to the consumer, if it fills a chunk.
+         *
+         * @throws IOException if the source was closed.
+         */
+        private void passFullChunk() throws IOException {
+            if (pending.length() >= chunkSize) {
+                flush();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (pending.length() > 0) {
+                put(pending.toString());
+                pending = new StringBuilder();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            put(END);
+        }
+
+        /**
+         * Puts a chunk into the pipe, waiting for the consumer if the pipe is
+         * full.
+         *
+         * @param chunk The chunk.
+         * @throws IOException if the source was closed.
+         */
+        private void put(String chunk) throws IOException {
+            try {
+                while (!chunks.offer(chunk, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    if (closed) {
+                        throw new IOException("The pipe was closed by the consumer.");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing to the pipe.", e);
+            }
+        }
+    }
+
+    /**
+     * The side of the consumer.
+     */
+    private class Source extends Reader {
+
+        /**
+         * The chunk being read or {@code null}.
+         */
+        private String chunk;
+
+        /**
+         * The position in the chunk being read.
+         */
+        private int pos;
+
+        /**
+         * {@code true} if the end of the text was reached.
+         */
+        private boolean eof;
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (chunk == null || pos == chunk.length()) {
+                if (eof || !nextChunk()) {
+                    return -1;
+                }
+            }
+            int read = Math.min(len, chunk.length() - pos);
+            chunk.getChars(pos, pos + read, cbuf, off);
+            pos += read;
+            return read;
+        }
+
+        /**
+         * Takes the next chunk from the pipe, waiting for the producer if the
+         * pipe is empty.
+         *
+         * @return {@code true} if there is a next chunk, {@code false} at the
+         * end of the text.
+         * @throws IOException if the producer failed with a checked exception.
+         */
+        private boolean nextChunk() throws IOException {
+            try {
+                chunk = chunks.take();
+                pos = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading from the pipe.", e);
+            }
+            if (chunk == END) {
+                eof = true;
+                Throwable cause = failure;
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause != null) {
+                    throw new IOException(cause);
+                }
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            chunks.clear();
+        }
+    }
+}
@@ -0,0 +1,541 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.fernandes.properties.model.IncludeCache;
+import org.fernandes.properties.model.IncludeType;
+
+/**
+ * The default cache of the include contents, keyed by the resolved URL.
+ * <p>
+ * A content is used without any check during the time to live of its type.
+ * After that it is revalidated: files by their modification time and size,
+ * HTTP includes with a conditional request using the {@code ETag} and the
+ * {@code Last-Modified} header of the previous response, and classpath
+ * resources by their modification time and length. Per default the time to
+ * live is 0, so that every include is revalidated.
+ * <p>
+ * With stale-while-revalidate, an expired content is returned immediately
+ * while it is revalidated in the background, so that a slow or unreachable
+ * include server does not block a reload.
+ * <p>
+ * A content is loaded or revalidated by one thread at a time, while the other
+ * threads fetching it wait for the result. The cache keeps at most
+ * {@link #DEFAULT_MAXIMUM_SIZE} contents per default and evicts the contents
+ * fetched least recently.
+ *
+ * @author onepoint
+ */
+public class DefaultIncludeCache implements IncludeCache {
+
+    /**
+     * The logging class.
+     */
+    private static final Logger LOG = Logger.getLogger(DefaultIncludeCache.class.getName());
+
+    /**
+     * The default maximum number of cached contents.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    /**
+     * The cached contents by key.
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The contents being loaded or revalidated by key.
+     */
+    private final Map<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * The maximum number of cached contents.
+     */
+    private volatile int maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+    /**
+     * The time to live in nanoseconds by type.
+     */
+    private final Map<IncludeType, Long> ttls = new EnumMap<>(IncludeType.class);
+
+    /**
+     * If {@code true} expired contents are revalidated in the background.
+     */
+    private volatile boolean staleWhileRevalidate;
+
+    /**
+     * The executor revalidating in the background.
+     */
+    private volatile Executor executor = PrefetchExecutor.INSTANCE;
+
+    /**
+     * The number of contents returned from the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * The number of contents loaded.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Sets the time to live of the contents of a type of include.
+     *
+     * @param type The type of include.
+     * @param ttl The time during which a content is used without check.
+     * @param unit The unit of the time to live.
+     * @return a reference to this object.
+     */
+    public synchronized DefaultIncludeCache setTtl(IncludeType type, long ttl, TimeUnit unit) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("The time to live cannot be negative.");
+        }
+        ttls.put(type, unit.toNanos(ttl));
+        return this;
+    }
+
+    /**
+     * Returns the time to live of a type of include in nanoseconds.
+     *
+     * @param type The type of include.
+     * @return the time to live of the type in nanoseconds.
+     */
+    private synchronized long ttl(IncludeType type) {
+        Long ttl = ttls.get(type);
+        return ttl == null ? 0 : ttl;
+    }
+
+    /**
+     * Sets the maximum number of cached contents. When it is exceeded, the
+     * contents fetched least recently are evicted.
+     *
+     * @param maximumSize The maximum number of cached contents.
+     * @return a reference to this object.
+     */
+    public DefaultIncludeCache setMaximumSize(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("The maximum size has to be positive.");
+        }
+        this.maximumSize = maximumSize;
+        evict();
+        return this;
+    }
+
+    /**
+     * Returns the number of cached contents.
+     *
+     * @return the number of cached contents.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Sets the stale-while-revalidate mode.
+     *
+     * @param staleWhileRevalidate If {@code true} an expired content is
+     * returned and revalidated in the background.
+     * @return a reference to this object.
+     */
+    public DefaultIncludeCache setStaleWhileRevalidate(boolean staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        return this;
+    }
+
+    /**
+     * Sets the executor revalidating in the background.
+     *
+     * @param executor The executor revalidating in the background.
+     * @return a reference to this object.
+     */
+    public DefaultIncludeCache setExecutor(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("The executor is null.");
+        }
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Returns the number of contents returned from the cache, because they
+     * were not expired, did not change or were returned while being
+     * revalidated.
+     *
+     * @return the number of contents returned from the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of contents loaded, because they were not cached or
+     * changed.
+     *
+     * @return the number of contents loaded.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the content of an include, from the cache if possible.
+     *
+     * @param type The type of the include.
+     * @param url The resolved URL of the include.
+     * @return the content of the include.
+     */
+    @Override
+    public CharSequence fetch(IncludeType type, URL url) {
+        String key = key(url);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return revalidate(key, type, url, null).content;
+        }
+        entry.accessed = System.nanoTime();
+        if (entry.accessed - entry.checked < ttl(type)) {
+            hits.incrementAndGet();
+            return entry.content;
+        }
+        if (staleWhileRevalidate) {
+            hits.incrementAndGet();
+            Entry stale = entry;
+            if (stale.revalidating.compareAndSet(false, true)) {
+                executor.execute(() -> {
+                    try {
+                        revalidate(key, type, url, stale);
+                    } catch (RuntimeException e) {
+                        LOG.log(Level.WARNING, String.format("Could not revalidate %s.", url), e);
+                    } finally {
+                        stale.revalidating.set(false);
+                    }
+                });
+            }
+            return stale.content;
+        }
+        return revalidate(key, type, url, entry).content;
+    }
+
+    /**
+     * Removes the content of an include from the cache.
+     *
+     * @param url The resolved URL of the include.
+     */
+    @Override
+    public void invalidate(URL url) {
+        entries.remove(key(url));
+    }
+
+    /**
+     * Removes all contents from the cache.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Checks a cached content and loads it again, if it changed, or loads a
+     * content, which is not cached. If another thread is already loading the
+     * content, its result is awaited instead.
+     *
+     * @param key The key of the content.
+     * @param type The type of the include.
+     * @param url The resolved URL of the include.
+     * @param entry The cached content or {@code null}.
+     * @return the valid content.
+     */
+    private Entry revalidate(String key, IncludeType type, URL url, Entry entry) {
+        CompletableFuture<Entry> created = new CompletableFuture<>();
+        CompletableFuture<Entry> running = loading.putIfAbsent(key, created);
+        if (running != null) {
+            hits.incrementAndGet();
+            return await(running);
+        }
+        try {
+            Entry valid = load(type, url, entry);
+            if (valid == entry) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+                entries.put(key, valid);
+                evict();
+            }
+            created.complete(valid);
+            return valid;
+        } catch (RuntimeException e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, created);
+        }
+    }
+
+    /**
+     * Waits for a content loaded by another thread.
+     *
+     * @param running The content being loaded.
+     * @return the loaded content.
+     * @throws RuntimeException if the content could not be loaded.
+     */
+    private static Entry await(CompletableFuture<Entry> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Evicts the contents fetched least recently, while there are more than
+     * the maximum number of contents.
+     */
+    private synchronized void evict() {
+        while (entries.size() > maximumSize) {
+            Map.Entry<String, Entry> eldest = null;
+            for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+                if (eldest == null || candidate.getValue().accessed - eldest.getValue().accessed < 0) {
+                    eldest = candidate;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            entries.remove(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    /**
+     * Returns the key of a URL. The URLs of the same file have the same key.
+     *
+     * @param url The URL.
+     * @return the key of the URL.
+     */
+    private static String key(URL url) {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return Paths.get(url.toURI()).toAbsolutePath().normalize().toUri().toString();
+            } catch (URISyntaxException | RuntimeException e) {
+                // use the URL itself
+            }
+        }
+        return url.toExternalForm();
+    }
+
+    /**
+     * Loads the content of an include, unless it did not change.
+     *
+     * @param type The type of the include.
+     * @param url The resolved URL of the include.
+     * @param previous The cached content or {@code null}.
+     * @return the previous content, if it did not change, else the loaded
+     * content.
+     */
+    private static Entry load(IncludeType type, URL url, Entry previous) {
+        try {
+            switch (type) {
+                case FILE:
+                    return loadFile(type, url, previous);
+                case HTTP:
+                    return loadHttp(url, previous);
+                default:
+                    return loadResource(type, url, previous);
+            }
+        } catch (IOException | URISyntaxException e) {
+            LOG.log(Level.SEVERE, null, e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Loads a file, unless its modification time and size did not change.
+     *
+     * @param type The type of the include.
+     * @param url The URL of the file.
+     * @param previous The cached content or {@code null}.
+     * @return the previous or the loaded content.
+     * @throws IOException if the file cannot be read.
+     * @throws URISyntaxException if the URL is not a valid URI.
+     */
+    private static Entry loadFile(IncludeType type, URL url, Entry previous) throws IOException, URISyntaxException {
+        Path path = Paths.get(url.toURI());
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long lastModified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        if (previous != null && previous.lastModified == lastModified && previous.size == attributes.size()) {
+            return previous.touch();
+        }
+        return new Entry(type.load(url), null, lastModified, attributes.size());
+    }
+
+    /**
+     * Loads a HTTP include with a conditional request, if it was cached.
+     *
+     * @param url The URL of the include.
+     * @param previous The cached content or {@code null}.
+     * @return the previous content, if the server answered "not modified",
+     * else the loaded content.
+     * @throws IOException if the include cannot be loaded.
+     */
+    private static Entry loadHttp(URL url, Entry previous) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            if (previous != null) {
+                if (previous.etag != null) {
+                    connection.setRequestProperty("If-None-Match", previous.etag);
+                }
+                if (previous.lastModified > 0) {
+                    connection.setIfModifiedSince(previous.lastModified);
+                }
+            }
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null) {
+                return previous.touch();
+            }
+            if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                throw new IOException(String.format("Could not load %s: HTTP status %d.", url, status));
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(),
+                    charset(connection)))) {
+                return new Entry(IOOperations.INSTANCE.copy(reader), connection.getHeaderField("ETag"),
+                        connection.getLastModified(), -1);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Returns the charset of a HTTP response.
+     *
+     * @param connection The connection with the response.
+     * @return the charset of the content type or the default charset.
+     */
+    private static Charset charset(URLConnection connection) {
+        String contentType = connection.getContentType();
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                String trimmed = parameter.trim();
+                if (trimmed.regionMatches(true, 0, "charset=", 0, 8)) {
+                    try {
+                        return Charset.forName(trimmed.substring(8).replace("\"", ""));
+                    } catch (IllegalArgumentException e) {
+                        LOG.log(Level.FINE, "Unknown charset.", e);
+                    }
+                }
+            }
+        }
+        return Charset.defaultCharset();
+    }
+
+    /**
+     * Loads a resource, unless its modification time and length did not
+     * change.
+     *
+     * @param type The type of the include.
+     * @param url The URL of the resource.
+     * @param previous The cached content or {@code null}.
+     * @return the previous or the loaded content.
+     * @throws IOException if the resource cannot be read.
+     */
+    private static Entry loadResource(IncludeType type, URL url, Entry previous) throws IOException {
+        URLConnection connection = url.openConnection();
+        long lastModified = connection.getLastModified();
+        long size = connection.getContentLengthLong();
+        if (previous != null && lastModified != 0 && previous.lastModified == lastModified && previous.size == size) {
+            return previous.touch();
+        }
+        return new Entry(type.load(url), null, lastModified, size);
+    }
+
+    /**
+     * A cached content with the data to revalidate it.
+     */
+    private static final class Entry {
+
+        /**
+         * The content.
+         */
+        private final CharSequence content;
+
+        /**
+         * The entity tag of a HTTP response or {@code null}.
+         */
+        private final String etag;
+
+        /**
+         * The modification time or 0, if it is unknown.
+         */
+        private final long lastModified;
+
+        /**
+         * The size or -1, if it is unknown.
+         */
+        private final long size;
+
+        /**
+         * The time of the last check as returned by {@link System#nanoTime()}.
+         */
+        private volatile long checked = System.nanoTime();
+
+        /**
+         * The time of the last fetch as returned by {@link System#nanoTime()}.
+         */
+        private volatile long accessed = checked;
+
+        /**
+         * {@code true} while the content is revalidated in the background.
+         */
+        private final AtomicBoolean revalidating = new AtomicBoolean();
+
+        /**
+         * Creates a cached content.
+         *
+         * @param content The content.
+         * @param etag The entity tag of a HTTP response or {@code null}.
+         * @param lastModified The modification time or 0.
+         * @param size The size or -1.
+         */
+        Entry(CharSequence content, String etag, long lastModified, long size) {
+            this.content = content;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        /**
+         * Marks the content as checked now.
+         *
+         * @return this object.
+         */
+        Entry touch() {
+            checked = System.nanoTime();
+            return this;
+        }
+    }
+}
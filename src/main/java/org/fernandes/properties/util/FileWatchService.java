@@ -0,0 +1,349 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches any number of files with a single watch service and a single
+ * daemon thread. Each directory is registered only once, no matter how many
+ * files in it are watched.
+ * <p>
+ * The events of a file are coalesced: the listeners of a file are called once,
+ * when no further event for the file arrived during the debounce window, so
+ * that a single save of an editor, which often modifies a file several times,
+ * causes a single call.
+ *
+ * @author onepoint
+ */
+public class FileWatchService implements Closeable {
+
+    /**
+     * The logging class.
+     */
+    private static final Logger LOG = Logger.getLogger(FileWatchService.class.getName());
+
+    /**
+     * The default debounce window in milliseconds.
+     */
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 200;
+
+    /**
+     * The debounce window in nanoseconds.
+     */
+    private final long debounceNanos;
+
+    /**
+     * The underlying watch service.
+     */
+    private final WatchService watcher;
+
+    /**
+     * The watched directories. Guarded by this object.
+     */
+    private final Map<Path, WatchedDirectory> directories = new HashMap<>();
+
+    /**
+     * The files with events in the debounce window and the time, when their
+     * listeners are called. Only used by the watching thread.
+     */
+    private final Map<Path, Long> pending = new LinkedHashMap<>();
+
+    /**
+     * {@code true} if this service was closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a service with the default debounce window.
+     *
+     * @throws IOException if the watch service cannot be created.
+     */
+    public FileWatchService() throws IOException {
+        this(DEFAULT_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a service and starts its thread.
+     *
+     * @param debounce The time after the last event of a file, after which its
+     * listeners are called.
+     * @param unit The unit of the debounce window.
+     * @throws IOException if the watch service cannot be created.
+     */
+    public FileWatchService(long debounce, TimeUnit unit) throws IOException {
+        if (debounce < 0) {
+            throw new IllegalArgumentException("The debounce window cannot be negative.");
+        }
+        this.debounceNanos = unit.toNanos(debounce);
+        this.watcher = FileSystems.getDefault().newWatchService();
+        Thread thread = new Thread(this::watch, "FileWatchService");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Watches a file for changes.
+     *
+     * @param file The file to watch.
+     * @param listener Called in the thread of this service, after the file
+     * was created or modified. It has to return quickly and to hand long
+     * running work, like a reload, to another thread, since it delays the
+     * listeners of all other files.
+     * @return the registration, which stops watching when it is closed.
+     * @throws IOException if the directory of the file cannot be watched.
+     * @throws IllegalStateException if this service was closed.
+     */
+    public synchronized Closeable watch(Path file, Runnable listener) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("The file watch service is closed.");
+        }
+        Path absolute = file.toAbsolutePath().normalize();
+        Path dir = absolute.getParent();
+        WatchedDirectory watched = directories.get(dir);
+        if (watched == null) {
+            WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            watched = new WatchedDirectory(key);
+            directories.put(dir, watched);
+        }
+        Registration registration = new Registration(dir, absolute.getFileName(), listener);
+        watched.listeners.computeIfAbsent(absolute.getFileName(), name -> new CopyOnWriteArrayList<>())
+                .add(registration);
+        return registration;
+    }
+
+    /**
+     * Stops watching a file for a listener and stops watching its directory,
+     * if no other file in it is watched.
+     *
+     * @param registration The registration of the listener.
+     */
+    private synchronized void unwatch(Registration registration) {
+        WatchedDirectory watched = directories.get(registration.dir);
+        if (watched == null) {
+            return;
+        }
+        List<Registration> listeners = watched.listeners.get(registration.fileName);
+        if (listeners != null) {
+            listeners.remove(registration);
+            if (listeners.isEmpty()) {
+                watched.listeners.remove(registration.fileName);
+            }
+        }
+        if (watched.listeners.isEmpty()) {
+            watched.key.cancel();
+            directories.remove(registration.dir);
+        }
+    }
+
+    /**
+     * Returns the listeners of a file.
+     *
+     * @param file The absolute path of the file.
+     * @return the listeners of the file or {@code null}.
+     */
+    private synchronized List<Registration> listeners(Path file) {
+        WatchedDirectory watched = directories.get(file.getParent());
+        return watched == null ? null : watched.listeners.get(file.getFileName());
+    }
+
+    /**
+     * Returns {@code true} if there are listeners of a file.
+     *
+     * @param dir The directory of the file.
+     * @param fileName The name of the file.
+     * @return {@code true} if there are listeners of the file.
+     */
+    private synchronized boolean isWatched(Path dir, Path fileName) {
+        WatchedDirectory watched = directories.get(dir);
+        return watched != null && watched.listeners.containsKey(fileName);
+    }
+
+    /**
+     * Stops the thread and releases the watch service. All registrations are
+     * discarded.
+     *
+     * @throws IOException if the watch service cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            directories.clear();
+        }
+        watcher.close();
+    }
+
+    /**
+     * Returns {@code true} if this service was closed.
+     *
+     * @return {@code true} if this service was closed, else {@code false}.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Waits for events, collects the changed files and calls their listeners
+     * after the debounce window.
+     */
+    private void watch() {
+        try {
+            while (!closed) {
+                WatchKey key;
+                if (pending.isEmpty()) {
+                    key = watcher.take();
+                } else {
+                    long wait = pending.values().stream().mapToLong(Long::longValue).min().getAsLong() - System.nanoTime();
+                    key = watcher.poll(Math.max(wait, 0), TimeUnit.NANOSECONDS);
+                }
+                if (key != null) {
+                    collect(key);
+                }
+                fireDue();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // the service was closed
+        }
+    }
+
+    /**
+     * Marks the watched files with events of a key as changed.
+     *
+     * @param key The key with events.
+     */
+    private void collect(WatchKey key) {
+        Path dir = (Path) key.watchable();
+        long due = System.nanoTime() + debounceNanos;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                synchronized (this) {
+                    WatchedDirectory watched = directories.get(dir);
+                    if (watched != null) {
+                        for (Path fileName : watched.listeners.keySet()) {
+                            pending.put(dir.resolve(fileName), due);
+                        }
+                    }
+                }
+            } else {
+                Path fileName = (Path) event.context();
+                if (isWatched(dir, fileName)) {
+                    pending.put(dir.resolve(fileName), due);
+                }
+            }
+        }
+        key.reset();
+    }
+
+    /**
+     * Calls the listeners of the files, whose debounce window passed.
+     */
+    private void fireDue() {
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<Path, Long>> it = pending.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Path, Long> entry = it.next();
+            if (entry.getValue() - now > 0) {
+                continue;
+            }
+            it.remove();
+            List<Registration> listeners = listeners(entry.getKey());
+            if (listeners == null) {
+                continue;
+            }
+            for (Registration registration : listeners) {
+                try {
+                    registration.listener.run();
+                } catch (RuntimeException e) {
+                    LOG.log(Level.SEVERE, String.format("Could not process the change of %s.", entry.getKey()), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A watched directory with the listeners of its files.
+     */
+    private static final class WatchedDirectory {
+
+        /**
+         * The key of the directory.
+         */
+        private final WatchKey key;
+
+        /**
+         * The listeners by file name.
+         */
+        private final Map<Path, List<Registration>> listeners = new HashMap<>();
+
+        /**
+         * Associates this object to the key of the directory.
+         *
+         * @param key The key of the directory.
+         */
+        WatchedDirectory(WatchKey key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * The registration of a listener of a file.
+     */
+    private final class Registration implements Closeable {
+
+        /**
+         * The directory of the file.
+         */
+        private final Path dir;
+
+        /**
+         * The name of the file.
+         */
+        private final Path fileName;
+
+        /**
+         * The listener.
+         */
+        private final Runnable listener;
+
+        /**
+         * Associates this registration to a file and a listener.
+         *
+         * @param dir The directory of the file.
+         * @param fileName The name of the file.
+         * @param listener The listener.
+         */
+        Registration(Path dir, Path fileName, Runnable listener) {
+            this.dir = dir;
+            this.fileName = fileName;
+            this.listener = listener;
+        }
+
+        /**
+         * Stops watching the file for the listener.
+         */
+        @Override
+        public void close() {
+            unwatch(this);
+        }
+    }
+}
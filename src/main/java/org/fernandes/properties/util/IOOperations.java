@@ -16,17 +16,18 @@ public enum IOOperations {
     INSTANCE;
     
     /**
-     * Copies a reader into a character sequence.
+     * Copies a reader into a character sequence. The reader is read until its
+     * end, even if the characters arrive slowly, like from a HTTP connection.
      * @param reader The reader to be read from.
-     * @return 
-     * @throws IOException 
+     * @return the characters of the reader.
+     * @throws IOException if the reader cannot be read.
      */
     public CharSequence copy(Reader reader) throws IOException {
         char[] buf = new char[4096];
-        StringBuffer sb = new StringBuffer();
-        while(reader.ready()) {
-            int length = reader.read(buf);
-            sb.append(new String(buf, 0, length));
+        StringBuilder sb = new StringBuilder();
+        int length;
+        while((length = reader.read(buf)) != -1) {
+            sb.append(buf, 0, length);
         }
         return sb;
     }
@@ -0,0 +1,87 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The default executor fetching includes concurrently as a singleton. It runs
+ * at most {@link #PARALLELISM} fetches at the same time, on virtual threads if
+ * the runtime supports them, else on a fixed pool of daemon threads.
+ *
+ * @author onepoint
+ */
+public enum PrefetchExecutor implements Executor {
+
+    /**
+     * Singleton instance.
+     */
+    INSTANCE;
+
+    /**
+     * The maximum number of concurrent fetches.
+     */
+    public static final int PARALLELISM = 16;
+
+    /**
+     * The executor running the fetches.
+     */
+    private final ExecutorService delegate;
+
+    /**
+     * Limits the number of concurrent fetches on virtual threads or
+     * {@code null} if the pool is bounded itself.
+     */
+    private final Semaphore permits;
+
+    /**
+     * Creates the executor with virtual threads, if they are available.
+     */
+    private PrefetchExecutor() {
+        ExecutorService virtual = null;
+        try {
+            virtual = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Logger.getLogger(PrefetchExecutor.class.getName()).log(Level.FINE, "No virtual threads available.", e);
+        }
+        if (virtual != null) {
+            this.delegate = virtual;
+            this.permits = new Semaphore(PARALLELISM);
+        } else {
+            this.delegate = Executors.newFixedThreadPool(PARALLELISM, r -> {
+                Thread thread = new Thread(r, "include prefetch");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.permits = null;
+        }
+    }
+
+    /**
+     * Runs a fetch, as soon as less than {@link #PARALLELISM} fetches run.
+     *
+     * @param command The fetch.
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (permits == null) {
+            delegate.execute(command);
+            return;
+        }
+        delegate.execute(() -> {
+            permits.acquireUninterruptibly();
+            try {
+                command.run();
+            } finally {
+                permits.release();
+            }
+        });
+    }
+}
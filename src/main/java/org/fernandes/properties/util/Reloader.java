@@ -3,19 +3,40 @@
  */
 package org.fernandes.properties.util;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.nio.file.Path;
-import java.nio.file.StandardWatchEventKinds;
-import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
-import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
-import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.fernandes.properties.factory.HierarchicalPreprocessorFactory;
 import org.fernandes.properties.model.HierarchicalProperties;
+import org.fernandes.properties.model.IncludeType;
+import org.fernandes.properties.parser.ParseOptions;
 
 /**
- * Used to reload the hierarchical properties in case of need.
+ * Used to reload the hierarchical properties in case of need. All properties
+ * files are watched by one shared {@link FileWatchService}, so that watching
+ * many files does not need a thread per file.
+ * <p>
+ * Besides the properties file itself, the files it includes are watched. A
+ * change of one of them reloads only the properties, which depend on it.
+ * <p>
+ * The reloads run on the reload executor and not on the thread of the watch
+ * service, so that a slow reload does not delay the changes of other files.
+ * Each properties file is reloaded by one task at a time.
  *
  * @author onepoint
  */
@@ -26,6 +47,20 @@ public enum Reloader {
      */
     INSTANCE;
 
+    /**
+     * The shared watch service, created on first use.
+     */
+    private FileWatchService watchService;
+
+    /**
+     * The executor of the reloads, which uses daemon threads per default.
+     */
+    private volatile Executor reloadExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "properties reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * Reloads the properties in case the file changes on the file system.
      *
@@ -33,43 +68,297 @@ public enum Reloader {
      * @param props The properties file object itself.
      */
     public void startReloadThread(Path propsPath, HierarchicalProperties props) {
+        startReloadThread(propsPath, props, new ParseOptions());
+    }
+
+    /**
+     * Reloads the properties in case the file changes on the file system. If
+     * the changed file cannot be parsed in fail fast mode, the properties are
+     * left unchanged.
+     *
+     * @param propsPath The path of the properties file.
+     * @param props The properties file object itself.
+     * @param options The options used to parse the properties file.
+     */
+    public void startReloadThread(Path propsPath, HierarchicalProperties props, ParseOptions options) {
+        watch(propsPath, props, options);
+    }
+
+    /**
+     * Reloads the properties in case the file or one of its included files
+     * changes on the file system. Only the file itself is watched at first,
+     * since it is not preprocessed again to find its includes. The included
+     * files are watched after the first reload. If the changed file cannot be
+     * parsed in fail fast mode, the properties are left unchanged. Use
+     * {@link #watch(Path, Collection, HierarchicalProperties, ParseOptions)}
+     * with the files collected by the load to watch the includes right away.
+     *
+     * @param propsPath The path of the properties file.
+     * @param props The properties file object itself.
+     * @param options The options used to parse the properties file.
+     * @return the registration, which stops the reloading when it is closed.
+     */
+    public Closeable watch(Path propsPath, HierarchicalProperties props, ParseOptions options) {
+        return watch(propsPath, Collections.singleton(propsPath), props, options);
+    }
+
+    /**
+     * Reloads the properties in case the file or one of its dependencies
+     * changes on the file system. The dependencies are updated after each
+     * reload. If the changed file cannot be parsed in fail fast mode, the
+     * properties are left unchanged.
+     *
+     * @param propsPath The path of the properties file.
+     * @param dependencies The files the properties were read from, like the
+     * files included by the properties file.
+     * @param props The properties file object itself.
+     * @param options The options used to parse the properties file.
+     * @return the registration, which stops the reloading when it is closed.
+     */
+    public Closeable watch(Path propsPath, Collection<Path> dependencies, HierarchicalProperties props,
+            ParseOptions options) {
+        Watch watch = new Watch(propsPath, props, options);
+        watch.update(dependencies);
+        return watch;
+    }
+
+    /**
+     * Returns the shared watch service and creates it with the default
+     * debounce window, if there is none.
+     *
+     * @return the shared watch service.
+     */
+    public synchronized FileWatchService getWatchService() {
+        if (watchService == null || watchService.isClosed()) {
+            try {
+                watchService = new FileWatchService();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return watchService;
+    }
+
+    /**
+     * Replaces the shared watch service, for example to use another debounce
+     * window. Should be called before the first file is watched, since the
+     * files watched by the previous service are not watched anymore.
+     *
+     * @param watchService The new shared watch service.
+     * @throws IOException if the previous watch service cannot be closed.
+     */
+    public synchronized void setWatchService(FileWatchService watchService) throws IOException {
+        if (this.watchService != null && this.watchService != watchService) {
+            this.watchService.close();
+        }
+        this.watchService = watchService;
+    }
 
-        new Thread() {
-
-            /**
-             * Watches a directory to see, if there was a modification on the
-             * properties file and if there is one, simply reloads the file and
-             * resets the root.
-             */
-            @Override
-            public void run() {
-                Path dir = propsPath.getParent();
-                for (;;) {
+    /**
+     * Sets the executor, which reloads the properties after their files
+     * changed. Each properties file is reloaded by one task at a time. The
+     * default executor uses daemon threads.
+     *
+     * @param reloadExecutor The executor of the reloads.
+     */
+    public void setReloadExecutor(Executor reloadExecutor) {
+        if (reloadExecutor == null) {
+            throw new IllegalArgumentException("The reload executor is null.");
+        }
+        this.reloadExecutor = reloadExecutor;
+    }
+
+    /**
+     * Stops watching all properties files. A new watch service is created,
+     * when the next file is watched.
+     *
+     * @throws IOException if the watch service cannot be closed.
+     */
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+    }
+
+    /**
+     * The reloading of one properties file, which watches the file and the
+     * files it depends on.
+     */
+    private final class Watch implements Closeable {
+
+        /**
+         * The path of the properties file.
+         */
+        private final Path propsPath;
+
+        /**
+         * The properties file object itself.
+         */
+        private final HierarchicalProperties props;
+
+        /**
+         * The options used to parse the properties file.
+         */
+        private final ParseOptions options;
+
+        /**
+         * The registrations of the watched files.
+         */
+        private final Map<Path, Closeable> registrations = new HashMap<>();
+
+        /**
+         * The changed files, which were not yet reloaded.
+         */
+        private final Set<Path> changedFiles = ConcurrentHashMap.newKeySet();
+
+        /**
+         * {@code true} while a reload task is scheduled or running.
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * {@code true} after this watch was closed.
+         */
+        private volatile boolean closed;
+
+        /**
+         * Associates this watch to the properties.
+         *
+         * @param propsPath The path of the properties file.
+         * @param props The properties file object itself.
+         * @param options The options used to parse the properties file.
+         */
+        Watch(Path propsPath, HierarchicalProperties props, ParseOptions options) {
+            this.propsPath = propsPath;
+            this.props = props;
+            this.options = options;
+        }
+
+        /**
+         * Records a changed file and starts a reload task, if none is
+         * scheduled or running. Called in the thread of the watch service.
+         *
+         * @param changed The changed file.
+         */
+        private void changed(Path changed) {
+            changedFiles.add(changed);
+            schedule();
+        }
+
+        /**
+         * Starts a reload task, if none is scheduled or running.
+         */
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    reloadExecutor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    Logger.getLogger(Reloader.class.getName()).log(Level.SEVERE,
+                            String.format("Could not reload %s.", propsPath), e);
+                }
+            }
+        }
+
+        /**
+         * Reloads the properties file, until no file changed during the last
+         * reload.
+         */
+        private void drain() {
+            while (!changedFiles.isEmpty() && !closed) {
+                for (Path changed : changedFiles) {
+                    changedFiles.remove(changed);
                     try {
-                        WatchService watcher = dir.getFileSystem().newWatchService();
-                        dir.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY);
-                        WatchKey watckKey = watcher.take();
-                        List<WatchEvent<?>> events = watckKey.pollEvents();
-                        events.stream().filter((event) -> (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY)).forEach((event) -> {
-                            WatchEvent.Kind<?> kind = event.kind();
-                            if (kind != OVERFLOW) {
-                                // The filename is the
-                                // context of the event.
-                                WatchEvent<Path> ev = (WatchEvent<Path>) event;
-                                Path filename = ev.context();
-                                final Path fileName = propsPath.getFileName();
-                                if (filename.equals(fileName)) {
-                                    HierarchicalProperties reloadedProps = HierarchicalPreprocessorFactory.createInstance(propsPath);
-                                    props.setRoot(reloadedProps.getRoot());
-                                }
-                            }
-                        });
-                    } catch (IOException | InterruptedException e) {
-                        throw new RuntimeException(e);
+                        IncludeType.getCache().invalidate(changed.toUri().toURL());
+                    } catch (MalformedURLException e) {
+                        Logger.getLogger(Reloader.class.getName()).log(Level.WARNING, null, e);
                     }
                 }
+                reload();
+            }
+            scheduled.set(false);
+            if (!changedFiles.isEmpty() && !closed) {
+                schedule();
+            }
+        }
+
+        /**
+         * Reloads the properties file and replaces the root of the
+         * properties.
+         */
+        private void reload() {
+            Set<Path> dependencies = new LinkedHashSet<>();
+            try {
+                HierarchicalProperties reloadedProps = HierarchicalPreprocessorFactory.createInstance(propsPath,
+                        options, dependencies);
+                props.setRoot(reloadedProps.getRoot());
+            } catch (RuntimeException e) {
+                Logger.getLogger(Reloader.class.getName()).log(Level.SEVERE,
+                        String.format("Could not reload %s.", propsPath), e);
+                return;
+            }
+            update(dependencies);
+        }
+
+        /**
+         * Watches the new dependencies and stops watching the files, which are
+         * not dependencies anymore.
+         *
+         * @param dependencies The files the properties were read from.
+         */
+        private synchronized void update(Collection<Path> dependencies) {
+            if (closed) {
+                return;
+            }
+            Set<Path> files = new LinkedHashSet<>();
+            for (Path dependency : dependencies) {
+                files.add(dependency.toAbsolutePath().normalize());
+            }
+            for (Iterator<Map.Entry<Path, Closeable>> it = registrations.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<Path, Closeable> registration = it.next();
+                if (!files.contains(registration.getKey())) {
+                    unwatch(registration.getValue());
+                    it.remove();
+                }
+            }
+            for (Path file : files) {
+                if (!registrations.containsKey(file)) {
+                    try {
+                        registrations.put(file, getWatchService().watch(file, () -> changed(file)));
+                    } catch (IOException e) {
+                        if (file.equals(propsPath.toAbsolutePath().normalize())) {
+                            throw new RuntimeException(e);
+                        }
+                        Logger.getLogger(Reloader.class.getName()).log(Level.WARNING,
+                                String.format("Could not watch %s included by %s.", file, propsPath), e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Closes a registration of a file.
+         *
+         * @param registration The registration of a file.
+         */
+        private void unwatch(Closeable registration) {
+            try {
+                registration.close();
+            } catch (IOException e) {
+                Logger.getLogger(Reloader.class.getName()).log(Level.WARNING, null, e);
             }
-        }.start();
+        }
 
+        /**
+         * Stops watching the properties file and its dependencies.
+         */
+        @Override
+        public synchronized void close() {
+            closed = true;
+            changedFiles.clear();
+            registrations.values().forEach(this::unwatch);
+            registrations.clear();
+        }
     }
 }
@@ -0,0 +1,318 @@
+/*
+ OSSCUBE 2014
+ */
+
+package org.fernandes.properties.util;
+
+import java.util.Arrays;
+
+/**
+ * A character sequence made of segments, which references the appended
+ * character sequences instead of copying them. Short segments are collected
+ * in a shared buffer, so that a rope with many small pieces of text does not
+ * degrade into a long list of segments.
+ * <p>
+ * The appended character sequences must not change afterwards. The rope is
+ * not thread safe. Text, which is shared by many ropes, like the text of a
+ * compiled template, can be referenced regardless of its length with
+ * {@link #appendShared(CharSequence)}.
+ *
+ * @author onepoint
+ */
+public final class Rope implements CharSequence, Appendable {
+
+    /**
+     * The length up to which appended text is copied into the buffer of short
+     * segments instead of being referenced.
+     */
+    static final int COPY_LIMIT = 64;
+
+    /**
+     * The segments.
+     */
+    private CharSequence[] segments = new CharSequence[8];
+
+    /**
+     * The index after the last character of each segment.
+     */
+    private int[] ends = new int[8];
+
+    /**
+     * The number of segments.
+     */
+    private int count;
+
+    /**
+     * The length of this rope.
+     */
+    private int length;
+
+    /**
+     * The last segment, if it is a buffer of short segments, which can still
+     * be appended to, else {@code null}.
+     */
+    private StringBuilder tail;
+
+    /**
+     * The segment found by the last call of {@link #charAt(int)}, so that
+     * reading the rope from start to end does not search for each character.
+     */
+    private int cursor;
+
+    /**
+     * Appends a character sequence. Sequences longer than {@link #COPY_LIMIT}
+     * are referenced and not copied.
+     *
+     * @param csq The character sequence to append.
+     * @return a reference to this object.
+     */
+    @Override
+    public Rope append(CharSequence csq) {
+        if (csq == null) {
+            return append("null");
+        }
+        int added = csq.length();
+        if (added == 0) {
+            return this;
+        }
+        if (csq instanceof Rope) {
+            return appendRope((Rope) csq, 0, added);
+        }
+        if (added <= COPY_LIMIT) {
+            appendToTail(csq, 0, added);
+        } else {
+            tail = null;
+            addSegment(csq);
+        }
+        return this;
+    }
+
+    /**
+     * Appends a part of a character sequence. Parts longer than
+     * {@link #COPY_LIMIT} are referenced as sub sequence.
+     *
+     * @param csq The character sequence to append.
+     * @param start The index of the first character to append.
+     * @param end The index after the last character to append.
+     * @return a reference to this object.
+     */
+    @Override
+    public Rope append(CharSequence csq, int start, int end) {
+        if (csq == null) {
+            return append("null", start, end);
+        }
+        if (start < 0 || start > end || end > csq.length()) {
+            throw new IndexOutOfBoundsException(String.format("start %d, end %d, length %d", start, end, csq.length()));
+        }
+        if (start == end) {
+            return this;
+        }
+        if (csq instanceof Rope) {
+            return appendRope((Rope) csq, start, end);
+        }
+        if (end - start <= COPY_LIMIT) {
+            appendToTail(csq, start, end);
+        } else {
+            tail = null;
+            addSegment(start == 0 && end == csq.length() ? csq : csq.subSequence(start, end));
+        }
+        return this;
+    }
+
+    /**
+     * Appends a character.
+     *
+     * @param c The character to append.
+     * @return a reference to this object.
+     */
+    @Override
+    public Rope append(char c) {
+        if (tail == null) {
+            tail = new StringBuilder();
+            addSegment(tail);
+        }
+        tail.append(c);
+        length++;
+        ends[count - 1] = length;
+        return this;
+    }
+
+    /**
+     * Appends a character sequence by reference regardless of its length, so
+     * that ropes containing the same text share it instead of copying it.
+     *
+     * @param csq The character sequence to reference.
+     * @return a reference to this object.
+     */
+    public Rope appendShared(CharSequence csq) {
+        if (csq == null || csq.length() == 0 || csq instanceof Rope) {
+            return append(csq);
+        }
+        tail = null;
+        addSegment(csq);
+        return this;
+    }
+
+    /**
+     * Returns a segment.
+     *
+     * @param index The index of the segment.
+     * @return the segment with the index.
+     */
+    public CharSequence getSegment(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(String.format("index %d, segments %d", index, count));
+        }
+        return segments[index];
+    }
+
+    /**
+     * Appends the segments of another rope between two indexes, referencing
+     * them instead of copying. The buffer of short segments of the other rope
+     * is closed, so that the referenced segments do not change.
+     *
+     * @param rope The rope to append.
+     * @param start The index of the first character to append.
+     * @param end The index after the last character to append.
+     * @return a reference to this object.
+     */
+    private Rope appendRope(Rope rope, int start, int end) {
+        rope.tail = null;
+        for (int i = rope.segmentAt(start); start < end; i++) {
+            int segmentStart = i == 0 ? 0 : rope.ends[i - 1];
+            int segmentEnd = Math.min(rope.ends[i], end);
+            append(rope.segments[i], start - segmentStart, segmentEnd - segmentStart);
+            start = segmentEnd;
+        }
+        return this;
+    }
+
+    /**
+     * Copies a short part of a character sequence into the buffer of short
+     * segments.
+     *
+     * @param csq The character sequence.
+     * @param start The index of the first character to copy.
+     * @param end The index after the last character to copy.
+     */
+    private void appendToTail(CharSequence csq, int start, int end) {
+        if (tail == null) {
+            tail = new StringBuilder(Math.max(COPY_LIMIT * 2, end - start));
+            addSegment(tail);
+        }
+        tail.append(csq, start, end);
+        length += end - start;
+        ends[count - 1] = length;
+    }
+
+    /**
+     * Adds a segment after the last one.
+     *
+     * @param segment The segment to add.
+     */
+    private void addSegment(CharSequence segment) {
+        if (count == segments.length) {
+            segments = Arrays.copyOf(segments, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        length += segment.length();
+        segments[count] = segment;
+        ends[count] = length;
+        count++;
+    }
+
+    /**
+     * Returns the index of the segment containing a character.
+     *
+     * @param index The index of the character.
+     * @return the index of the segment containing the character.
+     */
+    private int segmentAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(String.format("index %d, length %d", index, length));
+        }
+        int c = cursor;
+        if (index < ends[c] && (c == 0 || index >= ends[c - 1])) {
+            return c;
+        }
+        if (c + 1 < count && index >= ends[c] && index < ends[c + 1]) {
+            cursor = c + 1;
+            return cursor;
+        }
+        int found = Arrays.binarySearch(ends, 0, count, index);
+        // an index equal to the end of a segment is the start of the next one
+        cursor = found >= 0 ? found + 1 : -found - 1;
+        return cursor;
+    }
+
+    /**
+     * Returns the number of segments, which is the number of character
+     * sequences referenced by this rope.
+     *
+     * @return the number of segments.
+     */
+    public int segmentCount() {
+        return count;
+    }
+
+    /**
+     * Returns the length of this rope.
+     *
+     * @return the length of this rope.
+     */
+    @Override
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns the character at an index.
+     *
+     * @param index The index of the character.
+     * @return the character at the index.
+     */
+    @Override
+    public char charAt(int index) {
+        int segment = segmentAt(index);
+        return segments[segment].charAt(index - (segment == 0 ? 0 : ends[segment - 1]));
+    }
+
+    /**
+     * Returns a part of this rope. A part within a single segment is a sub
+     * sequence of the segment, else a rope referencing the segments.
+     *
+     * @param start The index of the first character.
+     * @param end The index after the last character.
+     * @return the part of this rope between the indexes.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || start > end || end > length) {
+            throw new IndexOutOfBoundsException(String.format("start %d, end %d, length %d", start, end, length));
+        }
+        if (start == end) {
+            return "";
+        }
+        int segment = segmentAt(start);
+        int segmentStart = segment == 0 ? 0 : ends[segment - 1];
+        if (end <= ends[segment]) {
+            return segments[segment].subSequence(start - segmentStart, end - segmentStart);
+        }
+        return new Rope().appendRope(this, start, end);
+    }
+
+    /**
+     * Returns the characters of this rope as a string, copying each segment
+     * once.
+     *
+     * @return the characters of this rope.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < count; i++) {
+            builder.append(segments[i]);
+        }
+        return builder.toString();
+    }
+}
@@ -3,13 +3,33 @@
  */
 package org.fernandes.properties.factory;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 import junit.framework.Assert;
+import org.fernandes.properties.model.DefaultNode;
 import org.fernandes.properties.model.HierarchicalProperties;
+import org.fernandes.properties.model.IncludeCache;
+import org.fernandes.properties.model.IncludeType;
 import org.fernandes.properties.model.PropertyNode;
+import org.fernandes.properties.parser.ParseException;
+import org.fernandes.properties.parser.ParseOptions;
+import org.fernandes.properties.parser.ParserEngine;
 import org.junit.Before;
+import org.fernandes.properties.util.DefaultIncludeCache;
+import org.fernandes.properties.util.Reloader;
 import org.junit.Test;
 
 /**
@@ -90,5 +110,264 @@ public class HierarchicalPreprocessorFactoryTest {
         }
     }
 
+    /**
+     * Checks that the pipelined and the sequential pre-processing produce 
+     * the same properties.
+     */
+    @Test
+    public void testPipelined() {
+        for (ParserEngine engine : ParserEngine.values()) {
+            for (String file : new String[]{"map_if_else_nested.txt", "map_for.txt", "map_include_cp.txt"}) {
+                Path path = Paths.get("src/test/resources/hierarchicalProperties", file);
+                HierarchicalProperties sequential = HierarchicalPreprocessorFactory.createInstance(path, false,
+                        new ParseOptions().setEngine(engine));
+                HierarchicalProperties pipelined = HierarchicalPreprocessorFactory.createInstance(path, false,
+                        new ParseOptions().setEngine(engine).setPipelined(true));
+                Assert.assertEquals(String.format("%s differs with %s", file, engine),
+                        sequential.toString(), pipelined.toString());
+            }
+        }
+        HierarchicalProperties props = HierarchicalPreprocessorFactory.createInstanceCp("hierarchicalProperties/map_if_types.txt",
+                new ParseOptions().setPipelined(true));
+        Assert.assertEquals("keyInt is not 123", Integer.valueOf(123), props.getNode("/Test").getPropertyAsInt("keyInt"));
+    }
+
+    /**
+     * Checks that a parse error in the pipeline is reported to the caller.
+     */
+    @Test
+    public void testPipelinedFailFast() {
+        Path path = null;
+        try {
+            path = Files.createTempFile("pipelined", ".txt");
+            Files.write(path, "[Test]\nkey1=1\n!!\n".getBytes(StandardCharsets.UTF_8));
+            HierarchicalPreprocessorFactory.createInstance(path, false, ParseOptions.failFast().setPipelined(true));
+            Assert.fail("The invalid input was parsed.");
+        } catch (ParseException ex) {
+            Assert.assertEquals("The error is not on line 3", 3, ex.getLine());
+        } catch (IOException ex) {
+            Logger.getLogger(HierarchicalPreprocessorFactoryTest.class.getName()).log(Level.SEVERE, null, ex);
+            org.junit.Assert.fail(ex.toString());
+        } finally {
+            if (path != null) {
+                path.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * Checks that the files included by a file are collected and that a change
+     * of an included file reloads the properties.
+     */
+    @Test
+    public void testIncludeDependencies() {
+        Path dir = null;
+        Closeable watch = null;
+        try {
+            dir = Files.createTempDirectory("dependencies");
+            Path include = dir.resolve("include.txt");
+            Path main = dir.resolve("main.txt");
+            Files.write(include, "includeKey = 1\n".getBytes(StandardCharsets.UTF_8));
+            String includeUrl = include.toUri().toString().substring("file:".length());
+            Files.write(main, String.format("[/Test]\n!<file:%s>\nkey1 = a\n", includeUrl)
+                    .getBytes(StandardCharsets.UTF_8));
+            for (boolean pipelined : new boolean[]{false, true}) {
+                Set<Path> dependencies = new LinkedHashSet<>();
+                HierarchicalProperties props = HierarchicalPreprocessorFactory.createInstance(main,
+                        new ParseOptions().setPipelined(pipelined), dependencies);
+                Assert.assertEquals("includeKey is not 1", "1", props.getNode("/Test").getProperty("includeKey"));
+                Assert.assertTrue("main is not a dependency", dependencies.contains(main));
+                Assert.assertTrue("include is not a dependency", dependencies.contains(include));
+            }
+            Set<Path> dependencies = new LinkedHashSet<>();
+            HierarchicalProperties props = HierarchicalPreprocessorFactory.createInstance(main, new ParseOptions(),
+                    dependencies);
+            watch = Reloader.INSTANCE.watch(main, dependencies, props, new ParseOptions());
+            Files.write(include, "includeKey = 22\n".getBytes(StandardCharsets.UTF_8));
+            long end = System.currentTimeMillis() + 10000;
+            while (!"22".equals(props.getNode("/Test").getProperty("includeKey")) && System.currentTimeMillis() < end) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals("includeKey was not reloaded", "22", props.getNode("/Test").getProperty("includeKey"));
+            Assert.assertEquals("key1 is not a", "a", props.getNode("/Test").getProperty("key1"));
+        } catch (IOException | InterruptedException ex) {
+            Logger.getLogger(HierarchicalPreprocessorFactoryTest.class.getName()).log(Level.SEVERE, null, ex);
+            org.junit.Assert.fail(ex.toString());
+        } finally {
+            close(watch);
+            delete(dir);
+        }
+    }
+
+    /**
+     * Creates the properties of several environments from one compilation of
+     * a file, which fetches its include only once.
+     */
+    @Test
+    public void testCreateInstances() {
+        IncludeCache previous = IncludeType.getCache();
+        DefaultIncludeCache cache = new DefaultIncludeCache();
+        IncludeType.setCache(cache);
+        Path dir = null;
+        try {
+            dir = Files.createTempDirectory("variants");
+            Path include = dir.resolve("include.txt");
+            Path main = dir.resolve("main.txt");
+            Files.write(include, "includeKey = 1\n".getBytes(StandardCharsets.UTF_8));
+            String includeUrl = include.toUri().toString().substring("file:".length());
+            Files.write(main, String.format("!<def:env=dev>\n[/Test]\n!<file:%s>\n"
+                    + "!<if:env == prod>\nkey1 = p\n!<elseif:env == staging>\nkey1 = s\n!<else>\nkey1 = !<$env>\n!<endif>\n",
+                    includeUrl).getBytes(StandardCharsets.UTF_8));
+            Map<String, Map<String, String>> defineSets = new LinkedHashMap<>();
+            defineSets.put("prod", Collections.singletonMap("env", "prod"));
+            defineSets.put("staging", Collections.singletonMap("env", "staging"));
+            defineSets.put("default", Collections.emptyMap());
+            Map<String, HierarchicalProperties> instances = HierarchicalPreprocessorFactory.createInstances(main,
+                    defineSets, new ParseOptions());
+            Assert.assertEquals(defineSets.keySet().toString(), instances.keySet().toString());
+            Assert.assertEquals("p", instances.get("prod").getNode("/Test").getProperty("key1"));
+            Assert.assertEquals("s", instances.get("staging").getNode("/Test").getProperty("key1"));
+            Assert.assertEquals("dev", instances.get("default").getNode("/Test").getProperty("key1"));
+            for (HierarchicalProperties props : instances.values()) {
+                Assert.assertEquals("1", props.getNode("/Test").getProperty("includeKey"));
+            }
+            Assert.assertEquals("The include was fetched more than once", 1, cache.getHits() + cache.getMisses());
+        } catch (IOException ex) {
+            Logger.getLogger(HierarchicalPreprocessorFactoryTest.class.getName()).log(Level.SEVERE, null, ex);
+            org.junit.Assert.fail(ex.toString());
+        } finally {
+            IncludeType.setCache(previous);
+            delete(dir);
+        }
+    }
 
-}
\ No newline at end of file
+    /**
+     * Checks that the sections generated by a for loop are parsed when they
+     * are read and contain the same nodes as the expanded loop.
+     */
+    @Test
+    public void testVirtualSections() {
+        Path main = null;
+        try {
+            main = Files.createTempFile("virtual", ".txt");
+            Files.write(main, ("[/common]\nkey = value\n!<def:env=prod>\n"
+                    + "!<for i = 1 : 2000>\n[/shard/!<$i>]\nname = shard_!<$i>_!<$env>\n"
+                    + "[/shard/!<$i>/db]\nurl = db!<$i>\n!<endfor>\n").getBytes(StandardCharsets.UTF_8));
+            for (ParserEngine engine : ParserEngine.values()) {
+                HierarchicalProperties expanded = HierarchicalPreprocessorFactory.createInstance(main, false,
+                        new ParseOptions().setEngine(engine));
+                HierarchicalProperties virtual = HierarchicalPreprocessorFactory.createInstance(main, false,
+                        new ParseOptions().setEngine(engine).setVirtualSections(true));
+                Assert.assertNull(virtual.getNode("/shard").getChildren().get("1712"));
+                Assert.assertEquals("shard_1712_prod", virtual.getNode("/shard/1712").getProperty("name"));
+                Assert.assertEquals("db1712", virtual.getNode("/shard/1712/db").getProperty("url"));
+                Assert.assertEquals("value", virtual.getNode("/common").getProperty("key"));
+                Assert.assertNotNull(virtual.getNode("/shard"));
+                Assert.assertNull(virtual.getNode("/shard/2001"));
+                Assert.assertNull(virtual.getNode("/shard/01"));
+                Assert.assertEquals(expanded.nodeCount(), virtual.nodeCount());
+                for (DefaultNode node : virtual) {
+                    Assert.assertEquals(expanded.getNode(node.getHierarchicalName()).getPropertyMap(), 
+                            node.getPropertyMap());
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(HierarchicalPreprocessorFactoryTest.class.getName()).log(Level.SEVERE, null, ex);
+            org.junit.Assert.fail(ex.toString());
+        } finally {
+            delete(main);
+        }
+    }
+
+    /**
+     * Test of the references from the tree into the virtual sections and of
+     * the properties after a loop, which keep the loop from being virtual.
+     */
+    @Test
+    public void testVirtualSectionsAfterLoop() {
+        Path main = null;
+        try {
+            main = Files.createTempFile("virtual", ".txt");
+            Files.write(main, ("[/a]\nx = 1\n!<for i = 1 : 3>\n[/shard/!<$i>]\nv = v!<$i>\n!<endfor>\n\n"
+                    + "[/b]\nr = ${/shard/2:v}\n").getBytes(StandardCharsets.UTF_8));
+            for (ParserEngine engine : ParserEngine.values()) {
+                HierarchicalProperties virtual = HierarchicalPreprocessorFactory.createInstance(main, false,
+                        new ParseOptions().setEngine(engine).setVirtualSections(true));
+                Assert.assertNull(virtual.getNode("/shard").getChildren().get("2"));
+                Assert.assertEquals("v2", virtual.getNode("/b").getProperty("r"));
+            }
+            Files.write(main, ("[/a]\nx = 1\n!<for i = 1 : 3>\n[/shard/!<$i>]\nv = v!<$i>\n!<endfor>\n\n"
+                    + "x = 9\n").getBytes(StandardCharsets.UTF_8));
+            for (ParserEngine engine : ParserEngine.values()) {
+                HierarchicalProperties expanded = HierarchicalPreprocessorFactory.createInstance(main, false,
+                        new ParseOptions().setEngine(engine));
+                HierarchicalProperties virtual = HierarchicalPreprocessorFactory.createInstance(main, false,
+                        new ParseOptions().setEngine(engine).setVirtualSections(true));
+                Assert.assertEquals("9", expanded.getNode("/shard/3").getProperty("x"));
+                Assert.assertEquals("9", virtual.getNode("/shard/3").getProperty("x"));
+                Assert.assertEquals("1", virtual.getNode("/a").getProperty("x"));
+                Assert.assertNotNull(virtual.getNode("/shard").getChildren().get("3"));
+            }
+            Files.write(main, ("[/a]\nx = 1\n!<for i = 1 : 3>\n[/shard/!<$i>]\nv = ${/a:x}\nw = ${/shard/!<$i>:v}!<$i>\n"
+                    + "!<endfor>\n").getBytes(StandardCharsets.UTF_8));
+            for (ParserEngine engine : ParserEngine.values()) {
+                HierarchicalProperties expanded = HierarchicalPreprocessorFactory.createInstance(main, false,
+                        new ParseOptions().setEngine(engine));
+                Assert.assertEquals("1", expanded.getNode("/shard/2").getProperty("v"));
+                for (boolean lazy : new boolean[]{false, true}) {
+                    HierarchicalProperties virtual = HierarchicalPreprocessorFactory.createInstance(main, false,
+                            new ParseOptions().setEngine(engine).setVirtualSections(true).setLazyReferences(lazy));
+                    DefaultNode node = (DefaultNode) virtual.getNode("/shard/2");
+                    Assert.assertEquals("1", node.getProperty("v"));
+                    Assert.assertEquals("12", node.getProperty("w"));
+                    Assert.assertSame(virtual.getNode("/shard"), node.getParent());
+                    Assert.assertNull(virtual.getNode("/shard").getChildren().get("2"));
+                }
+            }
+            try {
+                HierarchicalPreprocessorFactory.createInstance(main, false,
+                        new ParseOptions().setPipelined(true).setVirtualSections(true));
+                org.junit.Assert.fail("The pipelined parse accepted the virtual sections.");
+            } catch (IllegalArgumentException ex) {
+                Assert.assertNotNull(ex.getMessage());
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(HierarchicalPreprocessorFactoryTest.class.getName()).log(Level.SEVERE, null, ex);
+            org.junit.Assert.fail(ex.toString());
+        } finally {
+            delete(main);
+        }
+    }
+
+    /**
+     * Stops a reloading.
+     *
+     * @param watch The registration of the reloading or {@code null}.
+     */
+    private static void close(Closeable watch) {
+        if (watch == null) {
+            return;
+        }
+        try {
+            watch.close();
+        } catch (IOException ex) {
+            Logger.getLogger(HierarchicalPreprocessorFactoryTest.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * Deletes a file or a directory with its files.
+     *
+     * @param path The file, the directory or {@code null}.
+     */
+    private static void delete(Path path) {
+        if (path == null) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException ex) {
+            Logger.getLogger(HierarchicalPreprocessorFactoryTest.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+}
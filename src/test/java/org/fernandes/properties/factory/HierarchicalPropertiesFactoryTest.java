@@ -5,11 +5,33 @@
 package org.fernandes.properties.factory;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.fernandes.properties.model.DefaultHierarchicalProperties;
+import org.fernandes.properties.model.DefaultNode;
 import org.fernandes.properties.model.HierarchicalProperties;
+import org.fernandes.properties.model.HierarchicalPropertyChangeEvent;
 import org.fernandes.properties.model.PropertyNode;
+import org.fernandes.properties.model.RootChangeEvent;
+import org.fernandes.properties.parser.ParseException;
+import org.fernandes.properties.parser.ParseOptions;
+import org.fernandes.properties.parser.ParserEngine;
+import org.fernandes.properties.serialiser.DefaultSerialiser;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -61,6 +83,93 @@ public class HierarchicalPropertiesFactoryTest {
         }
     }
 
+    /**
+     * Checks that the scanner and the grappa parser produce the same tree.
+     */
+    @Test
+    public void testParserEnginesAgree() {
+        for (String sample : new String[]{"map_sample.txt", "map_sample_1.txt", "map_sample_empty.txt"}) {
+            try {
+                String input = new String(Files.readAllBytes(Paths.get("src/test/resources/hierarchicalProperties", sample)), "UTF-8");
+                HierarchicalProperties scanned = HierarchicalPropertiesFactory.createInstance(input, true, ParserEngine.SCANNER);
+                HierarchicalProperties parsed = HierarchicalPropertiesFactory.createInstance(input, true, ParserEngine.GRAPPA);
+                Assert.assertEquals(String.format("The engines disagree on %s", sample), parsed.toString(), scanned.toString());
+            } catch (IOException ex) {
+                Logger.getLogger(HierarchicalPropertiesFactoryTest.class.getName()).log(Level.SEVERE, null, ex);
+                Assert.fail(ex.toString());
+            }
+        }
+        for (String input : new String[]{"[/a]\nx = 1\n   \ny = 2\n", "[/a]\nx = 1\n\t \n\n[/b]\ny = 2\n  \n"}) {
+            ParseOptions options = new ParseOptions().setFailFast(true);
+            HierarchicalProperties scanned = HierarchicalPropertiesFactory.createInstance(input, true,
+                    options.setEngine(ParserEngine.SCANNER));
+            HierarchicalProperties parsed = HierarchicalPropertiesFactory.createInstance(input, true,
+                    options.setEngine(ParserEngine.GRAPPA));
+            Assert.assertEquals(String.format("The engines disagree on %s", input), parsed.toString(), scanned.toString());
+            Assert.assertEquals("1", parsed.getNode("/a").getProperty("x"));
+        }
+    }
+
+    /**
+     * Checks that valid input is parsed in fail fast mode and that the first 
+     * error of invalid input is reported.
+     */
+    @Test
+    public void testFailFast() {
+        for (ParserEngine engine : ParserEngine.values()) {
+            try {
+                String input = new String(Files.readAllBytes(Paths.get("src/test/resources/hierarchicalProperties/map_sample.txt")), "UTF-8");
+                HierarchicalProperties lenient = HierarchicalPropertiesFactory.createInstance(input, true, engine);
+                HierarchicalProperties strict = HierarchicalPropertiesFactory.createInstance(input, true, 
+                        ParseOptions.failFast().setEngine(engine));
+                Assert.assertEquals(lenient.toString(), strict.toString());
+                try {
+                    HierarchicalPropertiesFactory.createInstance("a = 1\n!b = 2\nc = 3\n?d\n", true, 
+                            ParseOptions.failFast().setEngine(engine));
+                    Assert.fail(String.format("%s accepted invalid input", engine));
+                } catch (ParseException e) {
+                    Assert.assertEquals(6, e.getErrorIndex());
+                    Assert.assertEquals(2, e.getLine());
+                    Assert.assertEquals(1, e.getColumn());
+                    Assert.assertTrue(e.getErrors().isEmpty());
+                }
+                try {
+                    HierarchicalPropertiesFactory.createInstance("a = 1\n!b = 2\nc = 3\n?d\n", true, 
+                            ParseOptions.failFast().setDiagnostics(true).setEngine(engine));
+                    Assert.fail(String.format("%s accepted invalid input", engine));
+                } catch (ParseException e) {
+                    Assert.assertEquals(6, e.getErrorIndex());
+                    Assert.assertEquals(2, e.getErrors().size());
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(HierarchicalPropertiesFactoryTest.class.getName()).log(Level.SEVERE, null, ex);
+                Assert.fail(ex.toString());
+            }
+        }
+    }
+
+    /**
+     * Checks that the properties read from a stream, a channel and a reader 
+     * are the same as the ones read from a string.
+     */
+    @Test
+    public void testCreateInstanceFromStream() {
+        Path path = Paths.get("src/test/resources/hierarchicalProperties/map_sample_1.txt");
+        try (InputStream in = Files.newInputStream(path);
+                FileChannel channel = FileChannel.open(path);
+                Reader reader = Files.newBufferedReader(path)) {
+            String expected = HierarchicalPropertiesFactory.createInstance(
+                    new String(Files.readAllBytes(path), "UTF-8"), true).toString();
+            ParseOptions options = ParseOptions.failFast();
+            Assert.assertEquals(expected, HierarchicalPropertiesFactory.createInstance(in, true, options).toString());
+            Assert.assertEquals(expected, HierarchicalPropertiesFactory.createInstance(channel, true, options).toString());
+            Assert.assertEquals(expected, HierarchicalPropertiesFactory.createInstance(reader, true, options).toString());
+        } catch (IOException ex) {
+            Logger.getLogger(HierarchicalPropertiesFactoryTest.class.getName()).log(Level.SEVERE, null, ex);
+            Assert.fail(ex.toString());
+        }
+    }
+
     /**
      * Tests the sample hierarchical properties.
      * @param sample The sample file.
@@ -88,4 +197,310 @@ public class HierarchicalPropertiesFactoryTest {
         }
         return null;
     }
+
+    /**
+     * Checks that every node is found by its hierarchical name, also after 
+     * the root was replaced.
+     */
+    @Test
+    public void testGetNode() {
+        try {
+            HierarchicalProperties props = HierarchicalPropertiesFactory.createInstanceCp("hierarchicalProperties/map_sample.txt");
+            Assert.assertSame("The root is not found", props.getRoot(), props.getNode("/"));
+            int count = 0;
+            for (DefaultNode node : props) {
+                Assert.assertSame(node.getHierarchicalName(), node, props.getNode(node.getHierarchicalName()));
+                count++;
+            }
+            Assert.assertTrue("There are no nodes below the root", count > 1);
+            Assert.assertNull("A missing node is found", props.getNode("/does/not/exist"));
+            HierarchicalProperties other = HierarchicalPropertiesFactory.createInstanceCp("hierarchicalProperties/map_sample_1.txt");
+            props.setRoot(other.getRoot());
+            for (DefaultNode node : other) {
+                Assert.assertSame(node.getHierarchicalName(), node, props.getNode(node.getHierarchicalName()));
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(HierarchicalPropertiesFactoryTest.class.getName()).log(Level.SEVERE, null, ex);
+            Assert.fail(ex.toString());
+        }
+    }
+
+    /**
+     * Checks that the hierarchical name and the depth follow a node, which is
+     * moved to another parent.
+     */
+    @Test
+    public void testHierarchicalNameAfterMove() {
+        HierarchicalProperties props = HierarchicalPropertiesFactory.createInstance("[/a/b/c]\nkey1 = val1\n[/d]\nkey2 = val2\n", true);
+        DefaultNode c = (DefaultNode) props.getNode("/a/b/c");
+        DefaultNode d = (DefaultNode) props.getNode("/d");
+        Assert.assertEquals("/a/b/c", c.getHierarchicalName());
+        int depth = c.getDepth();
+        c.getParent().getChildren().remove(c.getName());
+        c.setParent(d);
+        d.getChildren().put(c.getName(), c);
+        Assert.assertEquals("/d/c", c.getHierarchicalName());
+        Assert.assertEquals(depth - 1, c.getDepth());
+        Assert.assertEquals(d.toString() + "/c", c.toString());
+        HierarchicalProperties pinned = props.snapshot();
+        ((DefaultHierarchicalProperties) props).reindex();
+        Assert.assertSame(c, props.getNode("/d/c"));
+        Assert.assertNull(props.getNode("/a/b/c"));
+        Assert.assertSame("The index of a pinned snapshot changed", c, pinned.getNode("/a/b/c"));
+        Assert.assertNull(pinned.getNode("/d/c"));
+    }
+
+    /**
+     * Checks that chained references are resolved independently of their 
+     * order and that cyclic references are reported.
+     */
+    @Test
+    public void testChainedReferences() {
+        HierarchicalProperties props = HierarchicalPropertiesFactory.createInstance(
+                "[/a]\nkey1 = ${/b:key2}!\n[/b]\nkey2 = ${/c:key3} ${/c:key3}\n[/c]\nkey3 = $val\n", true);
+        Assert.assertEquals("$val $val!", props.getNode("/a").getProperty("key1"));
+        props = HierarchicalPropertiesFactory.createInstance(
+                "[/c]\nkey3 = val\n[/b]\nkey2 = ${/c:key3}\n[/a]\nkey1 = ${/b:key2}\n", true);
+        Assert.assertEquals("val", props.getNode("/a").getProperty("key1"));
+        try {
+            HierarchicalPropertiesFactory.createInstance("[/a]\nkey1 = ${/b:key2}\n[/b]\nkey2 = ${/a:key1}\n", true);
+            Assert.fail("The cycle was not detected.");
+        } catch (IllegalStateException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("/a:key1"));
+        }
+    }
+
+    /**
+     * Checks that the references of a large tree are resolved, when the 
+     * independent references are resolved in parallel.
+     */
+    @Test
+    public void testManyReferences() {
+        StringBuilder input = new StringBuilder("[/target]\n");
+        int size = 5000;
+        for (int i = 0; i < size; i++) {
+            input.append(String.format("key%d = val%d%n", i, i));
+        }
+        input.append("[/source]\n");
+        for (int i = 0; i < size; i++) {
+            input.append(String.format("key%d = ${/target:key%d}%n", i, i));
+        }
+        input.append("[/chain]\n");
+        for (int i = 0; i < size; i++) {
+            input.append(String.format("key%d = ${/source:key%d}%n", i, i));
+        }
+        HierarchicalProperties props = HierarchicalPropertiesFactory.createInstance(input.toString(), true);
+        PropertyNode chain = props.getNode("/chain");
+        for (int i = 0; i < size; i++) {
+            Assert.assertEquals("val" + i, chain.getProperty("key" + i));
+        }
+    }
+
+    /**
+     * Checks that lazily resolved references have the same values as eagerly
+     * resolved ones and follow changes of their targets.
+     */
+    @Test
+    public void testLazyReferences() {
+        String input = "[/a]\nkey1 = ${/b:key2}!\n[/b]\nkey2 = ${/c:key3} ${/c:key3}\n[/c]\nkey3 = val\n";
+        HierarchicalProperties eager = HierarchicalPropertiesFactory.createInstance(input, true);
+        HierarchicalProperties lazy = HierarchicalPropertiesFactory.createInstance(input, true,
+                new ParseOptions().setLazyReferences(true));
+        PropertyNode a = lazy.getNode("/a");
+        Assert.assertEquals("${/b:key2}!", a.getPropertyMap().get("key1"));
+        Assert.assertEquals(eager.getNode("/a").getProperty("key1"), a.getProperty("key1"));
+        Assert.assertSame("The value is not memoised", a.getProperty("key1"), a.getProperty("key1"));
+        lazy.getNode("/c").getPropertyMap().put("key3", "changed");
+        Assert.assertEquals("changed changed!", a.getProperty("key1"));
+        Assert.assertSame("The value is not memoised", a.getProperty("key1"), a.getProperty("key1"));
+        a.getPropertyMap().put("key1", "plain");
+        Assert.assertEquals("plain", a.getProperty("key1"));
+        try {
+            HierarchicalPropertiesFactory.createInstance("[/a]\nkey1 = ${/a:key1}\n", true,
+                    new ParseOptions().setLazyReferences(true));
+            Assert.fail("The cycle was not detected.");
+        } catch (IllegalStateException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("/a:key1"));
+        }
+    }
+
+    /**
+     * Checks the substitution of the system properties and that variables
+     * without a value are kept.
+     */
+    @Test
+    public void testExternalVariables() {
+        System.setProperty("hp.test.dir", "C:\\$dir");
+        try {
+            HierarchicalProperties props = HierarchicalPropertiesFactory.createInstance(
+                    "[/a]\nkey1 = ${SYS.hp.test.dir}/${SYS.hp.test.dir}\nkey2 = ${SYS.hp.test.missing}\nkey3 = plain\n",
+                    true);
+            PropertyNode a = props.getNode("/a");
+            Assert.assertEquals("C:\\$dir/C:\\$dir", a.getProperty("key1"));
+            Assert.assertEquals("${SYS.hp.test.missing}", a.getProperty("key2"));
+            Assert.assertEquals("plain", a.getProperty("key3"));
+        } finally {
+            System.clearProperty("hp.test.dir");
+        }
+    }
+
+    /**
+     * Checks that frozen properties contain the same nodes and resolved 
+     * values as the properties they were created from and cannot be changed.
+     */
+    @Test
+    public void testFreeze() {
+        try {
+            HierarchicalProperties props = HierarchicalPropertiesFactory.createInstanceCp("hierarchicalProperties/map_sample.txt");
+            HierarchicalProperties frozen = props.freeze();
+            Assert.assertEquals(props.toString(), frozen.toString());
+            Assert.assertEquals(props.nodeCount(), frozen.nodeCount());
+            StringWriter expected = new StringWriter();
+            StringWriter actual = new StringWriter();
+            new DefaultSerialiser().serialize(props, expected);
+            new DefaultSerialiser().serialize(frozen, actual);
+            Assert.assertEquals(expected.toString(), actual.toString());
+            for (DefaultNode node : props) {
+                PropertyNode frozenNode = frozen.getNode(node.getHierarchicalName());
+                Assert.assertEquals(node.getPropertyMap(), frozenNode.getPropertyMap());
+                Assert.assertEquals(node.getChildren().keySet(), frozenNode.getChildren().keySet());
+            }
+            Assert.assertSame(frozen, frozen.freeze());
+            try {
+                frozen.getNode("/Test").getPropertyMap().put("key", "value");
+                Assert.fail("A frozen node was changed.");
+            } catch (UnsupportedOperationException ex) {
+                // expected
+            }
+            HierarchicalProperties lazy = HierarchicalPropertiesFactory.createInstance(
+                    "[/a]\nkey1 = ${/b:key2}\n[/b]\nkey2 = val\n", true, new ParseOptions().setLazyReferences(true));
+            Assert.assertEquals("val", lazy.freeze().getNode("/a").getPropertyMap().get("key1"));
+        } catch (IOException ex) {
+            Logger.getLogger(HierarchicalPropertiesFactoryTest.class.getName()).log(Level.SEVERE, null, ex);
+            Assert.fail(ex.toString());
+        }
+    }
+
+    /**
+     * Checks that readers of a snapshot always read consistent values, while
+     * the root is replaced concurrently.
+     */
+    @Test
+    public void testSnapshot() {
+        HierarchicalProperties props = HierarchicalPropertiesFactory.createInstance("[/a]\nversion = 0\n[/b]\nversion = 0\n", true);
+        HierarchicalProperties first = props.snapshot();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                while (running.get()) {
+                    HierarchicalProperties snapshot = props.snapshot();
+                    String a = snapshot.getNode("/a").getProperty("version");
+                    String b = snapshot.getNode("/b").getProperty("version");
+                    if (!a.equals(b)) {
+                        failure.set(String.format("Read version %s and %s.", a, b));
+                    }
+                }
+            });
+            readers[i].start();
+        }
+        for (int version = 1; version <= 200; version++) {
+            HierarchicalProperties reloaded = HierarchicalPropertiesFactory.createInstance(
+                    String.format("[/a]%nversion = %d%n[/b]%nversion = %d%n", version, version), true);
+            props.setRoot(reloaded.getRoot());
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            try {
+                reader.join();
+            } catch (InterruptedException ex) {
+                Assert.fail(ex.toString());
+            }
+        }
+        Assert.assertNull(failure.get(), failure.get());
+        Assert.assertEquals("0", first.getNode("/a").getProperty("version"));
+        Assert.assertEquals("200", props.getNode("/b").getProperty("version"));
+        try {
+            first.addPropertyChangeListener(evt -> { });
+            Assert.fail("A snapshot accepted a listener.");
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Checks that replacing the root fires the changed nodes and properties
+     * to the listeners of their paths and all changes with the root event.
+     */
+    @Test
+    public void testChangeEvents() {
+        HierarchicalProperties props = HierarchicalPropertiesFactory.createInstance(
+                "[/a]\nk1 = 1\nk2 = 2\n[/b]\nx = 1\n", true);
+        ((DefaultHierarchicalProperties) props).setListenerExecutor(Runnable::run);
+        List<String> nodeA = new ArrayList<>();
+        List<String> keyK2 = new ArrayList<>();
+        List<RootChangeEvent> roots = new ArrayList<>();
+        props.addPropertyChangeListener("/a", evt -> nodeA.add(evt.toString()));
+        props.addPropertyChangeListener("/a:k2", evt -> keyK2.add(evt.getOldValue() + "->" + evt.getNewValue()));
+        props.addPropertyChangeListener(evt -> roots.add((RootChangeEvent) evt));
+        HierarchicalProperties reloaded = HierarchicalPropertiesFactory.createInstance(
+                "[/a]\nk1 = 1\nk2 = 3\nk3 = 4\n[/c]\ny = 1\n", true);
+        props.setRoot(reloaded.getRoot());
+        Assert.assertEquals(Arrays.asList("2->3"), keyK2);
+        Assert.assertEquals(Arrays.asList("PROPERTY_CHANGED /a:k2: 2 -> 3", "PROPERTY_ADDED /a:k3: null -> 4"), nodeA);
+        Assert.assertEquals(1, roots.size());
+        Assert.assertEquals(RootChangeEvent.ROOT, roots.get(0).getPropertyName());
+        List<String> changes = new ArrayList<>();
+        for (HierarchicalPropertyChangeEvent change : roots.get(0).getChanges()) {
+            changes.add(change.getType() + " " + change.getPropertyName());
+        }
+        Assert.assertEquals(Arrays.asList("PROPERTY_CHANGED /a:k2", "PROPERTY_ADDED /a:k3",
+                "NODE_REMOVED /b", "PROPERTY_REMOVED /b:x", "NODE_ADDED /c", "PROPERTY_ADDED /c:y"), changes);
+    }
+
+    /**
+     * Checks that subtree listeners receive the changes below their node in
+     * order and that a slow listener neither blocks the replacement of the
+     * root nor the other listeners.
+     */
+    @Test
+    public void testListenerDelivery() {
+        HierarchicalProperties props = HierarchicalPropertiesFactory.createInstance(
+                "[/a]\nv = 0\n[/a/b]\nv = 0\n[/c]\nv = 0\n", true);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> subtree = Collections.synchronizedList(new ArrayList<>());
+        List<String> slow = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch delivered = new CountDownLatch(3);
+        props.addPropertyChangeListener("/a/**", evt -> {
+            subtree.add(evt.getPropertyName() + "=" + evt.getNewValue());
+            delivered.countDown();
+        });
+        props.addPropertyChangeListener("/c:v", evt -> {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            slow.add((String) evt.getNewValue());
+        });
+        for (int version = 1; version <= 2; version++) {
+            HierarchicalProperties reloaded = HierarchicalPropertiesFactory.createInstance(String.format(
+                    "[/a]%nv = %d%n[/a/b]%nv = %d%n[/c]%nv = %d%n", version, version == 1 ? 0 : 2, version), true);
+            props.setRoot(reloaded.getRoot());
+        }
+        try {
+            Assert.assertTrue("The subtree listener was blocked", delivered.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(Arrays.asList("/a:v=1", "/a:v=2", "/a/b:v=2"), subtree);
+            Assert.assertTrue("The slow listener was called too early", slow.isEmpty());
+            release.countDown();
+            long end = System.currentTimeMillis() + 10000;
+            while (slow.size() < 2 && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException ex) {
+            Assert.fail(ex.toString());
+        }
+        Assert.assertEquals(Arrays.asList("1", "2"), slow);
+    }
 }
@@ -3,18 +3,37 @@
  */
 package org.fernandes.properties.factory;
 
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import junit.framework.Assert;
 import org.fernandes.properties.model.HierarchicalProperties;
+import org.fernandes.properties.model.PreProcessorContainer;
+import org.fernandes.properties.model.PreProcessorTemplate;
 import org.fernandes.properties.model.PropertyNode;
+import org.fernandes.properties.parser.ParseException;
+import org.fernandes.properties.parser.ParseOptions;
+import org.fernandes.properties.parser.ParserEngine;
+import org.fernandes.properties.util.Rope;
 import org.junit.Test;
 
 /**
@@ -55,6 +74,196 @@ public class PreProcessorFactoryTest {
         }
     }
 
+    /**
+     * Compiles a file once and renders it with different defines, which
+     * override the definitions in the file.
+     */
+    @Test
+    public void compileAndRender() {
+        try {
+            for (ParserEngine engine : ParserEngine.values()) {
+                ParseOptions options = new ParseOptions().setEngine(engine);
+                for (String file : new String[]{"map_if_else_elseif.txt", "map_if_else_nested.txt", "map_for.txt"}) {
+                    Path path = Paths.get("src/test/resources/hierarchicalProperties", file);
+                    PreProcessorTemplate template = PreProcessorFactory.compile(path, options);
+                    Assert.assertEquals(String.format("%s differs with %s", file, engine),
+                            PreProcessorFactory.createInstance(path, options),
+                            template.render(Collections.emptyMap()).toString());
+                }
+                PreProcessorTemplate template = PreProcessorFactory.compile(
+                        Paths.get("src/test/resources/hierarchicalProperties/map_if_else_elseif.txt"), options);
+                String staging = template.render(Collections.emptyMap()).toString();
+                Assert.assertTrue(staging.contains("keyStaging"));
+                Assert.assertFalse(staging.contains("keyDef"));
+                String prod = template.render(Collections.singletonMap("env", "prod")).toString();
+                Assert.assertTrue(prod.contains("key3 = value3"));
+                Assert.assertFalse(prod.contains("keyStaging"));
+                Assert.assertFalse(prod.contains("keyDef"));
+                String dev = template.render(Collections.singletonMap("env", "dev")).toString();
+                Assert.assertTrue(dev.contains("keyDef = dev_val"));
+                Assert.assertFalse(dev.contains("keyStaging"));
+            }
+        } catch (Exception e) {
+            Logger.getLogger(PreProcessorFactoryTest.class.getName()).log(Level.SEVERE, "Test fails", e);
+            Assert.fail(e.toString());
+        }
+    }
+
+    /**
+     * Checks that the renderings of a template share the short text outside
+     * of the if statements instead of copying it.
+     */
+    @Test
+    public void renderingsShareText() {
+        String input = "!<def:env=dev>\n[/Test]\nshared = 1\n!<if:env == prod>\np = 1\n!<else>\nd = 1\n!<endif>\n";
+        for (ParserEngine engine : ParserEngine.values()) {
+            PreProcessorTemplate template = PreProcessorFactory.compile(input, new ParseOptions().setEngine(engine));
+            Rope dev = (Rope) template.render(Collections.emptyMap());
+            Rope prod = (Rope) template.render(Collections.singletonMap("env", "prod"));
+            Assert.assertTrue(dev.toString().contains("d = 1"));
+            Assert.assertTrue(prod.toString().contains("p = 1"));
+            Set<CharSequence> devSegments = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int i = 0; i < dev.segmentCount(); i++) {
+                devSegments.add(dev.getSegment(i));
+            }
+            boolean shared = false;
+            for (int i = 0; i < prod.segmentCount(); i++) {
+                CharSequence segment = prod.getSegment(i);
+                shared |= devSegments.contains(segment) && segment.toString().contains("shared = 1");
+            }
+            Assert.assertTrue(String.format("The text is not shared with %s", engine), shared);
+        }
+    }
+
+    /**
+     * Checks that only the first matching branch of an if, else if and else
+     * chain is included.
+     */
+    @Test
+    public void elseIfChain() {
+        String input = "!<def:env=prod>\n!<if:env == prod>\na = 1\n!<elseif:env != dev>\nb = 2\n!<else>\nc = 3\n!<endif>\n";
+        for (ParserEngine engine : ParserEngine.values()) {
+            String included = PreProcessorFactory.createInstance(input, new ParseOptions().setEngine(engine));
+            Assert.assertTrue(included.contains("a = 1"));
+            Assert.assertFalse(included.contains("b = 2"));
+            Assert.assertFalse(included.contains("c = 3"));
+        }
+    }
+
+    /**
+     * Checks the numeric, regular expression and list comparisons and their
+     * combination with {@code &&} and {@code ||}.
+     */
+    @Test
+    public void compoundConditions() {
+        String input = "!<def:env=prod>\n!<def:port=8080>\n"
+                + "!<if:env in (test, prod) && port >= 8000>\na = 1\n!<endif>\n"
+                + "!<if:port < 8000 || env =~ pr.d>\nb = 2\n!<endif>\n"
+                + "!<if:env == dev || env != prod && port > 80>\nc = 3\n!<endif>\n"
+                + "!<if:env !~ prod.* || port <= 8080 && env in (dev)>\nd = 4\n!<else>\ne = 5\n!<endif>\n";
+        for (ParserEngine engine : ParserEngine.values()) {
+            ParseOptions options = new ParseOptions().setEngine(engine);
+            String included = PreProcessorFactory.createInstance(input, options);
+            Assert.assertTrue(included.contains("a = 1"));
+            Assert.assertTrue(included.contains("b = 2"));
+            Assert.assertFalse(included.contains("c = 3"));
+            Assert.assertFalse(included.contains("d = 4"));
+            Assert.assertTrue(included.contains("e = 5"));
+            PreProcessorTemplate template = PreProcessorFactory.compile(input, options);
+            Assert.assertEquals(included, template.render(Collections.emptyMap()).toString());
+            Map<String, String> dev = new HashMap<>();
+            dev.put("env", "dev");
+            dev.put("port", "80");
+            String rendered = template.render(dev).toString();
+            Assert.assertFalse(rendered.contains("a = 1"));
+            Assert.assertTrue(rendered.contains("b = 2"));
+            Assert.assertTrue(rendered.contains("c = 3"));
+            Assert.assertTrue(rendered.contains("d = 4"));
+        }
+    }
+
+    /**
+     * Checks that the branches of an if, which do not match, are skipped
+     * together with their nested ifs, which are not evaluated.
+     */
+    @Test
+    public void skipInactiveBranches() {
+        String input = "!<def:env=prod>\n!<if:env == dev>\nskipped = 1\n!<if:undefined == x>\nnested = 2\n!<endif>\n"
+                + "!<for i = 1 : 3>\nloop!<$i> = 3\n!<endfor>\n!<elseif:env == prod>\nprod = 4\n!<else>\nother = 5\n!<endif>\n"
+                + "after = 6\n";
+        for (ParserEngine engine : ParserEngine.values()) {
+            String included = PreProcessorFactory.createInstance(input, new ParseOptions().setEngine(engine));
+            Assert.assertFalse(included.contains("skipped"));
+            Assert.assertFalse(included.contains("nested"));
+            Assert.assertFalse(included.contains("loop"));
+            Assert.assertTrue(included.contains("prod = 4"));
+            Assert.assertFalse(included.contains("other"));
+            Assert.assertTrue(included.contains("after = 6"));
+        }
+    }
+
+    /**
+     * Checks that the iterations of a loop are written to the sink one by one
+     * instead of being collected in memory first.
+     */
+    @Test
+    public void streamLoop() {
+        try {
+            String input = "!<for i = 1 : 10000>\nkey!<$i> = value\n!<endfor>\n";
+            long[] written = new long[2];
+            Appendable sink = new Appendable() {
+
+                @Override
+                public Appendable append(CharSequence csq) {
+                    written[0] += csq.length();
+                    written[1] = Math.max(written[1], csq.length());
+                    return this;
+                }
+
+                @Override
+                public Appendable append(CharSequence csq, int start, int end) {
+                    return append(csq.subSequence(start, end));
+                }
+
+                @Override
+                public Appendable append(char c) {
+                    return append(String.valueOf(c));
+                }
+            };
+            for (ParserEngine engine : ParserEngine.values()) {
+                ParseOptions options = new ParseOptions().setEngine(engine);
+                written[0] = written[1] = 0;
+                engine.preprocess(input, new PreProcessorContainer(sink), options).finish();
+                long expected = PreProcessorFactory.createInstance(input, options).length();
+                Assert.assertEquals(expected, written[0]);
+                Assert.assertTrue("The loop was collected in memory", written[1] < 100);
+                written[0] = written[1] = 0;
+                PreProcessorFactory.compile(input, options).render(Collections.emptyMap(), sink);
+                Assert.assertEquals(expected, written[0]);
+                Assert.assertTrue("The loop was collected in memory", written[1] < 100);
+            }
+        } catch (Exception e) {
+            Logger.getLogger(PreProcessorFactoryTest.class.getName()).log(Level.SEVERE, "Test fails", e);
+            Assert.fail(e.toString());
+        }
+    }
+
+    /**
+     * Checks that a loop does not repeat the output of an earlier loop.
+     */
+    @Test
+    public void consecutiveLoops() {
+        try {
+            String included = PreProcessorFactory.createInstance(
+                    "!<for i = 1 : 2>\na!<$i> = 1\n!<endfor>\n!<for j = 1 : 2>\nb!<$j> = 2\n!<endfor>\n");
+            Assert.assertEquals(1, included.split("a1 =", -1).length - 1);
+            Assert.assertEquals(1, included.split("b2 =", -1).length - 1);
+        } catch (Exception e) {
+            Logger.getLogger(PreProcessorFactoryTest.class.getName()).log(Level.SEVERE, "Test fails", e);
+            Assert.fail(e.toString());
+        }
+    }
+
     /**
      * Creates an instance of the preprocessor factory and performs the includes
      * from the classpath, checks if the if condition works.
@@ -314,6 +523,50 @@ public class PreProcessorFactoryTest {
         }
     }
 
+    /**
+     * Checks that an invalid directive is reported in fail fast mode.
+     */
+    @Test
+    public void createInstanceFailFast() {
+        try {
+            String included = PreProcessorFactory.createInstance(Paths.get("src/test/resources/hierarchicalProperties/map_if_1.txt"),
+                    ParseOptions.failFast());
+            Assert.assertEquals(PreProcessorFactory.createInstance(Paths.get("src/test/resources/hierarchicalProperties/map_if_1.txt")),
+                    included);
+            PreProcessorFactory.createInstance("a = 1\n!<unknown>\n", ParseOptions.failFast());
+            Assert.fail("The invalid directive was accepted");
+        } catch (ParseException e) {
+            Assert.assertEquals(2, e.getLine());
+        } catch (Exception e) {
+            Logger.getLogger(PreProcessorFactoryTest.class.getName()).log(Level.SEVERE, "Test fails", e);
+            Assert.fail(e.toString());
+        }
+    }
+
+    /**
+     * Checks that the scanner and the grappa parser produce the same text and
+     * that the text read from a reader is the same as the one read from a
+     * string.
+     */
+    @Test
+    public void createInstanceEnginesAgree() {
+        for (String sample : new String[]{"map_define_1.txt", "map_if_else_elseif.txt", "map_if_else_nested.txt", 
+            "map_include_cp.txt", "map_not_if_1.txt", "map_for.txt"}) {
+            try {
+                String input = new String(Files.readAllBytes(Paths.get("src/test/resources/hierarchicalProperties", sample)), "UTF-8");
+                String scanned = PreProcessorFactory.createInstance(input, new ParseOptions());
+                String parsed = PreProcessorFactory.createInstance(input, new ParseOptions().setEngine(ParserEngine.GRAPPA));
+                Assert.assertEquals(String.format("The engines disagree on %s", sample), parsed, scanned);
+                try (Reader reader = new StringReader(input)) {
+                    Assert.assertEquals(scanned, PreProcessorFactory.createInstance(reader, ParseOptions.failFast()));
+                }
+            } catch (Exception e) {
+                Logger.getLogger(PreProcessorFactoryTest.class.getName()).log(Level.SEVERE, "Test fails", e);
+                Assert.fail(e.toString());
+            }
+        }
+    }
+
     /**
      * Simply includes from http.
      */
@@ -362,4 +615,61 @@ public class PreProcessorFactoryTest {
         String val2 = root.getProperty("key2");
         Assert.assertFalse("The value for key2 should not be null", val2 == null);
     }
+
+    /**
+     * Checks that prefetched includes are inserted in document order and that
+     * the pre-processing takes about as long as the slowest include instead of
+     * the sum of all includes. The include server answers include {@code n}
+     * after {@code n * 100} milliseconds.
+     */
+    @Test
+    public void prefetchIncludes() {
+        HttpServer server = null;
+        ExecutorService serverExecutor = Executors.newCachedThreadPool();
+        try {
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext("/", exchange -> {
+                String name = exchange.getRequestURI().getPath().substring(1);
+                try {
+                    Thread.sleep(Integer.parseInt(name) * 100L);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = String.format("key%s = value%s%n", name, name).getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.setExecutor(serverExecutor);
+            server.start();
+            StringBuilder input = new StringBuilder("[/Test]\n");
+            for (int i = 5; i >= 1; i--) {
+                input.append(String.format("!<http://localhost:%d/%d>%n", server.getAddress().getPort(), i));
+            }
+            input.append("keyLast = last\n");
+            long start = System.nanoTime();
+            String sequential = PreProcessorFactory.createInstance(input.toString(), new ParseOptions());
+            long sequentialMillis = (System.nanoTime() - start) / 1000000;
+            start = System.nanoTime();
+            String prefetched = PreProcessorFactory.createInstance(input.toString(),
+                    new ParseOptions().setPrefetchIncludes(true));
+            long prefetchedMillis = (System.nanoTime() - start) / 1000000;
+            Assert.assertEquals("The includes are not in document order", sequential, prefetched);
+            Assert.assertTrue(prefetched, prefetched.indexOf("key5") < prefetched.indexOf("key1"));
+            Assert.assertTrue(prefetched, prefetched.contains("key3 = value3"));
+            Assert.assertTrue(String.format("The sequential includes took %d ms", sequentialMillis),
+                    sequentialMillis >= 1500);
+            Assert.assertTrue(String.format("The prefetched includes took %d ms", prefetchedMillis),
+                    prefetchedMillis < 1200);
+        } catch (IOException ex) {
+            Logger.getLogger(PreProcessorFactoryTest.class.getName()).log(Level.SEVERE, null, ex);
+            Assert.fail(ex.toString());
+        } finally {
+            if (server != null) {
+                server.stop(0);
+            }
+            serverExecutor.shutdownNow();
+        }
+    }
 }
@@ -0,0 +1,50 @@
+/*
+ OSSCUBE 2014
+ */
+package org.fernandes.properties.parser;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import junit.framework.Assert;
+import org.fernandes.properties.model.DefaultHierarchicalProperties;
+import org.junit.Test;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.support.ParsingResult;
+
+/**
+ * Test for the parser factory.
+ *
+ * @author onepoint
+ */
+public class ParserFactoryTest {
+
+    /**
+     * Checks that the extended parser class is generated once and that every
+     * parser instance has its own state.
+     */
+    @Test
+    public void createParser() {
+        try {
+            HierarchicalPropertiesParser parser1 = ParserFactory.createParser(HierarchicalPropertiesParser.class);
+            HierarchicalPropertiesParser parser2 = ParserFactory.createParser(HierarchicalPropertiesParser.class);
+            Assert.assertNotSame("The parser instance is shared", parser1, parser2);
+            Assert.assertSame("The parser class is generated twice", parser1.getClass(), parser2.getClass());
+            Assert.assertNotSame("The properties are shared", parser1.props, parser2.props);
+            ParsingResult<DefaultHierarchicalProperties> result1
+                    = new BasicParseRunner<DefaultHierarchicalProperties>(parser1.main()).run("a = 1\n");
+            ParsingResult<DefaultHierarchicalProperties> result2
+                    = new BasicParseRunner<DefaultHierarchicalProperties>(parser2.main()).run("b = 2\n");
+            Assert.assertEquals("1", result1.resultValue.getRoot().getProperty("a"));
+            Assert.assertNull(result1.resultValue.getRoot().getProperty("b"));
+            Assert.assertEquals("2", result2.resultValue.getRoot().getProperty("b"));
+            Assert.assertNull(result2.resultValue.getRoot().getProperty("a"));
+            PreProcessorParser preParser1 = ParserFactory.createParser(PreProcessorParser.class);
+            PreProcessorParser preParser2 = ParserFactory.createParser(PreProcessorParser.class);
+            Assert.assertNotSame("The container is shared", preParser1.preProcessorContainer,
+                    preParser2.preProcessorContainer);
+        } catch (Exception e) {
+            Logger.getLogger(ParserFactoryTest.class.getName()).log(Level.SEVERE, "Test fails", e);
+            Assert.fail(e.toString());
+        }
+    }
+}
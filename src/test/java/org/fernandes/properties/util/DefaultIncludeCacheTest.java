@@ -0,0 +1,260 @@
+/*
+ OSSCUBE 2014
+ */
+package org.fernandes.properties.util;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import junit.framework.Assert;
+import org.fernandes.properties.model.IncludeType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Include cache tester.
+ *
+ * @author onepoint
+ */
+public class DefaultIncludeCacheTest {
+
+    /**
+     * The include server.
+     */
+    private HttpServer server;
+
+    /**
+     * The executor of the include server.
+     */
+    private ExecutorService serverExecutor;
+
+    /**
+     * The content served by the include server.
+     */
+    private volatile String body = "key1 = value1\n";
+
+    /**
+     * The delay of the responses of the include server in milliseconds.
+     */
+    private volatile long delay;
+
+    /**
+     * The number of requests answered with the content.
+     */
+    private final AtomicInteger loaded = new AtomicInteger();
+
+    /**
+     * The number of requests answered with "not modified".
+     */
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    /**
+     * Starts an include server, which supports entity tags.
+     *
+     * @throws IOException if the server cannot be started.
+     */
+    @Before
+    public void setUp() throws IOException {
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            String content = body;
+            String etag = "\"" + Integer.toHexString(content.hashCode()) + "\"";
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            loaded.incrementAndGet();
+            byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("ETag", etag);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    /**
+     * Stops the include server.
+     */
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns the URL of an include on the include server.
+     *
+     * @return the URL of an include on the include server.
+     * @throws IOException if the URL is invalid.
+     */
+    private URL includeUrl() throws IOException {
+        return new URL(String.format("http://localhost:%d/include.txt", server.getAddress().getPort()));
+    }
+
+    /**
+     * Tests the revalidation with entity tags and the time to live.
+     */
+    @Test
+    public void revalidate() {
+        try {
+            DefaultIncludeCache cache = new DefaultIncludeCache();
+            URL url = includeUrl();
+            Assert.assertEquals(body, cache.fetch(IncludeType.HTTP, url).toString());
+            Assert.assertEquals(body, cache.fetch(IncludeType.HTTP, url).toString());
+            Assert.assertEquals("The content was not revalidated", 1, notModified.get());
+            Assert.assertEquals(1, cache.getHits());
+            Assert.assertEquals(1, cache.getMisses());
+            body = "key1 = value2\n";
+            Assert.assertEquals(body, cache.fetch(IncludeType.HTTP, url).toString());
+            Assert.assertEquals(2, cache.getMisses());
+            cache.setTtl(IncludeType.HTTP, 1, TimeUnit.HOURS);
+            int requests = loaded.get() + notModified.get();
+            body = "key1 = value3\n";
+            Assert.assertEquals("key1 = value2\n", cache.fetch(IncludeType.HTTP, url).toString());
+            Assert.assertEquals("The server was asked within the time to live", requests,
+                    loaded.get() + notModified.get());
+        } catch (IOException ex) {
+            Logger.getLogger(DefaultIncludeCacheTest.class.getName()).log(Level.SEVERE, null, ex);
+            Assert.fail(ex.toString());
+        }
+    }
+
+    /**
+     * Tests that an expired content is returned without waiting for a slow
+     * server and replaced after the revalidation in the background.
+     */
+    @Test
+    public void staleWhileRevalidate() {
+        try {
+            DefaultIncludeCache cache = new DefaultIncludeCache().setStaleWhileRevalidate(true);
+            URL url = includeUrl();
+            Assert.assertEquals("key1 = value1\n", cache.fetch(IncludeType.HTTP, url).toString());
+            delay = 1000;
+            body = "key1 = value2\n";
+            long start = System.nanoTime();
+            Assert.assertEquals("key1 = value1\n", cache.fetch(IncludeType.HTTP, url).toString());
+            Assert.assertTrue("The stale content was not returned immediately",
+                    System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+            long end = System.currentTimeMillis() + 10000;
+            while (!body.equals(cache.fetch(IncludeType.HTTP, url).toString()) && System.currentTimeMillis() < end) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals(body, cache.fetch(IncludeType.HTTP, url).toString());
+        } catch (IOException | InterruptedException ex) {
+            Logger.getLogger(DefaultIncludeCacheTest.class.getName()).log(Level.SEVERE, null, ex);
+            Assert.fail(ex.toString());
+        }
+    }
+
+    /**
+     * Tests that files are revalidated with their modification time and size
+     * and that their URLs share one entry.
+     */
+    @Test
+    public void fileRevalidation() {
+        try {
+            DefaultIncludeCache cache = new DefaultIncludeCache();
+            Path file = Files.createTempFile("include", ".txt");
+            Files.write(file, "key1 = 1\n".getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals("key1 = 1\n", cache.fetch(IncludeType.FILE, file.toUri().toURL()).toString());
+            Assert.assertEquals("key1 = 1\n", cache.fetch(IncludeType.FILE, new URL("file:" + file)).toString());
+            Assert.assertEquals(1, cache.getHits());
+            Files.write(file, "key1 = 22\n".getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals("key1 = 22\n", cache.fetch(IncludeType.FILE, file.toUri().toURL()).toString());
+            Assert.assertEquals(2, cache.getMisses());
+            Files.delete(file);
+        } catch (IOException ex) {
+            Logger.getLogger(DefaultIncludeCacheTest.class.getName()).log(Level.SEVERE, null, ex);
+            Assert.fail(ex.toString());
+        }
+    }
+
+    /**
+     * Tests that concurrent fetches of a content, which is not cached, load
+     * it only once.
+     */
+    @Test
+    public void concurrentMisses() {
+        ExecutorService fetchers = Executors.newFixedThreadPool(8);
+        try {
+            DefaultIncludeCache cache = new DefaultIncludeCache();
+            URL url = includeUrl();
+            delay = 500;
+            List<Future<CharSequence>> contents = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                contents.add(fetchers.submit(() -> cache.fetch(IncludeType.HTTP, url)));
+            }
+            for (Future<CharSequence> content : contents) {
+                Assert.assertEquals(body, content.get().toString());
+            }
+            Assert.assertEquals("The content was loaded more than once", 1, loaded.get());
+            Assert.assertEquals(1, cache.getMisses());
+        } catch (IOException | InterruptedException | ExecutionException ex) {
+            Logger.getLogger(DefaultIncludeCacheTest.class.getName()).log(Level.SEVERE, null, ex);
+            Assert.fail(ex.toString());
+        } finally {
+            fetchers.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that the contents fetched least recently are evicted, when the
+     * maximum size is exceeded.
+     */
+    @Test
+    public void maximumSize() {
+        try {
+            DefaultIncludeCache cache = new DefaultIncludeCache().setMaximumSize(2);
+            List<Path> files = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Path file = Files.createTempFile("include", ".txt");
+                Files.write(file, String.format("key1 = %d%n", i).getBytes(StandardCharsets.UTF_8));
+                files.add(file);
+            }
+            cache.fetch(IncludeType.FILE, files.get(0).toUri().toURL());
+            cache.fetch(IncludeType.FILE, files.get(1).toUri().toURL());
+            cache.fetch(IncludeType.FILE, files.get(0).toUri().toURL());
+            cache.fetch(IncludeType.FILE, files.get(2).toUri().toURL());
+            Assert.assertEquals(2, cache.size());
+            Assert.assertEquals(3, cache.getMisses());
+            cache.fetch(IncludeType.FILE, files.get(0).toUri().toURL());
+            Assert.assertEquals("The content fetched recently was evicted", 3, cache.getMisses());
+            cache.fetch(IncludeType.FILE, files.get(1).toUri().toURL());
+            Assert.assertEquals("The content fetched least recently was not evicted", 4, cache.getMisses());
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(DefaultIncludeCacheTest.class.getName()).log(Level.SEVERE, null, ex);
+            Assert.fail(ex.toString());
+        }
+    }
+}
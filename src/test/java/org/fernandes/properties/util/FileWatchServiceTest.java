@@ -0,0 +1,95 @@
+/*
+ OSSCUBE 2014
+ */
+package org.fernandes.properties.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * File watch service tester.
+ *
+ * @author onepoint
+ */
+public class FileWatchServiceTest {
+
+    /**
+     * Tests that a burst of modifications of several files in the same
+     * directory causes a single call per file and that closed registrations
+     * are not called anymore.
+     */
+    @Test
+    public void debounce() {
+        Path dir = null;
+        try (FileWatchService service = new FileWatchService(300, TimeUnit.MILLISECONDS)) {
+            dir = Files.createTempDirectory("watch");
+            Path first = dir.resolve("first.txt");
+            Path second = dir.resolve("second.txt");
+            AtomicInteger firstCount = new AtomicInteger();
+            AtomicInteger secondCount = new AtomicInteger();
+            service.watch(first, firstCount::incrementAndGet);
+            Closeable secondRegistration = service.watch(second, secondCount::incrementAndGet);
+            for (int i = 0; i < 10; i++) {
+                Files.write(first, ("a = " + i).getBytes());
+                Files.write(second, ("b = " + i).getBytes());
+            }
+            waitFor(firstCount, 1);
+            waitFor(secondCount, 1);
+            Thread.sleep(1000);
+            Assert.assertEquals(1, firstCount.get());
+            Assert.assertEquals(1, secondCount.get());
+            secondRegistration.close();
+            Files.write(first, "a = x".getBytes());
+            Files.write(second, "b = x".getBytes());
+            waitFor(firstCount, 2);
+            Thread.sleep(1000);
+            Assert.assertEquals(1, secondCount.get());
+        } catch (IOException | InterruptedException ex) {
+            Logger.getLogger(FileWatchServiceTest.class.getName()).log(Level.SEVERE, null, ex);
+            Assert.fail(ex.toString());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Deletes a directory with its files.
+     *
+     * @param dir The directory or {@code null}.
+     */
+    private static void delete(Path dir) {
+        if (dir == null) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException ex) {
+            Logger.getLogger(FileWatchServiceTest.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * Waits until a counter reaches a value or fails after 10 seconds.
+     *
+     * @param counter The counter.
+     * @param expected The expected value.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    private static void waitFor(AtomicInteger counter, int expected) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (counter.get() < expected && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(expected, counter.get());
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ OSSCUBE 2014
+ */
+package org.fernandes.properties.util;
+
+import java.util.Random;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * Rope tester.
+ *
+ * @author onepoint
+ */
+public class RopeTest {
+
+    /**
+     * Tests that long segments are referenced, short segments are collected
+     * in one buffer and that the rope reads like the concatenated text.
+     */
+    @Test
+    public void appendAndRead() {
+        Random random = new Random(42);
+        Rope rope = new Rope();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            StringBuilder part = new StringBuilder();
+            int length = random.nextBoolean() ? random.nextInt(Rope.COPY_LIMIT) : Rope.COPY_LIMIT + random.nextInt(500);
+            for (int j = 0; j < length; j++) {
+                part.append((char) ('a' + random.nextInt(26)));
+            }
+            rope.append(part);
+            expected.append(part);
+        }
+        Assert.assertTrue("Short segments were not collected", rope.segmentCount() < 200);
+        Assert.assertEquals(expected.length(), rope.length());
+        Assert.assertEquals(expected.toString(), rope.toString());
+        for (int i = 0; i < expected.length(); i++) {
+            Assert.assertEquals(expected.charAt(i), rope.charAt(i));
+        }
+        for (int i = 0; i < 100; i++) {
+            int start = random.nextInt(expected.length());
+            int end = start + random.nextInt(expected.length() - start);
+            Assert.assertEquals(expected.substring(start, end), rope.subSequence(start, end).toString());
+            Assert.assertEquals(expected.charAt(end), rope.charAt(end));
+        }
+        Rope copy = new Rope().append(rope).append(rope, 10, 20);
+        rope.append('!');
+        Assert.assertEquals(expected.toString() + expected.substring(10, 20), copy.toString());
+    }
+}